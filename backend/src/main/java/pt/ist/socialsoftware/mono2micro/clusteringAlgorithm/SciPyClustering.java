@@ -66,10 +66,19 @@ public class SciPyClustering extends Clustering {
     }
 
     private JSONObject invokePythonCut(Decomposition decomposition, String similarityMatrixName, String linkageType, String cutType, float cutValue) {
+        return invokePythonCut(decomposition, similarityMatrixName, null, linkageType, cutType, cutValue);
+    }
+
+    // With weights, the similarity matrix is a raw one and the scripts weight it with them
+    private JSONObject invokePythonCut(Decomposition decomposition, String similarityMatrixName, String weights, String linkageType, String cutType, float cutValue) {
         String response = WebClient.create(SCRIPTS_ADDRESS)
                 .get()
-                .uri("/scipy/{similarityMatrixName}/{linkageType}/{cutType}/{cutValue}/createDecomposition",
-                        similarityMatrixName, linkageType, cutType, Float.toString(cutValue))
+                .uri(uriBuilder -> {
+                    uriBuilder.path("/scipy/{similarityMatrixName}/{linkageType}/{cutType}/{cutValue}/createDecomposition");
+                    if (weights != null)
+                        uriBuilder.queryParam("weights", weights);
+                    return uriBuilder.build(similarityMatrixName, linkageType, cutType, Float.toString(cutValue));
+                })
                 .retrieve()
                 .onStatus(HttpStatus::isError, clientResponse -> {throw new RuntimeException("Error Code:" + clientResponse.statusCode());})
                 .bodyToMono(String.class)
@@ -151,7 +160,9 @@ public class SciPyClustering extends Clustering {
 
                     decomposition.setName(similarityMatrixName + "," + numberOfClusters);
 
-                    JSONObject clustersJSON = invokePythonCut(decomposition, similarityMatrixName, recommendation.getLinkageType(), "N", numberOfClusters);
+                    // The matrix of the combination of weights is weighted from the raw matrix by the scripts
+                    String weights = similarityMatrixName.substring(recommendation.getName().length() + 1);
+                    JSONObject clustersJSON = invokePythonCut(decomposition, recommendation.getRawSimilarityMatrixName(), weights, recommendation.getLinkageType(), "N", numberOfClusters);
 
                     addClustersAndEntities(decomposition, clustersJSON, idToEntity);
 
@@ -24,12 +24,12 @@ import pt.ist.socialsoftware.mono2micro.representation.domain.AccessesRepresenta
 import pt.ist.socialsoftware.mono2micro.similarity.domain.SimilarityMatrixSciPy;
 import pt.ist.socialsoftware.mono2micro.similarity.domain.dendrogram.Dendrogram;
 import pt.ist.socialsoftware.mono2micro.utils.Constants;
-import pt.ist.socialsoftware.mono2micro.utils.FunctionalityTracesIterator;
+import pt.ist.socialsoftware.mono2micro.utils.FunctionalitiesDecoder;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.jgrapht.Graphs.successorListOf;
 import static pt.ist.socialsoftware.mono2micro.representation.domain.AccessesRepresentation.ACCESSES;
@@ -116,33 +116,37 @@ public class AccessesInfo extends RepresentationInfo {
 
         SimilarityMatrixSciPy similarity = (SimilarityMatrixSciPy) decomposition.getSimilarity();
         AccessesRepresentation accesses = (AccessesRepresentation) decomposition.getStrategy().getCodebase().getRepresentationByFileType(ACCESSES);
-        InputStream inputStream = gridFsService.getFile(accesses.getName());
         Set<String> profileFunctionalities = accesses.getProfile(similarity.getProfile());
 
-        FunctionalityTracesIterator iter = new FunctionalityTracesIterator(inputStream, similarity.getTracesMaxLimit());
-        Map<String, DirectedAcyclicGraph<LocalTransaction, DefaultEdge>> localTransactionsGraphs = new HashMap<>();
+        Map<String, DirectedAcyclicGraph<LocalTransaction, DefaultEdge>> localTransactionsGraphs = new ConcurrentHashMap<>();
         List<Functionality> newFunctionalities = new ArrayList<>();
 
-        Iterator<String> availableFunctionalities = iter.getFunctionalitiesNames();
-        while (availableFunctionalities.hasNext()) {
-            String functionalityName = availableFunctionalities.next();
-            if (!profileFunctionalities.contains(functionalityName) || this.functionalityExists(functionalityName))
-                continue;
-
-            iter.getFunctionalityWithName(functionalityName);
-            Functionality functionality = new Functionality(decomposition.getName(), functionalityName);
-
-            // Get traces according to trace type
-            List<TraceDto> traceDtos = iter.getTracesByType(similarity.getTraceType());
-            functionality.setTraces(traceDtos);
-
-            DirectedAcyclicGraph<LocalTransaction, DefaultEdge> localTransactionGraph = functionality.createLocalTransactionGraph(
-                    decomposition.getEntityIDToClusterName()
-            );
-
-            localTransactionsGraphs.put(functionality.getName(), localTransactionGraph);
+        Set<String> functionalitiesToCreate = new HashSet<>();
+        for (String functionalityName : profileFunctionalities)
+            if (!this.functionalityExists(functionalityName))
+                functionalitiesToCreate.add(functionalityName);
+
+        // Traces are decoded and local transaction graphs built concurrently, the decomposition is then updated in file order
+        Map<Short, String> entityIDToClusterName = decomposition.getEntityIDToClusterName();
+        Map<String, Functionality> functionalities = FunctionalitiesDecoder.decode(
+                gridFsService,
+                accesses,
+                similarity.getTracesMaxLimit(),
+                functionalitiesToCreate,
+                (iter, functionalityName) -> {
+                    Functionality functionality = new Functionality(decomposition.getName(), functionalityName);
+
+                    // Get traces according to trace type
+                    List<TraceDto> traceDtos = iter.getTracesByType(similarity.getTraceType());
+                    functionality.setTraces(traceDtos);
+
+                    localTransactionsGraphs.put(functionality.getName(), functionality.createLocalTransactionGraph(entityIDToClusterName));
+                    return functionality;
+                }
+        );
 
-            findClusterDependencies(decomposition, localTransactionGraph);
+        for (Functionality functionality : functionalities.values()) {
+            findClusterDependencies(decomposition, localTransactionsGraphs.get(functionality.getName()));
 
             newFunctionalities.add(functionality);
             this.addFunctionality(functionality);
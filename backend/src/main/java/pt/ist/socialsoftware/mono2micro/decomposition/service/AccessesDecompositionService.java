@@ -85,7 +85,8 @@ public class AccessesDecompositionService {
 
         DirectedAcyclicGraph<LocalTransaction, DefaultEdge> functionalityLocalTransactionsGraph = accessesInfo.getFunctionality(functionalityName)
                 .createLocalTransactionGraphFromScratch(
-                        gridFsService.getFile(representation.getName()),
+                        gridFsService,
+                        representation,
                         similarity.getTracesMaxLimit(),
                         similarity.getTraceType(),
                         decomposition.getEntityIDToClusterName());
@@ -1,8 +1,20 @@
 package pt.ist.socialsoftware.mono2micro.fileManager;
 
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.GridFSUploadStream;
 import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.MongoDbFactory;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.gridfs.GridFsOperations;
@@ -11,26 +23,232 @@ import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.setOnInsert;
+
 /**
  * Since imported files might be very large, GridFS is used to store them persistently
  * The file will be divided into chunks
  */
 @Service
 public class GridFsService {
+    private static final String FILES_COLLECTION = "fs.files"; // of the default bucket, used by gridFsTemplate
+    private static final String REFERENCES = "references";
+    private static final String METADATA_REFERENCES = "metadata." + REFERENCES;
+    private static final String SHARED_FILES_COLLECTION = "sharedFiles";
+    private static final String CLAIM = "claim";
+    private static final String FILE_ID = "fileId";
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+    private static final long SHARED_FILE_POLL_MILLIS = 500;
+    private static final long SHARED_FILE_MAX_WAIT_MILLIS = 6 * 60 * 60 * 1000; // a matrix may take hours to be filled
+
     @Autowired
     GridFsTemplate gridFsTemplate;
 
     @Autowired
     private GridFsOperations operations;
 
+    @Autowired
+    private MongoDbFactory mongoDbFactory;
+
+    public interface FileWriter {
+        void write(OutputStream outputStream) throws IOException;
+    }
+
     public void saveFile(InputStream fileStream, String fileName) {
         gridFsTemplate.store(fileStream, fileName);
     }
 
+    public void saveFile(InputStream fileStream, String fileName, Document metadata) {
+        gridFsTemplate.store(fileStream, fileName, metadata);
+    }
+
+    // Uploads the file as fileWriter writes it, chunk by chunk. The chunks already uploaded are deleted if it fails
+    public void saveFile(FileWriter fileWriter, String fileName) throws IOException {
+        uploadFile(fileWriter, fileName, new GridFSUploadOptions());
+    }
+
+    /*
+     * Shared files count the users referencing them in the sharedFiles collection, a document per file name, and are only
+     * deleted when the last one removes its reference. References are added atomically: the first user to claim a name
+     * saves the file, the others wait for it to be saved, so two users never save the same shared file.
+     * Returns the claim when there is no file with that name yet, the caller must then save it with saveSharedFile, or
+     * give it up with giveUpSharedFile. Otherwise waits for the file to be saved and returns null, a reference to it being
+     * added. Nothing is referenced when waiting fails.
+     */
+    public ObjectId claimSharedFile(String fileName) throws IOException {
+        while (true) {
+            ObjectId claim = new ObjectId();
+            try {
+                Document sharedFile = getSharedFilesCollection().findOneAndUpdate(
+                        eq("_id", fileName),
+                        combine(inc(REFERENCES, 1), setOnInsert(CLAIM, claim)),
+                        new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.BEFORE)
+                );
+                if (sharedFile == null)
+                    return claim;
+                waitUntilSaved(fileName, sharedFile);
+                return null;
+
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() != DUPLICATE_KEY_ERROR) // concurrent claims of a new name, one of them is retried
+                    throw e;
+            }
+        }
+    }
+
+    // Saves a file claimed with claimSharedFile, the ones waiting for it can use it from then on
+    public void saveSharedFile(FileWriter fileWriter, String fileName, ObjectId claim) throws IOException {
+        ObjectId fileId = uploadFile(fileWriter, fileName, new GridFSUploadOptions());
+        if (getSharedFilesCollection().updateOne(and(eq("_id", fileName), eq(CLAIM, claim)), set(FILE_ID, fileId)).getMatchedCount() == 0) {
+            gridFsTemplate.delete(new Query(Criteria.where("_id").is(fileId)));
+            throw new IOException("Claim of shared file " + fileName + " was lost before it was saved");
+        }
+    }
+
+    /*
+     * Gives up a claim of a file not saved yet, the ones waiting for it failing, and deletes the other files saved for it.
+     * Only the claim given is given up, a claim of the same name made since is left alone. When the file was already
+     * saved, the claimer's reference is removed as with removeFileReference.
+     */
+    public boolean giveUpSharedFile(String fileName, ObjectId claim, Set<String> otherFileNames) {
+        if (getSharedFilesCollection().deleteOne(and(eq("_id", fileName), eq(CLAIM, claim), exists(FILE_ID, false))).getDeletedCount() > 0) {
+            deleteFiles(otherFileNames);
+            return true;
+        }
+        return removeFileReference(fileName, otherFileNames);
+    }
+
+    // False when there is no shared file with that name, otherwise waits for it to be saved. Nothing is referenced when waiting fails
+    public boolean addFileReference(String fileName) throws IOException {
+        Document sharedFile = getSharedFilesCollection().findOneAndUpdate(
+                eq("_id", fileName),
+                inc(REFERENCES, 1),
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.BEFORE)
+        );
+        if (sharedFile == null)
+            return false;
+        waitUntilSaved(fileName, sharedFile);
+        return true;
+    }
+
+    /*
+     * Fails when the file's claim is given up, the reference added for it going with the claim. When waiting times out or
+     * is interrupted, the reference added is removed before failing.
+     */
+    private void waitUntilSaved(String fileName, Document sharedFile) throws IOException {
+        Object claim = sharedFile.get(CLAIM);
+        long waitStart = System.currentTimeMillis();
+
+        while (!sharedFile.containsKey(FILE_ID)) {
+            if (System.currentTimeMillis() - waitStart > SHARED_FILE_MAX_WAIT_MILLIS) {
+                removeWaitingReference(fileName, claim);
+                throw new IOException("Timed out waiting for shared file " + fileName + " to be saved");
+            }
+            try {
+                Thread.sleep(SHARED_FILE_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                removeWaitingReference(fileName, claim);
+                throw new InterruptedIOException("Interrupted waiting for shared file " + fileName + " to be saved");
+            }
+
+            sharedFile = getSharedFilesCollection().find(eq("_id", fileName)).first();
+            if (sharedFile == null || !claim.equals(sharedFile.get(CLAIM)))
+                throw new IOException("Shared file " + fileName + " could not be saved");
+        }
+    }
+
+    // Only while the claim waited on holds, a given up claim having taken the reference with it
+    private void removeWaitingReference(String fileName, Object claim) {
+        getSharedFilesCollection().updateOne(and(eq("_id", fileName), eq(CLAIM, claim)), inc(REFERENCES, -1));
+    }
+
+    public boolean removeFileReference(String fileName) {
+        return removeFileReference(fileName, Collections.emptySet());
+    }
+
+    /*
+     * Files that are not shared are deleted right away. True when the file is deleted, along with the other files saved
+     * for it. The files are deleted by ID, once no reference can be added to them anymore, so a file saved again with the
+     * same name is never deleted with them. A claim is never given up here, only its claimer gives it up.
+     */
+    public boolean removeFileReference(String fileName, Set<String> otherFileNames) {
+        Document sharedFile = getSharedFilesCollection().findOneAndUpdate(
+                eq("_id", fileName),
+                inc(REFERENCES, -1),
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER)
+        );
+        if (sharedFile == null)
+            return removeMetadataFileReference(fileName, otherFileNames);
+        if (sharedFile.getInteger(REFERENCES) > 0 || !sharedFile.containsKey(FILE_ID))
+            return false;
+
+        Set<String> fileNames = new HashSet<>(otherFileNames);
+        fileNames.add(fileName);
+        List<ObjectId> fileIds = new ArrayList<>();
+        for (Document file : getFilesCollection().find(in("filename", fileNames)).projection(include("_id")))
+            fileIds.add(file.getObjectId("_id"));
+
+        if (getSharedFilesCollection().deleteOne(and(eq("_id", fileName), lte(REFERENCES, 0), exists(FILE_ID))).getDeletedCount() == 0)
+            return false; // referenced again meanwhile, or still claimed
+        gridFsTemplate.delete(new Query(Criteria.where("_id").in(fileIds)));
+        return true;
+    }
+
+    // Shared files saved before the sharedFiles collection counted their references in their metadata
+    private boolean removeMetadataFileReference(String fileName, Set<String> otherFileNames) {
+        Document file = getFilesCollection().findOneAndUpdate(
+                and(eq("filename", fileName), exists(METADATA_REFERENCES)),
+                inc(METADATA_REFERENCES, -1),
+                new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER)
+        );
+        if (file != null && file.get("metadata", Document.class).getInteger(REFERENCES) > 0)
+            return false;
+        deleteFile(fileName);
+        deleteFiles(otherFileNames);
+        return true;
+    }
+
+    private ObjectId uploadFile(FileWriter fileWriter, String fileName, GridFSUploadOptions options) throws IOException {
+        GridFSBucket bucket = GridFSBuckets.create(mongoDbFactory.getDb());
+        GridFSUploadStream uploadStream = bucket.openUploadStream(fileName, options);
+        try {
+            fileWriter.write(uploadStream);
+        } catch (IOException | RuntimeException e) {
+            uploadStream.abort();
+            throw e;
+        }
+        uploadStream.close();
+        return uploadStream.getObjectId();
+    }
+
+    private MongoCollection<Document> getFilesCollection() {
+        return mongoDbFactory.getDb().getCollection(FILES_COLLECTION);
+    }
+
+    private MongoCollection<Document> getSharedFilesCollection() {
+        return mongoDbFactory.getDb().getCollection(SHARED_FILES_COLLECTION);
+    }
+
     public InputStream getFile(String fileName) throws IOException {
         GridFSFile gridFSFile = gridFsTemplate.findOne(new Query(Criteria.where("filename").is(fileName)));
         if (gridFSFile == null)
@@ -38,6 +256,37 @@ public class GridFsService {
         return operations.getResource(gridFSFile).getInputStream();
     }
 
+    // ID of the file's content, a new one each time a file with that name is saved
+    public String getFileId(String fileName) throws IOException {
+        GridFSFile gridFSFile = gridFsTemplate.findOne(new Query(Criteria.where("filename").is(fileName)));
+        if (gridFSFile == null)
+            throw new NoSuchFileException("No file called: " + fileName);
+        return gridFSFile.getObjectId().toHexString();
+    }
+
+    // Null when the file was saved without metadata
+    public Document getFileMetadata(String fileName) throws IOException {
+        GridFSFile gridFSFile = gridFsTemplate.findOne(new Query(Criteria.where("filename").is(fileName)));
+        if (gridFSFile == null)
+            throw new NoSuchFileException("No file called: " + fileName);
+        return gridFSFile.getMetadata();
+    }
+
+    // Reads only [offset, offset + length[ of the file, chunks before the offset are skipped without being copied
+    public InputStream getFileRange(String fileName, long offset, long length) throws IOException {
+        InputStream file = getFile(fileName);
+        long remaining = offset;
+        while (remaining > 0) {
+            long skipped = file.skip(remaining);
+            if (skipped <= 0) {
+                file.close();
+                throw new IOException("File " + fileName + " is shorter than " + offset + " bytes");
+            }
+            remaining -= skipped;
+        }
+        return new BoundedInputStream(file, length);
+    }
+
     public String getFileAsString(String fileName) throws IOException {
         return IOUtils.toString(getFile(fileName), StandardCharsets.UTF_8);
     }
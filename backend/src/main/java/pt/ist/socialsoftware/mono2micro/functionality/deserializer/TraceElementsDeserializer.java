@@ -0,0 +1,79 @@
+package pt.ist.socialsoftware.mono2micro.functionality.deserializer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Packs the elements of a trace as written by TraceElementsSerializer, see TraceDto
+public class TraceElementsDeserializer extends StdDeserializer<long[]> {
+
+	public TraceElementsDeserializer() {
+		this(null);
+	}
+
+	public TraceElementsDeserializer(Class<long[]> t) { super(t); }
+
+	@Override
+	public long[] deserialize(
+		JsonParser jsonParser,
+		DeserializationContext deserializationContext
+	) throws IOException {
+		if (jsonParser.currentToken() != JsonToken.START_ARRAY)
+			throw new IOException("Error deserializing trace elements - First token should be START_ARRAY but was: " + jsonParser.currentToken());
+
+		long[] elements = new long[16];
+		int elementsSize = 0;
+
+		while (jsonParser.nextToken() == JsonToken.START_ARRAY) {
+			if (elementsSize == elements.length)
+				elements = Arrays.copyOf(elements, elementsSize * 2);
+			elements[elementsSize++] = readElement(jsonParser);
+		}
+
+		if (jsonParser.getCurrentToken() != JsonToken.END_ARRAY)
+			throw new IOException("Error deserializing trace elements - Missing END_ARRAY token");
+
+		return Arrays.copyOf(elements, elementsSize);
+	}
+
+	// Packs either ["R", entityID, occurrences?] or [count, occurrences?], the parser being at its START_ARRAY. Also used by FunctionalityTracesIterator
+	public static long readElement(JsonParser jsonParser) throws IOException {
+		jsonParser.nextToken();
+
+		if (jsonParser.getCurrentToken() == JsonToken.VALUE_NUMBER_INT) { // a rule
+			int count = jsonParser.getIntValue();
+			return TraceDto.packRule(count, nextOccurrences(jsonParser));
+		}
+
+		else if (jsonParser.getCurrentToken() == JsonToken.VALUE_STRING) { // an access
+			byte mode = (byte) (jsonParser.getText().equals("R") ? 1 : 2);
+
+			jsonParser.nextToken();
+
+			short entityID = jsonParser.getShortValue();
+			return TraceDto.packAccess(entityID, mode, nextOccurrences(jsonParser));
+		}
+
+		throw new IOException("Error deserializing trace elements - Data structure not expected");
+	}
+
+	private static int nextOccurrences(JsonParser jsonParser) throws IOException {
+		jsonParser.nextToken();
+
+		int occurrences = 1;
+		if (jsonParser.getCurrentToken() == JsonToken.VALUE_NUMBER_INT) {
+			occurrences = jsonParser.getIntValue();
+			jsonParser.nextToken();
+		}
+
+		if (jsonParser.getCurrentToken() != JsonToken.END_ARRAY)
+			throw new IOException("Error deserializing trace elements - Missing END_ARRAY token on element");
+
+		return occurrences;
+	}
+}
@@ -1,25 +1,23 @@
 package pt.ist.socialsoftware.mono2micro.functionality.domain;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.*;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.jgrapht.graph.DefaultEdge;
 import org.jgrapht.graph.DirectedAcyclicGraph;
-import org.json.JSONException;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 import pt.ist.socialsoftware.mono2micro.decomposition.domain.Decomposition;
 import pt.ist.socialsoftware.mono2micro.decomposition.domain.representationInfo.AccessesInfo;
+import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
 import pt.ist.socialsoftware.mono2micro.functionality.FunctionalityType;
-import pt.ist.socialsoftware.mono2micro.functionality.dto.AccessDto;
-import pt.ist.socialsoftware.mono2micro.functionality.dto.ReducedTraceElementDto;
 import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
 import pt.ist.socialsoftware.mono2micro.metrics.functionalityMetrics.FunctionalityComplexityMetric;
 import pt.ist.socialsoftware.mono2micro.metrics.functionalityMetrics.FunctionalityMetric;
 import pt.ist.socialsoftware.mono2micro.metrics.functionalityMetrics.FunctionalityPerformanceMetric;
+import pt.ist.socialsoftware.mono2micro.representation.domain.AccessesRepresentation;
 import pt.ist.socialsoftware.mono2micro.utils.*;
 
 import static org.jgrapht.Graphs.successorListOf;
@@ -199,16 +197,15 @@ public class Functionality {
 		this.entitiesPerCluster = entitiesPerCluster;
 	}
 
-	public void setupEntities(List<ReducedTraceElementDto> traceElements, Map<Short, String> entityIDToClusterName) {
+	public void setupEntities(TraceDto trace, Map<Short, String> entityIDToClusterName) {
 		Map<Short, Byte> entityIDToMode = new HashMap<>();
 		String previousCluster = "-2";
 		boolean isFirstAccess = false;
 
-		for (ReducedTraceElementDto rte : traceElements) {
-			if (rte instanceof AccessDto) {
-				AccessDto access = (AccessDto) rte;
-				short entityID = access.getEntityID();
-				byte mode = access.getMode();
+		for (int i = 0; i < trace.size(); i++) {
+			if (!trace.isRule(i)) {
+				short entityID = trace.getEntityID(i);
+				byte mode = trace.getMode(i);
 
 				String clusterName = entityIDToClusterName.get(entityID);
 
@@ -253,17 +250,19 @@ public class Functionality {
 	}
 
 	public DirectedAcyclicGraph<LocalTransaction, DefaultEdge> createLocalTransactionGraphFromScratch(
-			InputStream inputFilePath,
+			GridFsService gridFsService,
+			AccessesRepresentation representation,
 			int tracesMaxLimit,
 			Constants.TraceType traceType,
 			Map<Short, String> entityIDToClusterName
-	) throws IOException, JSONException {
+	) throws IOException {
 		if (this.getTraces() == null) {
-			FunctionalityTracesIterator iter = new FunctionalityTracesIterator(inputFilePath, tracesMaxLimit);
-			iter.getFunctionalityWithName(this.getName());
+			try (FunctionalityTracesIterator iter = new FunctionalityTracesIterator(gridFsService, representation, tracesMaxLimit)) {
+				iter.getFunctionalityWithName(this.getName());
 
-			List<TraceDto> traceDtos = iter.getTracesByType(traceType);
-			this.setTraces(traceDtos);
+				List<TraceDto> traceDtos = iter.getTracesByType(traceType);
+				this.setTraces(traceDtos);
+			}
 		}
 
 		// Get traces according to trace type
@@ -275,18 +274,17 @@ public class Functionality {
 		localTransactionsGraph.addVertex(new LocalTransaction(0, "-1")); // Local transaction's root
 
 		for (TraceDto t : this.getTraces()) {
-			List<ReducedTraceElementDto> traceElements = t.getElements();
-			this.setupEntities(traceElements, entityIDToClusterName); // Adds entities used by the functionality
+			this.setupEntities(t, entityIDToClusterName); // Adds entities used by the functionality
 
-			if (traceElements.size() > 0) {
+			if (t.size() > 0) {
 				Utils.GetLocalTransactionsSequenceAndCalculateTracePerformanceResult result = Utils.getLocalTransactionsSequenceAndCalculateTracePerformance(
 						1,
 						null,
-						traceElements,
+						t,
 						entityIDToClusterName,
 						new HashMap<>(),
 						0,
-						traceElements.size());
+						t.size());
 
 				addLocalTransactionsSequenceToGraph(
 						localTransactionsGraph,
@@ -9,9 +9,10 @@ import java.util.Objects;
 
 @JsonDeserialize(using = AccessDtoDeserializer.class)
 @JsonSerialize(using = AccessDtoSerializer.class)
-public class AccessDto extends ReducedTraceElementDto {
+public class AccessDto {
     private short entityID;
     private byte mode; // "R" -> 1, "W" -> 2
+    private int occurrences;
 
     public AccessDto() {}
 
@@ -21,6 +22,9 @@ public class AccessDto extends ReducedTraceElementDto {
     public byte getMode() { return mode; }
     public void setMode(byte mode) { this.mode = mode; }
 
+    public int getOccurrences() { return occurrences; }
+    public void setOccurrences(int occurrences) { this.occurrences = occurrences; }
+
     @Override
 	public boolean equals(final Object other) {
         if (other instanceof AccessDto) {
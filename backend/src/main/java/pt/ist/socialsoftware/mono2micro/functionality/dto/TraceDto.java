@@ -1,30 +1,50 @@
 package pt.ist.socialsoftware.mono2micro.functionality.dto;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import pt.ist.socialsoftware.mono2micro.utils.Pair;
-
-import java.util.*;
-
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import pt.ist.socialsoftware.mono2micro.functionality.deserializer.TraceElementsDeserializer;
+import pt.ist.socialsoftware.mono2micro.functionality.serializer.TraceElementsSerializer;
+import pt.ist.socialsoftware.mono2micro.utils.TraceAnalytics;
+
+import java.util.Arrays;
+
+/**
+ * A trace keeps its rules and accesses packed in a long[], one element per position:
+ * occurrences << 32 | value << 2 | kind, where kind RULE means that value is the number of following elements
+ * covered by the rule and any other kind is the access mode ("R" -> 1, "W" -> 2) with value being the entity ID.
+ * Elements are read through the index based accessors, so no object is allocated per element. In JSON they keep the
+ * upload format, see TraceElementsSerializer.
+ */
 public class TraceDto {
+	public static final int RULE = 0;
+
 	protected int id;
 	protected int frequency;
-	private List<ReducedTraceElementDto> elements; // either Rules or Accesses
+	private long[] elements; // either Rules or Accesses
+
+	@FunctionalInterface
+	public interface AccessConsumer {
+		void accept(short entityID, byte mode);
+	}
 
 	public TraceDto() {}
 
-	@JsonCreator
-	public TraceDto(
-		@JsonProperty("id") int id,
-		@JsonProperty("f") int frequency,
-		@JsonProperty("a") List<ReducedTraceElementDto> elements
-	) {
+	public TraceDto(int id, int frequency, long[] elements) {
 		this.id = id;
 		this.frequency = frequency;
 		this.elements = elements;
 	}
 
+	public static long packAccess(short entityID, byte mode, int occurrences) {
+		return ((long) occurrences << 32) | ((entityID & 0xFFFFL) << 2) | mode; // IDs above Short.MAX_VALUE are negative
+	}
+
+	public static long packRule(int count, int occurrences) {
+		return ((long) occurrences << 32) | ((long) count << 2) | RULE;
+	}
+
 	@JsonProperty("id")
 	public int getId() { return this.id; }
 	public void setId(int id) { this.id = id; }
@@ -34,145 +54,79 @@ public class TraceDto {
 	public void setFrequency(int frequency) { this.frequency = frequency; }
 
 	@JsonProperty("a")
-	public List<ReducedTraceElementDto> getElements() { return elements; }
-	public void setElements(List<ReducedTraceElementDto> elements) { this.elements = elements; }
+	@JsonSerialize(using = TraceElementsSerializer.class)
+	public long[] getElements() { return elements; }
+	@JsonDeserialize(using = TraceElementsDeserializer.class)
+	public void setElements(long[] elements) { this.elements = elements; }
 
 	@JsonIgnore
-	public int getUncompressedSize() {
-		int counter = 0;
-
-		if (elements == null) return counter;
-
-		LinkedList<Pair<Integer, RuleDto>> ll = new LinkedList<>();
-
-		int elementsListSize = elements.size();
+	public int size() { return elements == null ? 0 : elements.length; }
 
-		for (int i = 0; i < elementsListSize; i++) {
-			while (ll.size() != 0) {
-				Pair<Integer, RuleDto> lastPair = ll.getLast();
+	public boolean isRule(int i) { return (elements[i] & 0b11) == RULE; }
 
-				if (lastPair.getFirst() + lastPair.getSecond().getCount() < i) {
-					ll.removeLast();
-				}
+	public int getCount(int i) { return ((int) elements[i]) >>> 2; }
 
-				else {
-					break;
+	public short getEntityID(int i) { return (short) (((int) elements[i]) >>> 2); }
 
-				}
-			}
-
-			if (elements.get(i) instanceof RuleDto)
-				ll.add(new Pair<>(i, (RuleDto) elements.get(i)));
+	public byte getMode(int i) { return (byte) (elements[i] & 0b11); }
 
-			else {
-				int multiplier = 1;
+	public int getOccurrences(int i) { return (int) (elements[i] >>> 32); }
 
-				for (Pair<Integer, RuleDto> pair : ll)
-					multiplier *= pair.getSecond().getOccurrences();
-
-				counter += elements.get(i).getOccurrences() * multiplier;
-			}
-		}
-
-		return counter;
+	// Computed on the compressed form, see TraceAnalytics
+	@JsonIgnore
+	public int getUncompressedSize() {
+		return (int) Math.min(TraceAnalytics.getUncompressedLength(this), Integer.MAX_VALUE);
 	}
 
-	private List<ReducedTraceElementDto> expand(
-		List<ReducedTraceElementDto> elements,
-		int from,
-		int to,
-		int maxOccurrences
-	) {
-		List<ReducedTraceElementDto> accesses = new ArrayList<>();
-
-		if (elements == null || elements.size() == 0) return accesses;
+	// Visits the accesses in order as if the rules were expanded, with at most maxOccurrences repetitions of each element
+	public void forEachExpandedAccess(int maxOccurrences, AccessConsumer consumer) {
+		forEachExpandedAccess(0, size(), maxOccurrences, consumer);
+	}
 
+	private void forEachExpandedAccess(int from, int to, int maxOccurrences, AccessConsumer consumer) {
 		int i = from;
 
 		while (i < to) {
-			ReducedTraceElementDto element = elements.get(i);
+			int max = Math.min(getOccurrences(i), maxOccurrences);
 
-			List<ReducedTraceElementDto> expandedElements = new ArrayList<>();
+			if (isRule(i)) {
+				int count = getCount(i);
 
-			if (element instanceof RuleDto) {
-				RuleDto r = (RuleDto) element;
+				for (int j = 0; j < max; j++)
+					forEachExpandedAccess(i + 1, i + 1 + count, maxOccurrences, consumer);
 
-				expandedElements.addAll(
-					expand(
-						elements,
-						i + 1,
-						i + 1 + r.getCount(),
-						maxOccurrences
-					)
-				);
-
-				i += 1 + r.getCount();
+				i += 1 + count;
 
 			} else {
-				AccessDto a = (AccessDto) element;
+				short entityID = getEntityID(i);
+				byte mode = getMode(i);
 
-				AccessDto newAccess = new AccessDto();
-				newAccess.setOccurrences(0);
-				newAccess.setEntityID(a.getEntityID());
-				newAccess.setMode(a.getMode());
+				for (int j = 0; j < max; j++)
+					consumer.accept(entityID, mode);
 
-				expandedElements.add(newAccess);
 				i++;
 			}
-
-			int max = Math.min(element.getOccurrences(), maxOccurrences);
-
-			for (int j = 0; j < max; j++)
-				accesses.addAll(expandedElements);
 		}
-
-		return accesses;
 	}
 
+	// Number of different (entity, mode) accesses, no decompression
 	@JsonIgnore
-	public List<AccessDto> expand(int maxOccurrences) {
-		return (List<AccessDto>) ((List<?>) this.expand(
-			elements,
-			0,
-			elements == null ? 0 : elements.size(),
-			maxOccurrences)
-		);
-	}
+	public int getDifferentAccessesCount() {
+		int elementsSize = size();
+		int[] accesses = new int[elementsSize];
+		int accessesSize = 0;
 
-	@JsonIgnore
-	public List<AccessDto> getAccesses() { // no decompression
-		List<AccessDto> accesses = new ArrayList<>();
-
-		if (elements != null) {
-			elements.forEach(e -> {
-				if (e instanceof AccessDto)
-					accesses.add((AccessDto) e);
-			});
-		}
+		for (int i = 0; i < elementsSize; i++)
+			if (!isRule(i))
+				accesses[accessesSize++] = (int) elements[i]; // entityID << 2 | mode
 
-		return accesses;
-	}
+		Arrays.sort(accesses, 0, accessesSize);
 
-	@JsonIgnore
-	public HashSet<String> getAccessesSet() {
-		HashSet<String> accessesSet = new HashSet<>();
-
-		if (elements != null) {
-			elements.forEach(e -> {
-				if (e instanceof AccessDto) {
-					AccessDto a = (AccessDto) e;
-
-					String accessString = String.join(
-						"-",
-						String.valueOf(a.getEntityID()),
-						String.valueOf(a.getMode())
-					);
-
-					accessesSet.add(accessString);
-				}
-			});
-		}
+		int differentAccesses = 0;
+		for (int i = 0; i < accessesSize; i++)
+			if (i == 0 || accesses[i] != accesses[i - 1])
+				differentAccesses++;
 
-		return accessesSet;
+		return differentAccesses;
 	}
 }
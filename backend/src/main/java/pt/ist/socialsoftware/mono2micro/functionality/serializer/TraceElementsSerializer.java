@@ -0,0 +1,47 @@
+package pt.ist.socialsoftware.mono2micro.functionality.serializer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+
+import java.io.IOException;
+
+// Writes the packed elements of a trace as in uploads, ["R", entityID, occurrences?] or [count, occurrences?]
+public class TraceElementsSerializer extends StdSerializer<long[]> {
+
+	public TraceElementsSerializer() {
+		this(null);
+	}
+
+	public TraceElementsSerializer(Class<long[]> t) {
+		super(t);
+	}
+
+	@Override
+	public void serialize(
+		long[] elements,
+		JsonGenerator jsonGenerator,
+		SerializerProvider serializerProvider
+	) throws IOException {
+		TraceDto t = new TraceDto(0, 0, elements);
+
+		jsonGenerator.writeStartArray();
+		for (int i = 0; i < t.size(); i++) {
+			jsonGenerator.writeStartArray();
+			if (t.isRule(i))
+				jsonGenerator.writeNumber(t.getCount(i));
+			else {
+				jsonGenerator.writeString(t.getMode(i) == 1 ? "R" : "W");
+				jsonGenerator.writeNumber(t.getEntityID(i));
+			}
+
+			if (t.getOccurrences(i) != 1) {
+				jsonGenerator.writeNumber(t.getOccurrences(i));
+			}
+
+			jsonGenerator.writeEndArray();
+		}
+		jsonGenerator.writeEndArray();
+	}
+}
@@ -3,14 +3,12 @@ package pt.ist.socialsoftware.mono2micro.metrics.functionalityMetrics;
 import pt.ist.socialsoftware.mono2micro.decomposition.domain.Decomposition;
 import pt.ist.socialsoftware.mono2micro.decomposition.domain.representationInfo.AccessesInfo;
 import pt.ist.socialsoftware.mono2micro.functionality.domain.Functionality;
-import pt.ist.socialsoftware.mono2micro.functionality.dto.ReducedTraceElementDto;
 import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
 import pt.ist.socialsoftware.mono2micro.utils.Utils;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 public class FunctionalityPerformanceMetric extends FunctionalityMetric {
@@ -24,25 +22,25 @@ public class FunctionalityPerformanceMetric extends FunctionalityMetric {
     @Override
     public Double calculateMetric(AccessesInfo accessesInfo, Decomposition decomposition, Functionality functionality) {
         double functionalityPerformance = 0;
+        long tracesFrequency = 0; // traces are weighted by their frequency
         Map<Short, String> entityIDToClusterName = decomposition.getEntityIDToClusterName();
         for (TraceDto t : functionality.getTraces()) {
-            List<ReducedTraceElementDto> traceElements = t.getElements();
-
-            if (traceElements.size() > 0) {
+            if (t.size() > 0) {
                 Utils.GetLocalTransactionsSequenceAndCalculateTracePerformanceResult result = Utils.getLocalTransactionsSequenceAndCalculateTracePerformance(
                         1,
                         null,
-                        traceElements,
+                        t,
                         entityIDToClusterName,
                         new HashMap<>(),
                         0,
-                        traceElements.size()
+                        t.size()
                 );
 
-                functionalityPerformance += result.performance;
+                functionalityPerformance += (double) result.performance * t.getFrequency();
             }
+            tracesFrequency += t.getFrequency();
         }
-        functionalityPerformance /= functionality.getTraces().size();
+        functionalityPerformance /= tracesFrequency;
 
         return BigDecimal.valueOf(functionalityPerformance).setScale(2, RoundingMode.HALF_UP).doubleValue();
     }
@@ -40,6 +40,7 @@ public class RecommendMatrixSciPy extends Recommendation {
     private String linkageType;
     private List<Weights> weightsList;
     private Set<String> similarityMatricesNames;
+    private String rawSimilarityMatrixName;
 
     public RecommendMatrixSciPy() {}
 
@@ -97,6 +98,14 @@ public class RecommendMatrixSciPy extends Recommendation {
         this.similarityMatricesNames = similarityMatricesNames;
     }
 
+    public String getRawSimilarityMatrixName() {
+        return rawSimilarityMatrixName;
+    }
+
+    public void setRawSimilarityMatrixName(String rawSimilarityMatrixName) {
+        this.rawSimilarityMatrixName = rawSimilarityMatrixName;
+    }
+
     public List<Weights> getWeightsList() {
         return weightsList;
     }
@@ -115,7 +124,9 @@ public class RecommendMatrixSciPy extends Recommendation {
     @Override
     public void deleteProperties() {
         GridFsService gridFsService = ContextManager.get().getBean(GridFsService.class);
-        gridFsService.deleteFiles(getSimilarityMatricesNames());
+        gridFsService.deleteFiles(getSimilarityMatricesNames()); // Saved by recommendations made before the raw matrix
+        if (getRawSimilarityMatrixName() != null)
+            gridFsService.deleteFile(getRawSimilarityMatrixName());
     }
 
     @Override
@@ -160,6 +171,7 @@ public class RecommendMatrixSciPy extends Recommendation {
                 GridFsService gridFsService = ContextManager.get().getBean(GridFsService.class);
                 SimilarityMatrix similarityMatrix = new SimilarityMatrix(getName(), getWeightsList());
                 setSimilarityMatricesNames(similarityMatrix.generateMultipleMatrices(gridFsService, this, fillElements(gridFsService), getTotalNumberOfWeights()));
+                setRawSimilarityMatrixName(similarityMatrix.getRawMatrixName());
                 clusteringAlgorithm.generateMultipleDecompositions(this);
 
                 recommendationRepository.save(this);
@@ -218,8 +230,12 @@ public class RecommendMatrixSciPy extends Recommendation {
                 similarity = (SimilarityMatrixSciPy) SimilarityFactory.getSimilarity(getStrategy(), similarityInformation);
                 similarity.setSimilarityMatrix(new SimilarityMatrix(similarity.getName() + "_similarityMatrix", weightsList));
 
-                InputStream inputStream = gridFsService.getFile(name.substring(0, name.lastIndexOf(","))); // Gets the previously produced similarity matrix
-                gridFsService.saveFile(inputStream, similarity.getSimilarityMatrix().getName()); // And saves it with a different name
+                if (getRawSimilarityMatrixName() != null) // Weights the raw matrix with the decomposition's weights
+                    similarity.getSimilarityMatrix().generateFromRawMatrix(gridFsService, getRawSimilarityMatrixName());
+                else {
+                    InputStream inputStream = gridFsService.getFile(name.substring(0, name.lastIndexOf(","))); // Gets the previously produced similarity matrix
+                    gridFsService.saveFile(inputStream, similarity.getSimilarityMatrix().getName()); // And saves it with a different name
+                }
 
                 // generate dendrogram image
                 similarity.setDendrogram(new Dendrogram(similarity.getName(), similarity.getSimilarityMatrix().getName(), similarity.getLinkageType()));
@@ -10,6 +10,7 @@ import pt.ist.socialsoftware.mono2micro.codebase.CodebaseController;
 import pt.ist.socialsoftware.mono2micro.representation.service.AccessesRepresentationService;
 
 import javax.management.openmbean.KeyAlreadyExistsException;
+import java.util.Map;
 
 @RestController
 @RequestMapping(value = "/mono2micro")
@@ -76,6 +77,32 @@ public class AccessesRepresentationController {
         }
     }
 
+    @RequestMapping(value = "/representation/{representationName}/getAccessesAsJSON", method = RequestMethod.GET)
+    public ResponseEntity<String> getAccessesAsJSON(@PathVariable String representationName) {
+        logger.debug("getAccessesAsJSON");
+
+        try {
+            return new ResponseEntity<>(accessesRepresentationService.getAccessesAsJSON(representationName), HttpStatus.OK);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @RequestMapping(value = "/representation/tracesCacheStatistics", method = RequestMethod.GET)
+    public ResponseEntity<Map<String, Long>> getTracesCacheStatistics() {
+        logger.debug("getTracesCacheStatistics");
+
+        try {
+            return new ResponseEntity<>(accessesRepresentationService.getTracesCacheStatistics(), HttpStatus.OK);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
     @RequestMapping(value = "/representation/{codebaseName}/getIdToEntity", method = RequestMethod.GET)
     public ResponseEntity<String> getIdToEntity(@PathVariable String codebaseName) {
         logger.debug("getIdToEntity");
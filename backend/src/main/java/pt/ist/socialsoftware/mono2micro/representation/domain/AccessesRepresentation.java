@@ -1,17 +1,35 @@
 package pt.ist.socialsoftware.mono2micro.representation.domain;
 
-import org.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 import pt.ist.socialsoftware.mono2micro.codebase.domain.Codebase;
+import pt.ist.socialsoftware.mono2micro.fileManager.ContextManager;
+import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
+import pt.ist.socialsoftware.mono2micro.utils.FunctionalitiesSummaries;
+import pt.ist.socialsoftware.mono2micro.utils.FunctionalityTracesIndex;
+import pt.ist.socialsoftware.mono2micro.utils.TracesBinaryFormat;
+import pt.ist.socialsoftware.mono2micro.utils.TracesCache;
 
 import javax.management.openmbean.KeyAlreadyExistsException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 
+import static pt.ist.socialsoftware.mono2micro.utils.Constants.ACCESSES_BINARY_ENCODING;
+import static pt.ist.socialsoftware.mono2micro.utils.Constants.SIMILARITY_SEQUENCE_PAIRS_MAX_BYTES;
+
 @Document("representation")
 public class AccessesRepresentation extends Representation {
 
     public static final String ACCESSES = "Accesses";
     private Map<String, Set<String>> profiles = new HashMap<>(); // e.g <Generic, FunctionalityNamesList>
+    private String tracesIndexName; // GridFS file with the FunctionalityTracesIndex, null for older representations
+    private String functionalitiesSummariesName; // GridFS file with the FunctionalitiesSummaries, null for older representations
+    private boolean binaryEncoded; // stored with TracesBinaryFormat instead of JSON
+    @Transient
+    private byte[] encodedFile; // file to store when it differs from the uploaded one
 
     public AccessesRepresentation() {}
 
@@ -19,10 +37,67 @@ public class AccessesRepresentation extends Representation {
     public String init(Codebase codebase, byte[] representationFile) throws Exception {
         this.name = codebase.getName() + " & " + getType();
         this.codebase = codebase;
-        addProfile("Generic", getFunctionalitiesNamesFromRepresentationFile(representationFile));
+
+        // Both encodings are accepted at upload, JSON is converted when the binary encoding is enabled.
+        // Identical traces of a functionality are folded into one with their summed frequency in either encoding
+        FunctionalityTracesIndex tracesIndex;
+        if (TracesBinaryFormat.isBinary(representationFile)) {
+            this.binaryEncoded = true;
+            this.encodedFile = TracesBinaryFormat.foldIdenticalTraces(representationFile);
+            tracesIndex = FunctionalityTracesIndex.buildFromBinary(new ByteArrayInputStream(encodedFile));
+        }
+        else if (ACCESSES_BINARY_ENCODING) {
+            this.binaryEncoded = true;
+            this.encodedFile = TracesBinaryFormat.foldIdenticalTraces(TracesBinaryFormat.fromJSON(new ByteArrayInputStream(representationFile)));
+            tracesIndex = FunctionalityTracesIndex.buildFromBinary(new ByteArrayInputStream(encodedFile));
+        }
+        else {
+            byte[] foldedFile = TracesBinaryFormat.foldIdenticalJSONTraces(representationFile);
+            if (foldedFile != representationFile)
+                this.encodedFile = foldedFile;
+            tracesIndex = FunctionalityTracesIndex.build(new ByteArrayInputStream(foldedFile));
+        }
+        addProfile("Generic", new HashSet<>(tracesIndex.getFunctionalitiesNames()));
+
+        GridFsService gridFsService = ContextManager.get().getBean(GridFsService.class);
+        this.tracesIndexName = name + "_tracesIndex";
+        gridFsService.replaceFile(tracesIndex.toJSON(), tracesIndexName);
+
+        FunctionalitiesSummaries functionalitiesSummaries = FunctionalitiesSummaries.build(
+                encodedFile != null ? encodedFile : representationFile,
+                binaryEncoded,
+                SIMILARITY_SEQUENCE_PAIRS_MAX_BYTES <= 0 // bounded pairs are counted from the traces, see AccessesWeights
+        );
+        this.functionalitiesSummariesName = name + "_functionalitiesSummaries";
+        gridFsService.replaceFile(functionalitiesSummaries.toJSON(), functionalitiesSummariesName);
+        TracesCache.get().invalidate(name); // a representation with the same name may have been cached before
         return name;
     }
 
+    @Override
+    public void saveFile(byte[] representationFile) {
+        super.saveFile(encodedFile != null ? encodedFile : representationFile);
+        encodedFile = null;
+    }
+
+    // Writes the representation in the JSON format, whatever the encoding it is stored with
+    public void exportAsJSON(GridFsService gridFsService, OutputStream outputStream) throws IOException {
+        if (binaryEncoded)
+            TracesBinaryFormat.toJSON(gridFsService.getFile(name), outputStream);
+        else IOUtils.copy(gridFsService.getFile(name), outputStream);
+    }
+
+    @Override
+    public void deleteProperties() {
+        super.deleteProperties();
+        GridFsService gridFsService = ContextManager.get().getBean(GridFsService.class);
+        if (tracesIndexName != null)
+            gridFsService.deleteFile(tracesIndexName);
+        if (functionalitiesSummariesName != null)
+            gridFsService.deleteFile(functionalitiesSummariesName);
+        TracesCache.get().invalidate(name);
+    }
+
     @Override
     public String getType() {
         return ACCESSES;
@@ -33,6 +108,42 @@ public class AccessesRepresentation extends Representation {
         return this.profiles;
     }
 
+    public String getTracesIndexName() {
+        return tracesIndexName;
+    }
+
+    public void setTracesIndexName(String tracesIndexName) {
+        this.tracesIndexName = tracesIndexName;
+    }
+
+    public String getFunctionalitiesSummariesName() {
+        return functionalitiesSummariesName;
+    }
+
+    public void setFunctionalitiesSummariesName(String functionalitiesSummariesName) {
+        this.functionalitiesSummariesName = functionalitiesSummariesName;
+    }
+
+    public boolean isBinaryEncoded() {
+        return binaryEncoded;
+    }
+
+    public void setBinaryEncoded(boolean binaryEncoded) {
+        this.binaryEncoded = binaryEncoded;
+    }
+
+    public FunctionalityTracesIndex getTracesIndex(GridFsService gridFsService) throws IOException {
+        if (tracesIndexName == null)
+            return null;
+        return FunctionalityTracesIndex.fromJSON(gridFsService.getFile(tracesIndexName));
+    }
+
+    public FunctionalitiesSummaries getFunctionalitiesSummaries(GridFsService gridFsService) throws IOException {
+        if (functionalitiesSummariesName == null)
+            return null;
+        return FunctionalitiesSummaries.fromJSON(gridFsService.getFile(functionalitiesSummariesName));
+    }
+
     public Set<String> getProfile(String profileName) { return this.profiles.get(profileName); }
 
     public void setProfiles(Map<String, Set<String>> profiles) {
@@ -58,12 +169,4 @@ public class AccessesRepresentation extends Representation {
         for (String functionality : functionalities)
             this.profiles.get(targetProfile).add(functionality);
     }
-
-    private Set<String> getFunctionalitiesNamesFromRepresentationFile(byte[] representationFile) throws Exception {
-        JSONObject representationFileJSON = new JSONObject(new String(representationFile));
-        Set<String> functionalitiesNames = new HashSet<>();
-        for (Iterator<String> it = representationFileJSON.keys(); it.hasNext(); )
-            functionalitiesNames.add(it.next());
-        return functionalitiesNames;
-    }
 }
\ No newline at end of file
@@ -4,6 +4,10 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import pt.ist.socialsoftware.mono2micro.codebase.domain.Codebase;
+import pt.ist.socialsoftware.mono2micro.fileManager.ContextManager;
+import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
+
+import java.io.ByteArrayInputStream;
 
 /**
  * Represents an imported file during the creation of the Codebase
@@ -21,6 +25,16 @@ public abstract class Representation {
     @JsonIgnore
     public abstract String getType();
 
+    // Stores the imported file in GridFS under the representation's name
+    public void saveFile(byte[] representationFile) {
+        ContextManager.get().getBean(GridFsService.class).saveFile(new ByteArrayInputStream(representationFile), name);
+    }
+
+    // Deletes the stored representation file and any file derived from it
+    public void deleteProperties() {
+        ContextManager.get().getBean(GridFsService.class).deleteFile(name);
+    }
+
     public String getName() {
         return name;
     }
@@ -9,10 +9,13 @@ import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
 import pt.ist.socialsoftware.mono2micro.representation.domain.AccessesRepresentation;
 import pt.ist.socialsoftware.mono2micro.representation.domain.Representation;
 import pt.ist.socialsoftware.mono2micro.representation.repository.RepresentationRepository;
+import pt.ist.socialsoftware.mono2micro.utils.TracesCache;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
+import java.util.Map;
 
 import static pt.ist.socialsoftware.mono2micro.representation.domain.IDToEntityRepresentation.ID_TO_ENTITY;
 
@@ -46,6 +49,17 @@ public class AccessesRepresentationService {
         representationRepository.save(representation);
     }
 
+    public String getAccessesAsJSON(String representationId) throws IOException {
+        AccessesRepresentation representation = (AccessesRepresentation) representationRepository.findById(representationId).orElseThrow(() -> new RuntimeException("No representation " + representationId + " found."));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        representation.exportAsJSON(gridFsService, outputStream);
+        return outputStream.toString(StandardCharsets.UTF_8.name());
+    }
+
+    public Map<String, Long> getTracesCacheStatistics() {
+        return TracesCache.get().getStatistics();
+    }
+
     public String getIdToEntity(String codebaseName) throws IOException {
         Codebase codebase = codebaseRepository.findByName(codebaseName);
         Representation representation = codebase.getRepresentationByFileType(ID_TO_ENTITY);
@@ -13,7 +13,6 @@ import pt.ist.socialsoftware.mono2micro.representation.repository.Representation
 import pt.ist.socialsoftware.mono2micro.strategy.domain.Strategy;
 import pt.ist.socialsoftware.mono2micro.strategy.service.StrategyService;
 
-import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -55,9 +54,9 @@ public class RepresentationService {
             String representationType = representationTypes.get(i);
             byte[] representationFileStream = ((MultipartFile) representations.get(i)).getBytes();
             Representation representation = RepresentationFactory.getRepresentation(representationType);
-            String fileName = representation.init(codebase, representationFileStream);
+            representation.init(codebase, representationFileStream);
             codebase.addRepresentation(representation);
-            gridFsService.saveFile(new ByteArrayInputStream(representationFileStream), fileName);
+            representation.saveFile(representationFileStream);
             representationRepository.save(representation);
         }
         codebase.addRepresentationInfoType(representationInfoType);
@@ -76,7 +75,7 @@ public class RepresentationService {
 
     public void deleteRepresentation(String representationId) {
         Representation representation = representationRepository.findById(representationId).orElseThrow(() -> new RuntimeException("No representation with id " + representationId));
-        gridFsService.deleteFile(representation.getName());
+        representation.deleteProperties();
         representationRepository.deleteById(representationId);
     }
 
@@ -105,7 +104,7 @@ public class RepresentationService {
         }
         codebase.removeRepresentationInfoTypes(toRemove);
         codebase.setStrategies(strategies);
-        gridFsService.deleteFile(representation.getName());
+        representation.deleteProperties();
         codebaseRepository.save(codebase);
         representationRepository.deleteById(representationId);
     }
@@ -15,6 +15,7 @@ import pt.ist.socialsoftware.mono2micro.similarity.dto.SimilarityDtoFactory;
 import pt.ist.socialsoftware.mono2micro.similarity.service.SimilarityService;
 
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping(value = "/mono2micro")
@@ -41,6 +42,22 @@ public class SimilarityController {
 		}
 	}
 
+	@RequestMapping(value = "/similarity/createBatch", method = RequestMethod.POST)
+	public ResponseEntity<HttpStatus> createSimilarities(
+			@RequestBody List<SimilarityDto> similarityDtos
+	) {
+		logger.debug("Create Similarities Distances");
+
+		try {
+			similarityService.createSimilarities(similarityDtos);
+
+			return new ResponseEntity<>(HttpStatus.CREATED);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+	}
+
 	@RequestMapping(value = "/similarity/{similarityName}/getSimilarity", method = RequestMethod.GET)
 	public ResponseEntity<SimilarityDto> getSimilarity(
 			@PathVariable String similarityName
@@ -93,6 +110,21 @@ public class SimilarityController {
 		}
 	}
 
+	@RequestMapping(value = "/similarity/{similarityName}/neighbours", method = RequestMethod.GET)
+	public ResponseEntity<Map<Short, Map<Short, Float>>> getNeighbours(
+			@PathVariable String similarityName
+	) {
+		logger.debug("getNeighbours");
+
+		try {
+			return new ResponseEntity<>(similarityService.getNeighbours(similarityName), HttpStatus.OK);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+	}
+
 	@RequestMapping(value = "/similarity/{similarityName}/image", method = RequestMethod.GET)
 	public ResponseEntity<byte[]> getDendrogramImage(
 			@PathVariable String similarityName
@@ -2,6 +2,7 @@ package pt.ist.socialsoftware.mono2micro.similarity.domain;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 import pt.ist.socialsoftware.mono2micro.clusteringAlgorithm.Clustering;
 import pt.ist.socialsoftware.mono2micro.clusteringAlgorithm.SciPyClustering;
@@ -11,14 +12,17 @@ import pt.ist.socialsoftware.mono2micro.recommendation.domain.RecommendMatrixSci
 import pt.ist.socialsoftware.mono2micro.representation.domain.IDToEntityRepresentation;
 import pt.ist.socialsoftware.mono2micro.similarity.domain.dendrogram.Dendrogram;
 import pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.SimilarityMatrix;
+import pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.weights.AccessesWeights;
 import pt.ist.socialsoftware.mono2micro.similarity.dto.SimilarityDto;
 import pt.ist.socialsoftware.mono2micro.similarity.dto.SimilarityMatrixSciPyDto;
 import pt.ist.socialsoftware.mono2micro.utils.Constants;
+import pt.ist.socialsoftware.mono2micro.utils.FunctionalitiesSummaries;
 
 import java.io.IOException;
 import java.util.*;
 
 import static pt.ist.socialsoftware.mono2micro.representation.domain.IDToEntityRepresentation.ID_TO_ENTITY;
+import static pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.weights.AccessesWeights.ACCESSES_WEIGHTS;
 
 @Document("similarity")
 public class SimilarityMatrixSciPy extends Similarity {
@@ -36,6 +40,10 @@ public class SimilarityMatrixSciPy extends Similarity {
     // Dendrogram created in the Python services
     private Dendrogram dendrogram;
 
+    // Summaries of the functionalities of the profiles of a batch of similarities, shared by them
+    @Transient
+    private Map<String, FunctionalitiesSummaries.FunctionalitySummary> functionalitiesSummaries;
+
     public SimilarityMatrixSciPy() {}
 
     public SimilarityMatrixSciPy(SimilarityMatrixSciPyDto dto) {
@@ -43,7 +51,7 @@ public class SimilarityMatrixSciPy extends Similarity {
         this.tracesMaxLimit = dto.getTracesMaxLimit();
         this.traceType = dto.getTraceType();
         this.linkageType = dto.getLinkageType();
-        this.similarityMatrix = new SimilarityMatrix(dto.getWeightsList());
+        this.similarityMatrix = new SimilarityMatrix(dto.getWeightsList(), dto.getNeighboursCount());
         setDecompositions(new ArrayList<>());
     }
 
@@ -122,6 +130,28 @@ public class SimilarityMatrixSciPy extends Similarity {
         this.dendrogram = dendrogram;
     }
 
+    public Map<String, FunctionalitiesSummaries.FunctionalitySummary> getFunctionalitiesSummaries() {
+        return functionalitiesSummaries;
+    }
+
+    public void setFunctionalitiesSummaries(Map<String, FunctionalitiesSummaries.FunctionalitySummary> functionalitiesSummaries) {
+        this.functionalitiesSummaries = functionalitiesSummaries;
+    }
+
+    // Summarises once the functionalities needed by the similarities with accesses weights, before they are generated
+    public static void summariseFunctionalities(List<Similarity> similarities) throws IOException {
+        GridFsService gridFsService = ContextManager.get().getBean(GridFsService.class);
+        List<SimilarityMatrixSciPy> accessesSimilarities = new ArrayList<>();
+        for (Similarity similarity : similarities) {
+            if (!(similarity instanceof SimilarityMatrixSciPy))
+                continue;
+            SimilarityMatrixSciPy s = (SimilarityMatrixSciPy) similarity;
+            if (s.getSimilarityMatrix().getWeightsList().stream().anyMatch(weights -> weights.getType().equals(ACCESSES_WEIGHTS)))
+                accessesSimilarities.add(s);
+        }
+        AccessesWeights.summariseFunctionalities(gridFsService, accessesSimilarities);
+    }
+
     @Override
     public void generate() throws Exception {
         GridFsService gridFsService = ContextManager.get().getBean(GridFsService.class);
@@ -134,7 +164,7 @@ public class SimilarityMatrixSciPy extends Similarity {
     @Override
     public void removeProperties() {
         GridFsService gridFsService = ContextManager.get().getBean(GridFsService.class);
-        gridFsService.deleteFile(similarityMatrix.getName());
+        similarityMatrix.removeFiles(gridFsService);
         gridFsService.deleteFile(dendrogram.getDendrogramName());
         gridFsService.deleteFile(dendrogram.getCopheneticDistanceName());
     }
@@ -150,6 +180,7 @@ public class SimilarityMatrixSciPy extends Similarity {
                 similarityDto.getTracesMaxLimit() == this.tracesMaxLimit &&
                 similarityDto.getTraceType() == this.traceType &&
                 similarityDto.getLinkageType().equals(this.linkageType) &&
+                similarityDto.getNeighboursCount() == similarityMatrix.getNeighboursCount() &&
                 similarityMatrix.hasSameWeights(similarityDto.getWeightsList());
     }
 }
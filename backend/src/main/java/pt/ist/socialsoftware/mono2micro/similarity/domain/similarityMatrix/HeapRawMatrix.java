@@ -0,0 +1,37 @@
+package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix;
+
+// One contiguous float[] per weight
+public class HeapRawMatrix extends RawMatrix {
+    private final float[][] values;
+
+    public HeapRawMatrix(int elementsCount, int weightsCount) {
+        super(elementsCount, weightsCount);
+        if (!fits(elementsCount))
+            throw new RuntimeException("Similarity matrix of " + elementsCount + " elements does not fit in an array.");
+
+        this.values = new float[weightsCount][elementsCount * elementsCount];
+    }
+
+    static boolean fits(int elementsCount) {
+        return (long) elementsCount * elementsCount <= Integer.MAX_VALUE - 8;
+    }
+
+    @Override
+    public float get(int i, int j, int k) {
+        return values[k][i * elementsCount + j];
+    }
+
+    @Override
+    public void set(int i, int j, int k, float value) {
+        values[k][i * elementsCount + j] = value;
+    }
+
+    @Override
+    public float getWeighted(int i, int j, float[] weights) {
+        int index = i * elementsCount + j;
+        float metric = 0;
+        for (int k = 0; k < weights.length; k++)
+            metric += values[k][index] * weights[k] / 100;
+        return metric;
+    }
+}
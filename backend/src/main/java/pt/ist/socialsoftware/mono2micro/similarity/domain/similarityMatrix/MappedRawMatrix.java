@@ -0,0 +1,77 @@
+package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Matrix kept in a temporary file mapped in segments of at most 1GB, so only the pages being filled or read take
+ * memory and the operating system writes the others back to disk. Values are accessed with absolute positions, which
+ * lets different rows be filled concurrently.
+ * The file is deleted when the matrix is closed, its pages are released once the segments are garbage collected.
+ */
+public class MappedRawMatrix extends RawMatrix {
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private final Path file;
+    private final MappedByteBuffer[] mappedSegments;
+    private final ByteBuffer[] segments; // same memory in native order
+
+    public MappedRawMatrix(int elementsCount, int weightsCount) throws IOException {
+        super(elementsCount, weightsCount);
+
+        long size = getSizeInBytes(elementsCount, weightsCount);
+        int segmentsCount = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        this.file = Files.createTempFile("similarityMatrix", ".raw");
+        this.mappedSegments = new MappedByteBuffer[segmentsCount];
+        this.segments = new ByteBuffer[segmentsCount];
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            for (int s = 0; s < segmentsCount; s++) {
+                long offset = (long) s << SEGMENT_SHIFT;
+                mappedSegments[s] = channel.map(FileChannel.MapMode.READ_WRITE, offset, Math.min(SEGMENT_MASK + 1, size - offset));
+                segments[s] = mappedSegments[s].duplicate().order(ByteOrder.nativeOrder());
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    private long offset(int i, int j, int k) {
+        return 4L * (((long) k * elementsCount + i) * elementsCount + j);
+    }
+
+    @Override
+    public float get(int i, int j, int k) {
+        long offset = offset(i, j, k);
+        return segments[(int) (offset >>> SEGMENT_SHIFT)].getFloat((int) (offset & SEGMENT_MASK));
+    }
+
+    @Override
+    public void set(int i, int j, int k, float value) {
+        long offset = offset(i, j, k);
+        segments[(int) (offset >>> SEGMENT_SHIFT)].putFloat((int) (offset & SEGMENT_MASK), value);
+    }
+
+    @Override
+    public void flush() {
+        for (MappedByteBuffer segment : mappedSegments)
+            segment.force();
+    }
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+    }
+}
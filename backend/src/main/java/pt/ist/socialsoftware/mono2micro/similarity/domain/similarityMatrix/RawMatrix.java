@@ -0,0 +1,61 @@
+package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import static pt.ist.socialsoftware.mono2micro.utils.Constants.SIMILARITY_MATRIX_MAPPED_THRESHOLD_BYTES;
+
+/**
+ * Unweighted values of a similarity matrix, stored weight by weight in row-major order, so the value of weight k for the
+ * elements of index i and j is at (k * elementsCount + i) * elementsCount + j.
+ * Every weight's matrix is square since most of them are not symmetric (e.g., accessWeight is relative to the
+ * functionalities of the first entity), and rows are the observations given to the clustering.
+ * Matrices bigger than similarity.matrix.mapped.threshold.mb are kept in a memory-mapped temporary file instead of the
+ * heap, see MappedRawMatrix. Matrices must be closed to release their file.
+ */
+public abstract class RawMatrix implements Closeable {
+    protected final int elementsCount;
+    protected final int weightsCount;
+
+    protected RawMatrix(int elementsCount, int weightsCount) {
+        this.elementsCount = elementsCount;
+        this.weightsCount = weightsCount;
+    }
+
+    public static RawMatrix create(int elementsCount, int weightsCount) throws IOException {
+        if (getSizeInBytes(elementsCount, weightsCount) > SIMILARITY_MATRIX_MAPPED_THRESHOLD_BYTES || !HeapRawMatrix.fits(elementsCount))
+            return new MappedRawMatrix(elementsCount, weightsCount);
+        return new HeapRawMatrix(elementsCount, weightsCount);
+    }
+
+    public int getElementsCount() {
+        return elementsCount;
+    }
+
+    public int getWeightsCount() {
+        return weightsCount;
+    }
+
+    public abstract float get(int i, int j, int k);
+
+    public abstract void set(int i, int j, int k, float value);
+
+    // Sum of the weights' values multiplied by the given weights, in percentage
+    public float getWeighted(int i, int j, float[] weights) {
+        float metric = 0;
+        for (int k = 0; k < weights.length; k++)
+            metric += get(i, j, k) * weights[k] / 100;
+        return metric;
+    }
+
+    // Called once the matrix is filled
+    public void flush() {}
+
+    @Override
+    public void close() {}
+
+    // Bytes taken by the values of a matrix, known before creating it
+    public static long getSizeInBytes(int elementsCount, int weightsCount) {
+        return 4L * weightsCount * elementsCount * elementsCount;
+    }
+}
@@ -1,24 +1,38 @@
 package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Transient;
 import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
 import pt.ist.socialsoftware.mono2micro.recommendation.domain.Recommendation;
 import pt.ist.socialsoftware.mono2micro.similarity.domain.Similarity;
+import pt.ist.socialsoftware.mono2micro.similarity.domain.SimilarityMatrixSciPy;
 import pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.weights.Weights;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+
+import static pt.ist.socialsoftware.mono2micro.utils.Constants.SIMILARITY_MATRIX_JSON_FORMAT;
+import static pt.ist.socialsoftware.mono2micro.utils.Constants.SIMILARITY_MATRIX_NEIGHBOURS_TIES_MIN_SIMILARITY;
 
 public class SimilarityMatrix {
     private static final int INTERVAL = 100;
     private static final int STEP = 10;
     public String name;
+    private String rawMatrixName; // weighted into this matrix, null when it was not kept
     private List<Weights> weightsList;
+    private int neighboursCount; // nearest neighbours stored for each element, 0 stores the whole matrix
     @Transient
     private GridFsService gridFsService;
 
@@ -38,6 +52,14 @@ public class SimilarityMatrix {
         this.weightsList = weightsList;
     }
 
+    public int getNeighboursCount() {
+        return neighboursCount;
+    }
+
+    public void setNeighboursCount(int neighboursCount) {
+        this.neighboursCount = neighboursCount;
+    }
+
     public void setGridFsService(GridFsService gridFsService) {
         this.gridFsService = gridFsService;
     }
@@ -48,6 +70,11 @@ public class SimilarityMatrix {
         this.weightsList = weightsList;
     }
 
+    public SimilarityMatrix(List<Weights> weightsList, int neighboursCount) {
+        this.weightsList = weightsList;
+        this.neighboursCount = neighboursCount;
+    }
+
     public SimilarityMatrix(String name, List<Weights> weightsList) {
         this.name = name;
         this.weightsList = weightsList;
@@ -81,66 +108,218 @@ public class SimilarityMatrix {
         return allWeightsAsArray;
     }
 
+    /*
+     * Similarities with the same inputs share their matrix and the ones with the same inputs but weights share the raw
+     * matrix it is weighted from, which are only deleted once no similarity uses them. A new raw matrix is updated from the
+     * one of the most recent similarity of the strategy with the same types of weights, when they all can be. The matrices
+     * are claimed before being filled, so similarities generated at once never fill the same one twice, and given up if
+     * filling them fails. Only the claims and references this generation acquired are released when it fails.
+     */
     public void generate(GridFsService gridFsService, Similarity similarity, Set<Short> elements) throws Exception {
-        float[][][] rawMatrix = getEmptyRawMatrix(elements.size(), getTotalNumberOfWeights());
         setGridFsService(gridFsService);
 
+        setName(getContentName(gridFsService, similarity, elements, "_similarityMatrix_", true));
+        String rawMatrixName = getContentName(gridFsService, similarity, elements, "_rawSimilarityMatrix_", false);
+        ObjectId claim = gridFsService.claimSharedFile(getName());
+        ObjectId rawMatrixClaim = null;
+        boolean rawMatrixAcquired = false;
+        try {
+            if (claim == null) {
+                if (gridFsService.addFileReference(rawMatrixName)) {
+                    rawMatrixAcquired = true;
+                    setRawMatrixName(rawMatrixName);
+                    reuseMatrix(gridFsService);
+                }
+                return;
+            }
+            rawMatrixClaim = gridFsService.claimSharedFile(rawMatrixName);
+            rawMatrixAcquired = true;
+            setRawMatrixName(rawMatrixName);
+            if (rawMatrixClaim == null) {
+                reuseMatrix(gridFsService);
+                generateFromRawMatrix(gridFsService, rawMatrixName, claim);
+                return;
+            }
+            generateRawMatrix(gridFsService, similarity, elements, claim, rawMatrixClaim);
+
+        } catch (Exception e) {
+            if (claim != null)
+                gridFsService.giveUpSharedFile(getName(), claim, Collections.emptySet());
+            else
+                gridFsService.removeFileReference(getName());
+
+            if (rawMatrixAcquired) {
+                Set<String> weightsFileNames = getWeightsList().stream().map(this::getWeightsFileName).collect(Collectors.toSet());
+                if (rawMatrixClaim != null)
+                    gridFsService.giveUpSharedFile(rawMatrixName, rawMatrixClaim, weightsFileNames);
+                else
+                    gridFsService.removeFileReference(rawMatrixName, weightsFileNames);
+            }
+            throw e;
+        }
+    }
+
+    private void generateRawMatrix(GridFsService gridFsService, Similarity similarity, Set<Short> elements, ObjectId claim, ObjectId rawMatrixClaim) throws Exception {
+        try (RawMatrix rawMatrix = getEmptyRawMatrix(elements.size(), getTotalNumberOfWeights())) {
+            SimilarityMatrixSciPy baseSimilarity = getBaseSimilarity(similarity);
+            if (baseSimilarity == null)
+                fillMatrix(gridFsService, similarity, rawMatrix, elements, null, null);
+            else try (InputStream baseRawMatrixFile = gridFsService.getFile(baseSimilarity.getSimilarityMatrix().getRawMatrixName())) {
+                SimilarityMatrixBinaryReader reader = new SimilarityMatrixBinaryReader(baseRawMatrixFile);
+                try (RawMatrix baseRawMatrix = reader.readRawMatrix()) {
+                    boolean sameElements = new ArrayList<>(reader.getElements()).equals(new ArrayList<>(elements));
+                    fillMatrix(gridFsService, similarity, rawMatrix, elements, sameElements ? baseSimilarity : null, baseRawMatrix);
+                }
+            }
+            rawMatrix.flush();
+            RawMatrix matrix = SparseRawMatrix.compact(rawMatrix);
+
+            gridFsService.saveSharedFile(new SimilarityMatrixBinaryWriter(elements, matrix)::write, getRawMatrixName(), rawMatrixClaim);
+            gridFsService.saveSharedFile(getSimilarityMatrixWriter(elements, getNeighboursMatrix(matrix), getWeightsAsArray())::write, getName(), claim);
+        }
+    }
+
+    private void fillMatrix(
+            GridFsService gridFsService,
+            Similarity similarity,
+            RawMatrix rawMatrix,
+            Set<Short> elements,
+            Similarity baseSimilarity,
+            RawMatrix baseRawMatrix
+    ) throws Exception {
         int fillFromIndex = 0;
         for (Weights weights : getWeightsList()) {
-            weights.fillMatrix(gridFsService, similarity, rawMatrix, elements, fillFromIndex);
+            if (baseSimilarity == null)
+                weights.fillMatrix(gridFsService, similarity, rawMatrix, elements, fillFromIndex);
+            else
+                weights.updateMatrix(gridFsService, similarity, rawMatrix, elements, fillFromIndex, baseSimilarity, baseRawMatrix);
             fillFromIndex += weights.getNumberOfWeights();
         }
+    }
 
-        JSONObject matrixJSON = getSimilarityMatrixAsJSON(elements, rawMatrix, getWeightsAsArray());
-        setName(similarity.getName() + "_similarityMatrix");
-        gridFsService.saveFile(new ByteArrayInputStream(matrixJSON.toString().getBytes()), getName());
+    private void reuseMatrix(GridFsService gridFsService) throws Exception {
+        for (Weights weights : getWeightsList())
+            weights.reuseMatrix(gridFsService, this);
     }
 
-    public float[][][] getEmptyRawMatrix(int numberOfEntities, int numberOfWeights) {
-        return new float[numberOfEntities][numberOfEntities][numberOfWeights];
+    private SimilarityMatrixSciPy getBaseSimilarity(Similarity similarity) {
+        List<String> weightsTypes = getWeightsList().stream().map(Weights::getType).collect(Collectors.toList());
+        List<Similarity> similarities = similarity.getStrategy().getSimilarities();
+
+        for (int i = similarities.size() - 1; i >= 0; i--) {
+            if (!(similarities.get(i) instanceof SimilarityMatrixSciPy) || similarities.get(i) == similarity)
+                continue;
+            SimilarityMatrixSciPy baseSimilarity = (SimilarityMatrixSciPy) similarities.get(i);
+            SimilarityMatrix baseSimilarityMatrix = baseSimilarity.getSimilarityMatrix();
+            if (baseSimilarityMatrix == null || baseSimilarityMatrix.getRawMatrixName() == null ||
+                    !baseSimilarityMatrix.getWeightsList().stream().map(Weights::getType).collect(Collectors.toList()).equals(weightsTypes))
+                continue;
+
+            if (getWeightsList().stream().allMatch(weights -> weights.canUpdateMatrix(similarity, baseSimilarity)))
+                return baseSimilarity;
+        }
+        return null;
     }
 
-    public JSONObject getSimilarityMatrixAsJSON(Set<Short> elements, float[][][] matrix, float[] weights) throws JSONException {
-        JSONObject matrixData = new JSONObject();
-        JSONArray matrixJSON = new JSONArray();
+    // Name given by the SHA-256 of everything the matrix is computed from, the weights' values only when weighted
+    private String getContentName(GridFsService gridFsService, Similarity similarity, Set<Short> elements, String infix, boolean weighted) throws NoSuchAlgorithmException, IOException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        StringBuilder inputs = new StringBuilder();
+        for (short elementID : elements)
+            inputs.append(elementID).append(',');
+        digest.update(inputs.toString().getBytes(StandardCharsets.UTF_8));
 
-        int i = 0;
-        for (short e1ID : elements) {
-            JSONArray matrixRow = new JSONArray();
-            int j = 0;
-
-            for (short e2ID : elements) {
-                if (e1ID == e2ID) {
-                    matrixRow.put(1);
-                    j++;
-                    continue;
-                }
+        for (Weights weights : getWeightsList()) {
+            String weightsValues = weighted ? Arrays.toString(weights.getWeights()) : "";
+            digest.update(('\n' + weights.getType() + '\n' + weightsValues + '\n').getBytes(StandardCharsets.UTF_8));
+            weights.addInputsToDigest(gridFsService, digest, similarity);
+        }
+        if (weighted && getNeighboursCount() > 0)
+            digest.update(("\nneighbours\n" + getNeighboursCount() + "\n" + SIMILARITY_MATRIX_NEIGHBOURS_TIES_MIN_SIMILARITY + "\n").getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder name = new StringBuilder(similarity.getStrategy().getCodebase().getName()).append(infix);
+        for (byte b : digest.digest())
+            name.append(String.format("%02x", b));
+        return name.toString();
+    }
 
-                float metric = 0;
-                for (int k = 0; k < weights.length; k++)
-                    metric += matrix[i][j][k] * weights[k] / 100;
+    // Removes the similarity's references to its matrices, the files its weights saved beside the raw one go with it
+    public void removeFiles(GridFsService gridFsService) {
+        gridFsService.removeFileReference(getName());
+        if (getRawMatrixName() != null)
+            gridFsService.removeFileReference(getRawMatrixName(), getWeightsList().stream().map(this::getWeightsFileName).collect(Collectors.toSet()));
+    }
+
+    // File the weights may save beside the raw matrix
+    public String getWeightsFileName(Weights weights) {
+        return getRawMatrixName() + "_" + weights.getType();
+    }
+
+    // The matrix given to the scripts, only the nearest neighbours of each element when neighboursCount is set, picked once the whole matrix is filled
+    private RawMatrix getNeighboursMatrix(RawMatrix matrix) {
+        if (getNeighboursCount() > 0)
+            return SparseRawMatrix.nearestNeighbours(matrix, getWeightsAsArray(), getNeighboursCount());
+        return matrix;
+    }
 
-                matrixRow.put(metric);
-                j++;
+    // Weighted similarity of each element to its nearest neighbours, or to every element related to it, by element ID
+    public Map<Short, Map<Short, Float>> getNeighbours(GridFsService gridFsService) throws IOException {
+        if (getRawMatrixName() == null)
+            throw new IOException("Similarity matrix " + getName() + " was not kept unweighted");
+
+        try (InputStream rawMatrixFile = gridFsService.getFile(getRawMatrixName())) {
+            SimilarityMatrixBinaryReader reader = new SimilarityMatrixBinaryReader(rawMatrixFile);
+            try (RawMatrix rawMatrix = reader.readRawMatrix()) {
+                float[] weights = getWeightsAsArray();
+                SparseRawMatrix matrix = SparseRawMatrix.nearestNeighbours(rawMatrix, weights, getNeighboursCount() > 0 ? getNeighboursCount() : Integer.MAX_VALUE);
+                Short[] elements = reader.getElements().toArray(new Short[0]);
+
+                Map<Short, Map<Short, Float>> neighbours = new LinkedHashMap<>();
+                for (int i = 0; i < elements.length; i++) {
+                    Map<Short, Float> elementNeighbours = new LinkedHashMap<>();
+                    int rowEnd = i + 1 == elements.length ? matrix.getCellsCount() : matrix.getRowStart(i + 1);
+                    for (int cell = matrix.getRowStart(i); cell < rowEnd; cell++)
+                        elementNeighbours.put(elements[matrix.getColumn(cell)], matrix.getWeightedAt(cell, weights));
+                    neighbours.put(elements[i], elementNeighbours);
+                }
+                return neighbours;
             }
-            matrixJSON.put(matrixRow);
-            i++;
         }
+    }
+
+    public RawMatrix getEmptyRawMatrix(int numberOfEntities, int numberOfWeights) throws IOException {
+        return RawMatrix.create(numberOfEntities, numberOfWeights);
+    }
+
+    // The matrix is written as GridFS uploads it, in binary unless similarity.matrix.format is json
+    public SimilarityMatrixWriter getSimilarityMatrixWriter(Set<Short> elements, RawMatrix matrix, float[] weights) {
+        if (SIMILARITY_MATRIX_JSON_FORMAT)
+            return new SimilarityMatrixJSONWriter(elements, matrix, weights);
+        return new SimilarityMatrixBinaryWriter(elements, matrix, weights);
+    }
+
+    public String getRawMatrixName() {
+        return rawMatrixName;
+    }
 
-        matrixData.put("elements", elements);
-        matrixData.put("matrix", matrixJSON);
-        return matrixData;
+    public void setRawMatrixName(String rawMatrixName) {
+        this.rawMatrixName = rawMatrixName;
     }
 
+    // Saves the values of every weight once, the matrices of the combinations of weights are weighted from them when used
     public Set<String> generateMultipleMatrices(GridFsService gridFsService, Recommendation recommendation, Set<Short> elements, int totalNumberOfWeights) throws Exception {
         setGridFsService(gridFsService);
 
-        float[][][] rawMatrix = getEmptyRawMatrix(elements.size(), totalNumberOfWeights);
-
-        int fillFromIndex = 0;
-        for (Weights weights : getWeightsList()) {
-            weights.fillMatrix(gridFsService, recommendation, rawMatrix, elements, fillFromIndex);
-            fillFromIndex += weights.getNumberOfWeights();
+        try (RawMatrix rawMatrix = getEmptyRawMatrix(elements.size(), totalNumberOfWeights)) {
+            int fillFromIndex = 0;
+            for (Weights weights : getWeightsList()) {
+                weights.fillMatrix(gridFsService, recommendation, rawMatrix, elements, fillFromIndex);
+                fillFromIndex += weights.getNumberOfWeights();
+            }
+            rawMatrix.flush();
+            RawMatrix matrix = SparseRawMatrix.compact(rawMatrix);
+            setRawMatrixName(getName() + "_rawSimilarityMatrix");
+            gridFsService.saveFile(new SimilarityMatrixBinaryWriter(elements, matrix)::write, getRawMatrixName());
         }
 
         int[] weights = new int[totalNumberOfWeights];
@@ -149,53 +328,57 @@ public class SimilarityMatrix {
         remainders[0] = INTERVAL;
 
         Set<String> similarityMatrices = new HashSet<>();
-        getMatrixCombinations(similarityMatrices, elements, rawMatrix, weights, remainders, 0);
+        getMatrixCombinations(similarityMatrices, weights, remainders, 0);
         return similarityMatrices;
     }
 
-    // Creates matrices based on combinations of weights ([100, 0, 0], [90, 10, 0], [90, 0, 10], [80, 20, 0], [80, 10, 10], ...)
+    // Names the matrices of the combinations of weights ([100, 0, 0], [90, 10, 0], [90, 0, 10], [80, 20, 0], [80, 10, 10], ...)
     public void getMatrixCombinations(
             Set<String> similarityMatrices,
-            Set<Short> elements,
-            float[][][] rawMatrix,
             int[] weights,
             int[] remainders, int i
-    )
-            throws Exception
-    {
+    ) {
         if (i + 1 == remainders.length) {
-            createAndWriteSimilarityMatrix(similarityMatrices, elements, rawMatrix, weights);
+            addSimilarityMatrixName(similarityMatrices, weights);
             return;
         }
         else {
             remainders[i + 1] = remainders[i] - weights[i];
             weights[i + 1] = remainders[i + 1];
-            getMatrixCombinations(similarityMatrices, elements, rawMatrix, weights, remainders, i+1);
+            getMatrixCombinations(similarityMatrices, weights, remainders, i+1);
         }
 
         weights[i] = weights[i] - STEP;
         if (weights[i] >= 0)
-            getMatrixCombinations(similarityMatrices, elements, rawMatrix, weights, remainders, i);
+            getMatrixCombinations(similarityMatrices, weights, remainders, i);
     }
 
-    private void createAndWriteSimilarityMatrix(
-            Set<String> similarityMatrices,
-            Set<Short> elements,
-            float[][][] rawMatrix,
-            int[] weights
-    ) throws Exception {
-        float[] weightsAsFloats = new float[weights.length];
-        for (int i = 0; i < weights.length; i++)
-            weightsAsFloats[i] = weights[i];
-
-        JSONObject matrixJSON = getSimilarityMatrixAsJSON(elements, rawMatrix, weightsAsFloats);
-
+    private void addSimilarityMatrixName(Set<String> similarityMatrices, int[] weights) {
         StringBuilder similarityMatrixName = new StringBuilder(getName());
         for (float weight : weights)
             similarityMatrixName.append(",").append(getWeightAsString(weight));
 
         similarityMatrices.add(similarityMatrixName.toString());
-        gridFsService.saveFile(new ByteArrayInputStream(matrixJSON.toString().getBytes()), similarityMatrixName.toString());
+    }
+
+    // Saves the matrix weighted with this matrix's weights from a raw matrix saved by generateMultipleMatrices
+    public void generateFromRawMatrix(GridFsService gridFsService, String rawMatrixName) throws Exception {
+        setGridFsService(gridFsService);
+        generateFromRawMatrix(gridFsService, rawMatrixName, null);
+    }
+
+    // Saved as a shared file when claimed, as a file of its own otherwise
+    private void generateFromRawMatrix(GridFsService gridFsService, String rawMatrixName, ObjectId claim) throws Exception {
+        try (InputStream rawMatrixFile = gridFsService.getFile(rawMatrixName)) {
+            SimilarityMatrixBinaryReader reader = new SimilarityMatrixBinaryReader(rawMatrixFile);
+            try (RawMatrix rawMatrix = reader.readRawMatrix()) {
+                SimilarityMatrixWriter writer = getSimilarityMatrixWriter(reader.getElements(), getNeighboursMatrix(rawMatrix), getWeightsAsArray());
+                if (claim != null)
+                    gridFsService.saveSharedFile(writer::write, getName(), claim);
+                else
+                    gridFsService.saveFile(writer::write, getName());
+            }
+        }
     }
 
     public String getWeightAsString(float weight) {
@@ -0,0 +1,119 @@
+package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.SimilarityMatrixBinaryWriter.*;
+
+/**
+ * Reads back the raw matrices written by SimilarityMatrixBinaryWriter, dense ones into a RawMatrix created as the ones
+ * being filled are and sparse ones into a SparseRawMatrix. Values are read a block at a time.
+ */
+public class SimilarityMatrixBinaryReader {
+    private static final int BLOCK_VALUES = 1 << 20;
+
+    private final InputStream in;
+    private Set<Short> elements;
+
+    public SimilarityMatrixBinaryReader(InputStream in) {
+        this.in = in;
+    }
+
+    // In the order of the matrix's rows, known once the matrix is read
+    public Set<Short> getElements() {
+        return elements;
+    }
+
+    // The matrix must be closed by the caller
+    public RawMatrix readRawMatrix() throws IOException {
+        ByteBuffer header = read(24);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("Not a binary similarity matrix");
+        int version = header.getInt();
+        if (version < 1 || version > VERSION)
+            throw new IOException("Unsupported binary similarity matrix version " + version);
+        int format = header.getInt();
+        if (format != RAW_DENSE_FORMAT && format != RAW_SPARSE_FORMAT)
+            throw new IOException("Not a raw similarity matrix, format " + format);
+        int elementsCount = header.getInt();
+        long cellsCount = header.getLong();
+
+        ByteBuffer elementsBuffer = read(4 + 4L * elementsCount);
+        int weightsCount = elementsBuffer.getInt();
+        elements = new LinkedHashSet<>();
+        for (int i = 0; i < elementsCount; i++)
+            elements.add((short) elementsBuffer.getInt());
+
+        if (format == RAW_DENSE_FORMAT)
+            return readDenseMatrix(elementsCount, weightsCount);
+        return readSparseMatrix(elementsCount, weightsCount, (int) cellsCount);
+    }
+
+    private RawMatrix readDenseMatrix(int elementsCount, int weightsCount) throws IOException {
+        RawMatrix matrix = RawMatrix.create(elementsCount, weightsCount);
+        try {
+            long cellsCount = (long) elementsCount * elementsCount;
+            for (int k = 0; k < weightsCount; k++) {
+                for (long fromCell = 0; fromCell < cellsCount; fromCell += BLOCK_VALUES) {
+                    int count = (int) Math.min(BLOCK_VALUES, cellsCount - fromCell);
+                    FloatBuffer values = read(4L * count).asFloatBuffer();
+                    for (int c = 0; c < count; c++) {
+                        long cell = fromCell + c;
+                        matrix.set((int) (cell / elementsCount), (int) (cell % elementsCount), k, values.get(c));
+                    }
+                }
+            }
+            matrix.flush();
+            return matrix;
+
+        } catch (IOException | RuntimeException e) {
+            matrix.close();
+            throw e;
+        }
+    }
+
+    private RawMatrix readSparseMatrix(int elementsCount, int weightsCount, int cellsCount) throws IOException {
+        int[] rowStarts = new int[elementsCount + 1];
+        read(4L * (elementsCount + 1)).asIntBuffer().get(rowStarts);
+        SparseRawMatrix matrix = new SparseRawMatrix(elementsCount, weightsCount, rowStarts);
+
+        for (int fromCell = 0; fromCell < cellsCount; fromCell += BLOCK_VALUES) {
+            int count = Math.min(BLOCK_VALUES, cellsCount - fromCell);
+            IntBuffer columns = read(4L * count).asIntBuffer();
+            for (int c = 0; c < count; c++)
+                matrix.setColumn(fromCell + c, columns.get(c));
+        }
+
+        for (int k = 0; k < weightsCount; k++) {
+            for (int fromCell = 0; fromCell < cellsCount; fromCell += BLOCK_VALUES) {
+                int count = Math.min(BLOCK_VALUES, cellsCount - fromCell);
+                FloatBuffer values = read(4L * count).asFloatBuffer();
+                for (int c = 0; c < count; c++)
+                    matrix.setValueAt(fromCell + c, k, values.get(c));
+            }
+        }
+        return matrix;
+    }
+
+    private ByteBuffer read(long length) throws IOException {
+        byte[] bytes = new byte[(int) length];
+        int read = 0;
+        while (read < bytes.length) {
+            int n = in.read(bytes, read, bytes.length - read);
+            if (n == -1)
+                throw new EOFException("Unexpected end of the binary similarity matrix");
+            read += n;
+        }
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,116 @@
+package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Binary format of a similarity matrix, read by the scripts with numpy.frombuffer. Every value is little-endian:
+ *   header: "M2MS", int32 version, int32 format, int32 elementsCount, int64 cellsCount
+ *   raw formats only: int32 weightsCount
+ *   int32[elementsCount] element IDs
+ *   dense: float32[elementsCount * elementsCount] by row
+ *   sparse: int32[elementsCount + 1] rowStarts, int32[cellsCount] columns, float32[cellsCount] values
+ * Sparse cells missing are 0 and the diagonal of weighted matrices is 1. Raw matrices, written without weights, hold
+ * the values of every weight one after the other, so any weighting can be computed from them by whoever reads them.
+ * Version 1 had the weighted formats only, version 2 added the raw ones. Readers must refuse versions and formats they
+ * do not know.
+ */
+public class SimilarityMatrixBinaryWriter extends SimilarityMatrixWriter {
+    public static final byte[] MAGIC = "M2MS".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 2;
+    public static final int DENSE_FORMAT = 0;
+    public static final int SPARSE_FORMAT = 1;
+    public static final int RAW_DENSE_FORMAT = 2;
+    public static final int RAW_SPARSE_FORMAT = 3;
+
+    public SimilarityMatrixBinaryWriter(Set<Short> elements, RawMatrix matrix, float[] weights) {
+        super(elements, matrix, weights);
+    }
+
+    // Writes the values of every weight of the matrix
+    public SimilarityMatrixBinaryWriter(Set<Short> elements, RawMatrix matrix) {
+        super(elements, matrix, null);
+    }
+
+    private int getFormat() {
+        if (weights == null)
+            return sparseMatrix == null ? RAW_DENSE_FORMAT : RAW_SPARSE_FORMAT;
+        return sparseMatrix == null ? DENSE_FORMAT : SPARSE_FORMAT;
+    }
+
+    private static ByteBuffer allocate(long bytes) {
+        return ByteBuffer.allocate((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        writeHeader(outputStream);
+
+        if (sparseMatrix != null) {
+            for (int fromRow = 0; fromRow < elementsCount; ) {
+                int toRow = getSparseBlockEnd(fromRow);
+                ByteBuffer columns = allocate(4L * (getRowEnd(toRow - 1) - sparseMatrix.getRowStart(fromRow)));
+                for (int cell = sparseMatrix.getRowStart(fromRow); cell < getRowEnd(toRow - 1); cell++)
+                    columns.putInt(sparseMatrix.getColumn(cell));
+                outputStream.write(columns.array());
+                fromRow = toRow;
+            }
+        }
+
+        if (weights != null)
+            writeValues(outputStream, WEIGHTED);
+        else for (int k = 0; k < matrix.getWeightsCount(); k++)
+            writeValues(outputStream, k);
+    }
+
+    private void writeHeader(OutputStream outputStream) throws IOException {
+        boolean sparse = sparseMatrix != null;
+        boolean raw = weights == null;
+        long cellsCount = sparse ? sparseMatrix.getCellsCount() : (long) elementsCount * elementsCount;
+
+        ByteBuffer header = allocate(24 + (raw ? 4 : 0) + 4L * elementsCount + (sparse ? 4L * (elementsCount + 1) : 0));
+        header.put(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(getFormat());
+        header.putInt(elementsCount);
+        header.putLong(cellsCount);
+        if (raw)
+            header.putInt(matrix.getWeightsCount());
+        for (short elementID : elements)
+            header.putInt(elementID);
+
+        if (sparse) {
+            for (int i = 0; i < elementsCount; i++)
+                header.putInt(sparseMatrix.getRowStart(i));
+            header.putInt(sparseMatrix.getCellsCount());
+        }
+        outputStream.write(header.array());
+    }
+
+    // Weighted values, or the ones of weight k
+    private void writeValues(OutputStream outputStream, int k) throws IOException {
+        for (int fromRow = 0; fromRow < elementsCount; ) {
+            int toRow;
+            if (sparseMatrix == null) {
+                toRow = weightDenseRows(fromRow, k);
+                writeMetrics(outputStream, (toRow - fromRow) * elementsCount);
+            }
+            else {
+                toRow = getSparseBlockEnd(fromRow);
+                weightSparseRows(fromRow, toRow, k);
+                writeMetrics(outputStream, getRowEnd(toRow - 1) - sparseMatrix.getRowStart(fromRow));
+            }
+            fromRow = toRow;
+        }
+    }
+
+    private void writeMetrics(OutputStream outputStream, int metricsCount) throws IOException {
+        ByteBuffer metrics = allocate(4L * metricsCount);
+        metrics.asFloatBuffer().put(blockMetrics, 0, metricsCount);
+        outputStream.write(metrics.array());
+    }
+}
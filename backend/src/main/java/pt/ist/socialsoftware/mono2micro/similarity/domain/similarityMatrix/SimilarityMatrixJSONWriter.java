@@ -0,0 +1,80 @@
+package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+
+/**
+ * JSON export of a weighted similarity matrix, with each metric written as the double of its float.
+ * Dense matrices are written as {"elements":[...],"matrix":[[...],...]} and sparse ones in compressed sparse row form,
+ * as {"elements":[...],"format":"csr","rowStarts":[...],"columns":[...],"values":[...]}, the cells missing being 0.
+ */
+public class SimilarityMatrixJSONWriter extends SimilarityMatrixWriter {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    public SimilarityMatrixJSONWriter(Set<Short> elements, RawMatrix matrix, float[] weights) {
+        super(elements, matrix, weights);
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("elements");
+            for (short elementID : elements)
+                generator.writeNumber(elementID);
+            generator.writeEndArray();
+
+            if (sparseMatrix == null)
+                writeDenseMatrix(generator);
+            else
+                writeSparseMatrix(generator);
+
+            generator.writeEndObject();
+        }
+    }
+
+    private void writeDenseMatrix(JsonGenerator generator) throws IOException {
+        generator.writeArrayFieldStart("matrix");
+        for (int fromRow = 0; fromRow < elementsCount; ) {
+            int toRow = weightDenseRows(fromRow, WEIGHTED);
+            for (int i = fromRow; i < toRow; i++) {
+                generator.writeStartArray();
+                for (int j = 0; j < elementsCount; j++)
+                    generator.writeNumber((double) blockMetrics[(i - fromRow) * elementsCount + j]);
+                generator.writeEndArray();
+            }
+            fromRow = toRow;
+        }
+        generator.writeEndArray();
+    }
+
+    private void writeSparseMatrix(JsonGenerator generator) throws IOException {
+        generator.writeStringField("format", "csr");
+
+        generator.writeArrayFieldStart("rowStarts");
+        for (int i = 0; i < elementsCount; i++)
+            generator.writeNumber(sparseMatrix.getRowStart(i));
+        generator.writeNumber(sparseMatrix.getCellsCount());
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("columns");
+        for (int cell = 0; cell < sparseMatrix.getCellsCount(); cell++)
+            generator.writeNumber(sparseMatrix.getColumn(cell));
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("values");
+        for (int fromRow = 0; fromRow < elementsCount; ) {
+            int toRow = getSparseBlockEnd(fromRow);
+            weightSparseRows(fromRow, toRow, WEIGHTED);
+            for (int cell = sparseMatrix.getRowStart(fromRow); cell < getRowEnd(toRow - 1); cell++)
+                generator.writeNumber((double) blockMetrics[cell - sparseMatrix.getRowStart(fromRow)]);
+            fromRow = toRow;
+        }
+        generator.writeEndArray();
+    }
+}
@@ -0,0 +1,73 @@
+package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix;
+
+import pt.ist.socialsoftware.mono2micro.utils.MatrixRowsFiller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+
+/**
+ * Writes a weighted similarity matrix as it is weighted, so neither the weighted matrix nor its serialization are ever
+ * whole in memory. The matrix is weighted concurrently a block of rows at a time, the diagonal being 1, and each
+ * subclass writes the blocks in its format. Without weights, the values of a single weight can be copied instead.
+ * Since element IDs are shorts, a row never has more cells than a block.
+ */
+public abstract class SimilarityMatrixWriter {
+    protected static final int WEIGHTED = -1;
+    private static final int BLOCK_CELLS = 1 << 20;
+
+    protected final Set<Short> elements;
+    protected final RawMatrix matrix;
+    protected final SparseRawMatrix sparseMatrix; // null when dense
+    protected final float[] weights;
+    protected final int elementsCount;
+    protected final float[] blockMetrics;
+
+    protected SimilarityMatrixWriter(Set<Short> elements, RawMatrix matrix, float[] weights) {
+        this.elements = elements;
+        this.matrix = matrix;
+        this.sparseMatrix = matrix instanceof SparseRawMatrix ? (SparseRawMatrix) matrix : null;
+        this.weights = weights;
+        this.elementsCount = elements.size();
+        this.blockMetrics = new float[(int) Math.max(1, Math.min(BLOCK_CELLS, (long) elementsCount * elementsCount))];
+    }
+
+    // Writes the whole matrix, the output stream is left open
+    public abstract void write(OutputStream outputStream) throws IOException;
+
+    // Weights rows [fromRow, toRow[ into blockMetrics, row by row, or copies the values of weight k, and returns toRow
+    protected int weightDenseRows(int fromRow, int k) {
+        int toRow = Math.min(elementsCount, fromRow + BLOCK_CELLS / elementsCount);
+        MatrixRowsFiller.fill("Similarity matrix", toRow - fromRow, r -> {
+            int i = fromRow + r;
+            for (int j = 0; j < elementsCount; j++)
+                blockMetrics[r * elementsCount + j] = k != WEIGHTED ? matrix.get(i, j, k) :
+                        i == j ? 1 : matrix.getWeighted(i, j, weights);
+        });
+        return toRow;
+    }
+
+    protected int getRowEnd(int i) {
+        return i + 1 == elementsCount ? sparseMatrix.getCellsCount() : sparseMatrix.getRowStart(i + 1);
+    }
+
+    // Last row, exclusive, of the block of sparse rows starting at fromRow
+    protected int getSparseBlockEnd(int fromRow) {
+        int toRow = fromRow + 1;
+        while (toRow < elementsCount && getRowEnd(toRow) - sparseMatrix.getRowStart(fromRow) <= BLOCK_CELLS)
+            toRow++;
+        return toRow;
+    }
+
+    // Weights the cells of sparse rows [fromRow, toRow[ into blockMetrics, from the first cell of fromRow, or copies the
+    // values of weight k
+    protected void weightSparseRows(int fromRow, int toRow, int k) {
+        int fromCell = sparseMatrix.getRowStart(fromRow);
+        MatrixRowsFiller.fill("Similarity matrix", toRow - fromRow, r -> {
+            int i = fromRow + r;
+            for (int cell = sparseMatrix.getRowStart(i); cell < getRowEnd(i); cell++)
+                blockMetrics[cell - fromCell] = k != WEIGHTED ? sparseMatrix.getValueAt(cell, k) :
+                        sparseMatrix.getColumn(cell) == i ? 1 : sparseMatrix.getWeightedAt(cell, weights);
+        });
+    }
+}
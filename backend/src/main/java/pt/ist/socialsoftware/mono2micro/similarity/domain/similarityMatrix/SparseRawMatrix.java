@@ -0,0 +1,235 @@
+package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix;
+
+import pt.ist.socialsoftware.mono2micro.utils.MatrixRowsFiller;
+
+import java.util.Arrays;
+
+import static pt.ist.socialsoftware.mono2micro.utils.Constants.SIMILARITY_MATRIX_NEIGHBOURS_TIES_MIN_SIMILARITY;
+import static pt.ist.socialsoftware.mono2micro.utils.Constants.SIMILARITY_MATRIX_SPARSE_MAX_DENSITY;
+
+/**
+ * Compressed sparse row matrix of the cells with at least one non-zero value, so its size follows the number of related
+ * pairs of elements instead of elementsCount^2. The cells of row i are the ones in [rowStarts[i], rowStarts[i + 1]),
+ * by increasing column, and the value of weight k of a cell is values[k][cell].
+ * Since which pairs are related is only known once a matrix is filled, matrices are filled dense and then compacted
+ * when their density is below similarity.matrix.sparse.max.density. Cells can not be added afterwards.
+ * Nearest neighbour graphs are kept the same way, as the adjacency lists of the elements, see nearestNeighbours. They
+ * are picked from a filled matrix, so they bound the size of what is stored and given to the scripts, not the memory
+ * used to fill the matrix.
+ */
+public class SparseRawMatrix extends RawMatrix {
+    private final int[] rowStarts;
+    private final int[] columns;
+    private final float[][] values;
+
+    SparseRawMatrix(int elementsCount, int weightsCount, int[] rowStarts) {
+        super(elementsCount, weightsCount);
+        this.rowStarts = rowStarts;
+        this.columns = new int[rowStarts[elementsCount]];
+        this.values = new float[weightsCount][rowStarts[elementsCount]];
+    }
+
+    // The matrix itself when it is not sparse enough
+    public static RawMatrix compact(RawMatrix matrix) {
+        if (matrix instanceof SparseRawMatrix)
+            return matrix;
+
+        int elementsCount = matrix.getElementsCount();
+        int weightsCount = matrix.getWeightsCount();
+
+        int[] rowCounts = new int[elementsCount];
+        MatrixRowsFiller.fill("Sparse similarity matrix", elementsCount, i -> {
+            for (int j = 0; j < elementsCount; j++)
+                if (isNonZero(matrix, i, j))
+                    rowCounts[i]++;
+        });
+
+        long cellsCount = 0;
+        for (int rowCount : rowCounts)
+            cellsCount += rowCount;
+        if (elementsCount == 0 || cellsCount >= SIMILARITY_MATRIX_SPARSE_MAX_DENSITY * elementsCount * (double) elementsCount)
+            return matrix;
+
+        int[] rowStarts = new int[elementsCount + 1];
+        for (int i = 0; i < elementsCount; i++)
+            rowStarts[i + 1] = rowStarts[i] + rowCounts[i];
+
+        SparseRawMatrix sparseMatrix = new SparseRawMatrix(elementsCount, weightsCount, rowStarts);
+        MatrixRowsFiller.fill("Sparse similarity matrix", elementsCount, i -> {
+            int cell = rowStarts[i];
+            for (int j = 0; j < elementsCount; j++) {
+                if (!isNonZero(matrix, i, j))
+                    continue;
+
+                sparseMatrix.columns[cell] = j;
+                for (int k = 0; k < weightsCount; k++)
+                    sparseMatrix.values[k][cell] = matrix.get(i, j, k);
+                cell++;
+            }
+        });
+        return sparseMatrix;
+    }
+
+    /*
+     * Keeps, for each element, the neighboursCount other elements most similar to it once weighted, and every other one
+     * tied with the last of them when that similarity is at least similarity.matrix.neighbours.ties.min.similarity, so
+     * the matrix has about elementsCount * neighboursCount cells. Elements not related to any other are left without
+     * neighbours. The values of every weight of the cells kept are copied, so they are weighted as in the whole matrix.
+     * The matrix given is whole, a row's ranking depending on every weight, so only the result is O(elementsCount *
+     * neighboursCount), each row being ranked in O(row cells * log(neighboursCount)) time.
+     */
+    public static SparseRawMatrix nearestNeighbours(RawMatrix matrix, float[] weights, int neighboursCount) {
+        int elementsCount = matrix.getElementsCount();
+        int weightsCount = matrix.getWeightsCount();
+        SparseRawMatrix sparseMatrix = matrix instanceof SparseRawMatrix ? (SparseRawMatrix) matrix : null;
+
+        int[][] neighbours = new int[elementsCount][];
+        MatrixRowsFiller.fill("Nearest neighbours similarity matrix", elementsCount, i -> {
+            float[] metrics = new float[sparseMatrix == null ? elementsCount : sparseMatrix.rowStarts[i + 1] - sparseMatrix.rowStarts[i]];
+            int[] columns = new int[metrics.length];
+            int count = 0;
+            for (int c = 0; c < metrics.length; c++) {
+                int j = sparseMatrix == null ? c : sparseMatrix.columns[sparseMatrix.rowStarts[i] + c];
+                float metric = sparseMatrix == null ? matrix.getWeighted(i, j, weights) : sparseMatrix.getWeightedAt(sparseMatrix.rowStarts[i] + c, weights);
+                if (j != i && metric > 0) {
+                    metrics[count] = metric;
+                    columns[count++] = j;
+                }
+            }
+            neighbours[i] = selectNearest(metrics, columns, count, neighboursCount);
+        });
+
+        int[] rowStarts = new int[elementsCount + 1];
+        for (int i = 0; i < elementsCount; i++)
+            rowStarts[i + 1] = rowStarts[i] + neighbours[i].length;
+
+        SparseRawMatrix neighboursMatrix = new SparseRawMatrix(elementsCount, weightsCount, rowStarts);
+        MatrixRowsFiller.fill("Nearest neighbours similarity matrix", elementsCount, i -> {
+            for (int n = 0; n < neighbours[i].length; n++) {
+                int cell = rowStarts[i] + n;
+                neighboursMatrix.columns[cell] = neighbours[i][n];
+                for (int k = 0; k < weightsCount; k++)
+                    neighboursMatrix.values[k][cell] = matrix.get(i, neighbours[i][n], k);
+            }
+        });
+        return neighboursMatrix;
+    }
+
+    // Columns, in increasing order, of the neighboursCount greatest metrics and their ties, found with a bounded min-heap
+    private static int[] selectNearest(float[] metrics, int[] columns, int count, int neighboursCount) {
+        if (count <= neighboursCount)
+            return Arrays.copyOf(columns, count);
+
+        float[] heap = new float[neighboursCount];
+        int heapSize = 0;
+        for (int c = 0; c < count; c++) {
+            if (heapSize < neighboursCount)
+                siftUp(heap, heapSize++, metrics[c]);
+            else if (metrics[c] > heap[0])
+                siftDown(heap, heapSize, metrics[c]);
+        }
+
+        float last = heap[0];
+        int ties = neighboursCount; // metrics greater than the last one kept are all in the heap
+        for (float metric : heap)
+            if (metric > last)
+                ties--;
+        if (last >= SIMILARITY_MATRIX_NEIGHBOURS_TIES_MIN_SIMILARITY)
+            ties = count;
+
+        int[] nearest = new int[count];
+        int nearestCount = 0;
+        for (int c = 0; c < count; c++)
+            if (metrics[c] > last || metrics[c] == last && ties-- > 0)
+                nearest[nearestCount++] = columns[c];
+        return Arrays.copyOf(nearest, nearestCount);
+    }
+
+    private static void siftUp(float[] heap, int index, float metric) {
+        while (index > 0 && heap[(index - 1) / 2] > metric) {
+            heap[index] = heap[(index - 1) / 2];
+            index = (index - 1) / 2;
+        }
+        heap[index] = metric;
+    }
+
+    // Replaces the smallest metric of the heap
+    private static void siftDown(float[] heap, int heapSize, float metric) {
+        int index = 0;
+        while (2 * index + 1 < heapSize) {
+            int child = 2 * index + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child])
+                child++;
+            if (heap[child] >= metric)
+                break;
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = metric;
+    }
+
+    private static boolean isNonZero(RawMatrix matrix, int i, int j) {
+        for (int k = 0; k < matrix.getWeightsCount(); k++)
+            if (matrix.get(i, j, k) != 0)
+                return true;
+        return false;
+    }
+
+    public int getCellsCount() {
+        return columns.length;
+    }
+
+    public int getRowStart(int i) {
+        return rowStarts[i];
+    }
+
+    public int getColumn(int cell) {
+        return columns[cell];
+    }
+
+    void setColumn(int cell, int j) {
+        columns[cell] = j;
+    }
+
+    public float getValueAt(int cell, int k) {
+        return values[k][cell];
+    }
+
+    void setValueAt(int cell, int k, float value) {
+        values[k][cell] = value;
+    }
+
+    public float getWeightedAt(int cell, float[] weights) {
+        float metric = 0;
+        for (int k = 0; k < weights.length; k++)
+            metric += values[k][cell] * weights[k] / 100;
+        return metric;
+    }
+
+    // -1 when the cell is not stored
+    private int findCell(int i, int j) {
+        int cell = Arrays.binarySearch(columns, rowStarts[i], rowStarts[i + 1], j);
+        return cell < 0 ? -1 : cell;
+    }
+
+    @Override
+    public float get(int i, int j, int k) {
+        int cell = findCell(i, j);
+        return cell == -1 ? 0 : values[k][cell];
+    }
+
+    @Override
+    public void set(int i, int j, int k, float value) {
+        int cell = findCell(i, j);
+        if (cell != -1)
+            values[k][cell] = value;
+        else if (value != 0)
+            throw new UnsupportedOperationException("Cells can not be added to a sparse similarity matrix.");
+    }
+
+    @Override
+    public float getWeighted(int i, int j, float[] weights) {
+        int cell = findCell(i, j);
+        return cell == -1 ? 0 : getWeightedAt(cell, weights);
+    }
+}
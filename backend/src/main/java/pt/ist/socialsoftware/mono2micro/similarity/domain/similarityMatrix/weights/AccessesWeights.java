@@ -1,30 +1,44 @@
 package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.weights;
 
-import org.json.JSONException;
+import org.bson.Document;
 import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
-import pt.ist.socialsoftware.mono2micro.functionality.dto.AccessDto;
 import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
 import pt.ist.socialsoftware.mono2micro.recommendation.domain.RecommendMatrixSciPy;
 import pt.ist.socialsoftware.mono2micro.recommendation.domain.Recommendation;
 import pt.ist.socialsoftware.mono2micro.representation.domain.AccessesRepresentation;
 import pt.ist.socialsoftware.mono2micro.similarity.domain.Similarity;
 import pt.ist.socialsoftware.mono2micro.similarity.domain.SimilarityMatrixSciPy;
+import pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.RawMatrix;
+import pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.SimilarityMatrix;
 import pt.ist.socialsoftware.mono2micro.utils.Constants;
+import pt.ist.socialsoftware.mono2micro.utils.EntityFunctionalitiesBitsets;
+import pt.ist.socialsoftware.mono2micro.utils.EntityFunctionalitiesSamples;
+import pt.ist.socialsoftware.mono2micro.utils.EntityPairsCounter;
+import pt.ist.socialsoftware.mono2micro.utils.EntityPairsHeavyHitters;
+import pt.ist.socialsoftware.mono2micro.utils.FunctionalitiesDecoder;
+import pt.ist.socialsoftware.mono2micro.utils.FunctionalitiesSummaries;
+import pt.ist.socialsoftware.mono2micro.utils.FunctionalityTracesIndex;
 import pt.ist.socialsoftware.mono2micro.utils.FunctionalityTracesIterator;
-import pt.ist.socialsoftware.mono2micro.utils.Pair;
+import pt.ist.socialsoftware.mono2micro.utils.MatrixRowsFiller;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
 import java.util.*;
 
 import static pt.ist.socialsoftware.mono2micro.representation.domain.AccessesRepresentation.ACCESSES;
+import static pt.ist.socialsoftware.mono2micro.utils.Constants.SIMILARITY_SEQUENCE_PAIRS_MAX_BYTES;
 
 public class AccessesWeights extends Weights {
     public static final String ACCESSES_WEIGHTS = "ACCESSES_WEIGHTS";
+    private static final String SEQUENCE_ERROR_BOUND = "sequenceErrorBound";
     private float accessMetricWeight;
     private float writeMetricWeight;
     private float readMetricWeight;
     private float sequenceMetricWeight;
+    private float sequenceErrorBound; // of the sequence metric, 0 when every pair of the traces is counted
+    private float approximationError; // standard error of the access, write and read metrics, 0 when they are exact
 
     public AccessesWeights() {}
 
@@ -92,6 +106,18 @@ public class AccessesWeights extends Weights {
     public void setSequenceMetricWeight(float sequenceMetricWeight) {
         this.sequenceMetricWeight = sequenceMetricWeight;
     }
+    public float getSequenceErrorBound() {
+        return sequenceErrorBound;
+    }
+    public void setSequenceErrorBound(float sequenceErrorBound) {
+        this.sequenceErrorBound = sequenceErrorBound;
+    }
+    public float getApproximationError() {
+        return approximationError;
+    }
+    public void setApproximationError(float approximationError) {
+        this.approximationError = approximationError;
+    }
 
     @Override
     public boolean equals(Object object) {
@@ -101,228 +127,552 @@ public class AccessesWeights extends Weights {
         return this.accessMetricWeight == accessesWeights.getAccessMetricWeight() &&
                 this.writeMetricWeight == accessesWeights.getWriteMetricWeight() &&
                 this.readMetricWeight == accessesWeights.getReadMetricWeight() &&
-                this.sequenceMetricWeight == accessesWeights.getSequenceMetricWeight();
+                this.sequenceMetricWeight == accessesWeights.getSequenceMetricWeight() &&
+                this.approximationError == accessesWeights.getApproximationError();
     }
 
+    // The contributions of the profile's functionalities are saved beside the raw matrix, to update it from them later
     @Override
-    public void fillMatrix(GridFsService gridFsService, Similarity similarity, float[][][] rawMatrix, Set<Short> elements, int fillFromIndex) throws IOException, JSONException {
+    public void fillMatrix(GridFsService gridFsService, Similarity similarity, RawMatrix rawMatrix, Set<Short> elements, int fillFromIndex) throws IOException {
         SimilarityMatrixSciPy s = (SimilarityMatrixSciPy) similarity;
         AccessesRepresentation accesses = (AccessesRepresentation) similarity.getStrategy().getCodebase().getRepresentationByFileType(ACCESSES);
-        fillRawMatrixFromAccesses(rawMatrix, fillFromIndex, gridFsService.getFile(accesses.getName()), accesses.getProfile(s.getProfile()), s.getTraceType(), s.getTracesMaxLimit());
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> contributions = getContributions(gridFsService, s, accesses, accesses.getProfile(s.getProfile()));
+        EntityPairsHeavyHitters pairs = countPairs(gridFsService, accesses, contributions, s.getTraceType(), s.getTracesMaxLimit());
+
+        sequenceErrorBound = fillRawMatrix(rawMatrix, fillFromIndex, contributions, pairs, approximationError, null, null, null);
+        saveContributions(gridFsService, s, contributions);
     }
 
     @Override
-    public void fillMatrix(GridFsService gridFsService, Recommendation recommendation, float[][][] rawMatrix, Set<Short> elements, int fillFromIndex) throws IOException, JSONException {
+    public void fillMatrix(GridFsService gridFsService, Recommendation recommendation, RawMatrix rawMatrix, Set<Short> elements, int fillFromIndex) throws IOException {
         RecommendMatrixSciPy r = (RecommendMatrixSciPy) recommendation;
         AccessesRepresentation accesses = (AccessesRepresentation) recommendation.getStrategy().getCodebase().getRepresentationByFileType(ACCESSES);
-        fillRawMatrixFromAccesses(rawMatrix, fillFromIndex, gridFsService.getFile(accesses.getName()), accesses.getProfile(r.getProfile()), r.getTraceType(), r.getTracesMaxLimit());
+        fillRawMatrixFromAccesses(rawMatrix, fillFromIndex, gridFsService, accesses, accesses.getProfile(r.getProfile()), r.getTraceType(), r.getTracesMaxLimit());
     }
 
-    public static void fillRawMatrixFromAccesses(
-            float[][][] rawMatrix,
-            int fillFromIndex,
-            InputStream accessesFile,
-            Set<String> profileFunctionalities,
-            Constants.TraceType traceType,
-            int tracesMaxLimit
-    ) throws JSONException, IOException {
-        Set<Short> entities = new TreeSet<>();
-        Map<String, Integer> e1e2PairCount = new HashMap<>();
-        Map<Short, List<Pair<String, Byte>>> entityFunctionalities = new HashMap<>(); // Map<entityID, List<Pair<functionalityName, accessMode>>>
-        fillDataStructures(entities, e1e2PairCount, entityFunctionalities, new FunctionalityTracesIterator(accessesFile, tracesMaxLimit), profileFunctionalities, traceType);
-        fillRawMatrix(rawMatrix, entities, e1e2PairCount, entityFunctionalities, fillFromIndex);
+    @Override
+    public void addInputsToDigest(GridFsService gridFsService, MessageDigest digest, Similarity similarity) throws IOException {
+        SimilarityMatrixSciPy s = (SimilarityMatrixSciPy) similarity;
+        AccessesRepresentation accesses = (AccessesRepresentation) similarity.getStrategy().getCodebase().getRepresentationByFileType(ACCESSES);
+
+        StringBuilder inputs = new StringBuilder(accesses.getName())
+                .append('\n').append(gridFsService.getFileId(accesses.getName()))
+                .append('\n').append(s.getTraceType())
+                .append('\n').append(s.getTracesMaxLimit());
+        for (String functionalityName : new TreeSet<>(accesses.getProfile(s.getProfile())))
+            inputs.append('\n').append(functionalityName);
+        inputs.append('\n').append(approximationError)
+                .append('\n').append(SIMILARITY_SEQUENCE_PAIRS_MAX_BYTES);
+        digest.update(inputs.toString().getBytes(StandardCharsets.UTF_8));
     }
 
-    public static void fillDataStructures(
-            Set<Short> entities,
-            Map<String, Integer> e1e2PairCount,
-            Map<Short, List<Pair<String, Byte>>> entityFunctionalities,
-            FunctionalityTracesIterator iter,
-            Set<String> profileFunctionalities,
-            Constants.TraceType traceType
-    )
-            throws JSONException {
-        System.out.println("Creating similarity matrix...");
+    // The base's values are only kept when they are approximated the same way
+    @Override
+    public boolean canUpdateMatrix(Similarity similarity, Similarity baseSimilarity) {
+        SimilarityMatrixSciPy s = (SimilarityMatrixSciPy) similarity;
+        SimilarityMatrixSciPy b = (SimilarityMatrixSciPy) baseSimilarity;
+        return s.getTraceType() == b.getTraceType() && s.getTracesMaxLimit() == b.getTracesMaxLimit() &&
+                b.getSimilarityMatrix().getWeightsList().stream().anyMatch(weights ->
+                        weights instanceof AccessesWeights && ((AccessesWeights) weights).getApproximationError() == approximationError);
+    }
 
-        TraceDto t;
+    /*
+     * Only the functionalities added to the base's profile are summarised. The rows of the entities accessed by the
+     * functionalities added or removed are computed again, the others keep the base's values, their functionalities being
+     * the same, but for the sequence metric, whose maximum number of pairs may have changed. Approximate values would be
+     * the same too, but their rows are cheaper to estimate than to copy. The base's contributions need their pairs when
+     * every pair is counted.
+     */
+    @Override
+    public void updateMatrix(GridFsService gridFsService, Similarity similarity, RawMatrix rawMatrix, Set<Short> elements, int fillFromIndex, Similarity baseSimilarity, RawMatrix baseRawMatrix) throws IOException {
+        SimilarityMatrixSciPy s = (SimilarityMatrixSciPy) similarity;
+        SimilarityMatrixSciPy b = (SimilarityMatrixSciPy) baseSimilarity;
+        AccessesRepresentation accesses = (AccessesRepresentation) similarity.getStrategy().getCodebase().getRepresentationByFileType(ACCESSES);
 
-        for (String functionalityName : profileFunctionalities) {
-            iter.getFunctionalityWithName(functionalityName);
+        FunctionalitiesSummaries baseSummaries;
+        try {
+            baseSummaries = FunctionalitiesSummaries.fromJSON(gridFsService.getFile(b.getSimilarityMatrix().getWeightsFileName(this)));
+        } catch (NoSuchFileException e) { // saved before contributions were kept
+            fillMatrix(gridFsService, similarity, rawMatrix, elements, fillFromIndex);
+            return;
+        }
+        if (isCountingEveryPair() && !baseSummaries.isWithPairs()) {
+            fillMatrix(gridFsService, similarity, rawMatrix, elements, fillFromIndex);
+            return;
+        }
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> baseContributions = withPairsIfCounted(baseSummaries.getSummaries(b.getTraceType()));
+
+        Set<String> profileFunctionalities = accesses.getProfile(s.getProfile());
+        Set<String> addedFunctionalities = new HashSet<>(profileFunctionalities);
+        addedFunctionalities.removeAll(baseContributions.keySet());
+
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> contributions = new LinkedHashMap<>();
+        boolean[] changedEntities = new boolean[1 << 16];
+        for (Map.Entry<String, FunctionalitiesSummaries.FunctionalitySummary> entry : baseContributions.entrySet()) {
+            if (profileFunctionalities.contains(entry.getKey()))
+                contributions.put(entry.getKey(), entry.getValue());
+            else for (short entityID : entry.getValue().getEntities())
+                changedEntities[entityID & 0xFFFF] = true;
+        }
+        if (!addedFunctionalities.isEmpty()) {
+            for (Map.Entry<String, FunctionalitiesSummaries.FunctionalitySummary> entry : getContributions(gridFsService, s, accesses, addedFunctionalities).entrySet()) {
+                contributions.put(entry.getKey(), entry.getValue());
+                for (short entityID : entry.getValue().getEntities())
+                    changedEntities[entityID & 0xFFFF] = true;
+            }
+        }
 
-            switch (traceType) {
-                case LONGEST:
-                    t = iter.getLongestTrace();
+        // The base's rows are the entities its functionalities access, in ascending order
+        Set<Short> baseEntities = new TreeSet<>();
+        for (FunctionalitiesSummaries.FunctionalitySummary summary : baseContributions.values())
+            for (short entityID : summary.getEntities())
+                baseEntities.add(entityID);
+        int[] baseIndexes = new int[1 << 16];
+        Arrays.fill(baseIndexes, -1);
+        int index = 0;
+        for (short entityID : baseEntities)
+            baseIndexes[entityID & 0xFFFF] = index++;
+
+        EntityPairsHeavyHitters pairs = countPairs(gridFsService, accesses, contributions, s.getTraceType(), s.getTracesMaxLimit());
+        sequenceErrorBound = fillRawMatrix(rawMatrix, fillFromIndex, contributions, pairs, approximationError, baseRawMatrix, baseIndexes, changedEntities);
+        saveContributions(gridFsService, s, contributions);
+    }
 
-                    if (t != null)
-                        fillEntityDataStructures(e1e2PairCount, entityFunctionalities, t.expand(2), functionalityName);
+    // The error bound of the sequence metric is kept with the contributions
+    @Override
+    public void reuseMatrix(GridFsService gridFsService, SimilarityMatrix similarityMatrix) throws IOException {
+        try {
+            Document metadata = gridFsService.getFileMetadata(similarityMatrix.getWeightsFileName(this));
+            sequenceErrorBound = metadata == null ? 0 : metadata.getDouble(SEQUENCE_ERROR_BOUND).floatValue();
+        } catch (NoSuchFileException e) { // saved before contributions were kept
+            sequenceErrorBound = 0;
+        }
+    }
 
-                    break;
-                case WITH_MORE_DIFFERENT_ACCESSES:
-                    t = iter.getTraceWithMoreDifferentAccesses();
+    /*
+     * Similarities with the same accesses representation and selection of traces are summarised together, each
+     * functionality of their profiles being decoded once, so generating them costs a single pass over the traces
+     */
+    public static void summariseFunctionalities(GridFsService gridFsService, List<SimilarityMatrixSciPy> similarities) throws IOException {
+        Map<String, List<SimilarityMatrixSciPy>> similaritiesByTraces = new LinkedHashMap<>();
+        for (SimilarityMatrixSciPy s : similarities) {
+            AccessesRepresentation accesses = (AccessesRepresentation) s.getStrategy().getCodebase().getRepresentationByFileType(ACCESSES);
+            similaritiesByTraces.computeIfAbsent(accesses.getName() + '\n' + s.getTraceType() + '\n' + s.getTracesMaxLimit(), key -> new ArrayList<>()).add(s);
+        }
 
-                    if (t != null)
-                        fillEntityDataStructures(e1e2PairCount, entityFunctionalities, t.expand(2), functionalityName);
+        for (List<SimilarityMatrixSciPy> sameTracesSimilarities : similaritiesByTraces.values()) {
+            SimilarityMatrixSciPy first = sameTracesSimilarities.get(0);
+            AccessesRepresentation accesses = (AccessesRepresentation) first.getStrategy().getCodebase().getRepresentationByFileType(ACCESSES);
+            Set<String> functionalities = new HashSet<>();
+            for (SimilarityMatrixSciPy s : sameTracesSimilarities)
+                functionalities.addAll(accesses.getProfile(s.getProfile()));
 
-                    break;
-                default:
-                    List<TraceDto> traceDtos = iter.getAllTraces();
-                    for (TraceDto traceDto : traceDtos)
-                        fillEntityDataStructures(e1e2PairCount, entityFunctionalities, traceDto.expand(2), functionalityName);
-            }
+            Map<String, FunctionalitiesSummaries.FunctionalitySummary> summaries = getContributions(gridFsService, accesses, functionalities, first.getTraceType(), first.getTracesMaxLimit());
+            for (SimilarityMatrixSciPy s : sameTracesSimilarities)
+                s.setFunctionalitiesSummaries(summaries);
         }
+    }
+
+    // Taken from the summaries of the similarity's batch when it has them
+    private static Map<String, FunctionalitiesSummaries.FunctionalitySummary> getContributions(
+            GridFsService gridFsService,
+            SimilarityMatrixSciPy similarity,
+            AccessesRepresentation accesses,
+            Set<String> functionalities
+    ) throws IOException {
+        if (similarity.getFunctionalitiesSummaries() == null)
+            return getContributions(gridFsService, accesses, functionalities, similarity.getTraceType(), similarity.getTracesMaxLimit());
+
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> contributions = new LinkedHashMap<>();
+        for (Map.Entry<String, FunctionalitiesSummaries.FunctionalitySummary> entry : similarity.getFunctionalitiesSummaries().entrySet())
+            if (functionalities.contains(entry.getKey()))
+                contributions.put(entry.getKey(), entry.getValue());
+        return contributions;
+    }
+
+    private void saveContributions(
+            GridFsService gridFsService,
+            SimilarityMatrixSciPy similarity,
+            Map<String, FunctionalitiesSummaries.FunctionalitySummary> contributions
+    ) throws IOException {
+        if (similarity.getSimilarityMatrix().getRawMatrixName() == null)
+            return;
+
+        FunctionalitiesSummaries functionalitiesSummaries = new FunctionalitiesSummaries();
+        functionalitiesSummaries.setSummaries(Collections.singletonMap(similarity.getTraceType(), contributions));
+        functionalitiesSummaries.setWithPairs(isCountingEveryPair());
+        gridFsService.saveFile(functionalitiesSummaries.toJSON(), similarity.getSimilarityMatrix().getWeightsFileName(this), new Document(SEQUENCE_ERROR_BOUND, (double) sequenceErrorBound));
+    }
 
-        entities.addAll(entityFunctionalities.keySet());
+    public static void fillRawMatrixFromAccesses(
+            RawMatrix rawMatrix,
+            int fillFromIndex,
+            GridFsService gridFsService,
+            AccessesRepresentation accesses,
+            Set<String> profileFunctionalities,
+            Constants.TraceType traceType,
+            int tracesMaxLimit
+    ) throws IOException {
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> contributions = getContributions(gridFsService, accesses, profileFunctionalities, traceType, tracesMaxLimit);
+        EntityPairsHeavyHitters pairs = countPairs(gridFsService, accesses, contributions, traceType, tracesMaxLimit);
+        fillRawMatrix(rawMatrix, fillFromIndex, contributions, pairs, 0, null, null, null);
     }
 
-    private static void fillEntityDataStructures(
-            Map<String, Integer> e1e2PairCount,
-            Map<Short, List<Pair<String, Byte>>> entityFunctionalities,
-            List<AccessDto> accessesList,
-            String functionalityName
+    /*
+     * Summaries of the functionalities, in file order. The summaries computed at upload stand for the functionalities
+     * whose traces are all selected, the ones with no more traces than tracesMaxLimit, samples included. The others are
+     * decoded and summarised concurrently, so a sample of a functionality with more traces than its size reads them all.
+     * The summaries only have their pairs when every pair is counted, see countPairs.
+     */
+    public static Map<String, FunctionalitiesSummaries.FunctionalitySummary> getContributions(
+            GridFsService gridFsService,
+            AccessesRepresentation accesses,
+            Set<String> functionalities,
+            Constants.TraceType traceType,
+            int tracesMaxLimit
+    ) throws IOException {
+        FunctionalityTracesIndex index = accesses.getTracesIndex(gridFsService);
+        Set<String> summarisedFunctionalities = new HashSet<>();
+        if (index != null)
+            for (String functionalityName : functionalities)
+                if (index.getFunctionality(functionalityName) != null &&
+                        (tracesMaxLimit == 0 || index.getFunctionality(functionalityName).getTracesCount() <= tracesMaxLimit))
+                    summarisedFunctionalities.add(functionalityName);
+
+        FunctionalitiesSummaries functionalitiesSummaries = summarisedFunctionalities.isEmpty() ? null : accesses.getFunctionalitiesSummaries(gridFsService);
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> uploadSummaries = functionalitiesSummaries == null ||
+                (isCountingEveryPair() && !functionalitiesSummaries.isWithPairs()) ?
+                Collections.emptyMap() :
+                withPairsIfCounted(functionalitiesSummaries.getSummaries(getSummarisedTraceType(traceType)));
+        summarisedFunctionalities.retainAll(uploadSummaries.keySet());
+
+        Set<String> decodedFunctionalities = new HashSet<>(functionalities);
+        decodedFunctionalities.removeAll(summarisedFunctionalities);
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> decodedSummaries = Collections.emptyMap();
+        if (!decodedFunctionalities.isEmpty()) {
+            System.out.println("Creating similarity matrix...");
+
+            decodedSummaries = FunctionalitiesDecoder.decode(
+                    gridFsService,
+                    accesses,
+                    tracesMaxLimit,
+                    decodedFunctionalities,
+                    (iter, functionalityName) -> summariseFunctionality(iter, traceType)
+            );
+        }
+        if (summarisedFunctionalities.isEmpty())
+            return decodedSummaries;
+
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> contributions = new LinkedHashMap<>();
+        for (String functionalityName : index.getFunctionalitiesNames()) {
+            if (summarisedFunctionalities.contains(functionalityName))
+                contributions.put(functionalityName, uploadSummaries.get(functionalityName));
+            else if (decodedSummaries.containsKey(functionalityName))
+                contributions.put(functionalityName, decodedSummaries.get(functionalityName));
+        }
+        return contributions;
+    }
+
+    // Every trace selected, the samples are the functionality's traces unchanged
+    private static Constants.TraceType getSummarisedTraceType(Constants.TraceType traceType) {
+        switch (traceType) {
+            case LONGEST:
+            case WITH_MORE_DIFFERENT_ACCESSES:
+                return traceType;
+            default:
+                return Constants.TraceType.ALL;
+        }
+    }
+
+    // Summaries of traces saved with their pairs lose them when the pairs are bounded
+    private static Map<String, FunctionalitiesSummaries.FunctionalitySummary> withPairsIfCounted(Map<String, FunctionalitiesSummaries.FunctionalitySummary> summaries) {
+        if (isCountingEveryPair())
+            return summaries;
+
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> summariesWithoutPairs = new LinkedHashMap<>();
+        for (Map.Entry<String, FunctionalitiesSummaries.FunctionalitySummary> entry : summaries.entrySet())
+            summariesWithoutPairs.put(entry.getKey(), entry.getValue().withoutPairs());
+        return summariesWithoutPairs;
+    }
+
+    private static boolean isCountingEveryPair() {
+        return SIMILARITY_SEQUENCE_PAIRS_MAX_BYTES <= 0;
+    }
+
+    // Returns the error bound of the sequence metric
+    private static float fillRawMatrix(
+            RawMatrix rawMatrix,
+            int fillFromIndex,
+            Map<String, FunctionalitiesSummaries.FunctionalitySummary> contributions,
+            EntityPairsHeavyHitters pairs,
+            float approximationError,
+            RawMatrix baseRawMatrix,
+            int[] baseIndexes,
+            boolean[] changedEntities
     ) {
+        Set<Short> entities = new TreeSet<>();
+        EntityPairsCounter e1e2PairCount = pairs.getCounts();
 
-        for (int i = 0; i < accessesList.size(); i++) {
-            AccessDto access = accessesList.get(i);
-            short entityID = access.getEntityID();
-            byte mode = access.getMode();
+        if (approximationError > 0) {
+            for (FunctionalitiesSummaries.FunctionalitySummary summary : contributions.values())
+                for (short entityID : summary.getEntities())
+                    entities.add(entityID);
+            fillRawMatrixApproximately(rawMatrix, entities, e1e2PairCount, contributions, fillFromIndex, approximationError);
+        }
+        else {
+            EntityFunctionalitiesBitsets entityFunctionalities = new EntityFunctionalitiesBitsets();
+            fillDataStructures(entities, entityFunctionalities, contributions, contributions.keySet());
+            fillRawMatrix(rawMatrix, entities, e1e2PairCount, entityFunctionalities, fillFromIndex, baseRawMatrix, baseIndexes, changedEntities);
+        }
 
-            if (entityFunctionalities.containsKey(entityID)) {
-                boolean containsFunctionality = false;
+        if (pairs.getErrorBound() == 0)
+            return 0;
+        return Math.min(1, (float) pairs.getErrorBound() / Math.max(1, e1e2PairCount.getMax()));
+    }
 
-                for (Pair<String, Byte> functionalityPair : entityFunctionalities.get(entityID)) {
-                    if (functionalityPair.getFirst().equals(functionalityName)) {
-                        containsFunctionality = true;
+    /*
+     * Every pair of the traces is counted, from the contributions' summaries, unless similarity.sequence.pairs.max.mb is
+     * set, in which case only the heavy ones are, exactly, the others counting 0, see EntityPairsHeavyHitters. The pairs
+     * are then decoded from the functionalities' traces each time the sketch reads them, in file order, and each
+     * functionality's pairs are dropped once given to it, so only the sketch grows with the number of pairs.
+     */
+    private static EntityPairsHeavyHitters countPairs(
+            GridFsService gridFsService,
+            AccessesRepresentation accesses,
+            Map<String, FunctionalitiesSummaries.FunctionalitySummary> contributions,
+            Constants.TraceType traceType,
+            int tracesMaxLimit
+    ) throws IOException {
+        if (isCountingEveryPair())
+            return EntityPairsHeavyHitters.count(
+                    consumer -> {
+                        for (FunctionalitiesSummaries.FunctionalitySummary summary : contributions.values())
+                            for (int i = 0; i < summary.getPairsCount().length; i++)
+                                consumer.accept(summary.getPairsE1()[i], summary.getPairsE2()[i], summary.getPairsCount()[i]);
+                    },
+                    Integer.MAX_VALUE
+            );
+
+        long maxPairs = SIMILARITY_SEQUENCE_PAIRS_MAX_BYTES / EntityPairsHeavyHitters.BYTES_PER_PAIR;
+        return EntityPairsHeavyHitters.count(
+                consumer -> FunctionalitiesDecoder.forEach(
+                        gridFsService,
+                        accesses,
+                        tracesMaxLimit,
+                        contributions.keySet(),
+                        (iter, functionalityName) -> FunctionalitiesSummaries.countPairs(getSelectedTraces(iter, traceType), isWeightedByFrequency(traceType)),
+                        (functionalityName, functionalityPairs) -> functionalityPairs.forEach(consumer)
+                ),
+                (int) Math.max(2, Math.min(Integer.MAX_VALUE, maxPairs))
+        );
+    }
 
-                        if (functionalityPair.getSecond() != 3 && functionalityPair.getSecond() != mode)
-                            functionalityPair.setSecond((byte) 3); // "RW" -> 3
+    /*
+     * The access, write and read metrics are estimated from samples of the functionalities of each entity, see
+     * EntityFunctionalitiesSamples, so a row costs the accesses of its samples instead of a comparison with every other
+     * entity. The sequence metric is exact, set for the pairs found in traces, the other cells being left at 0.
+     */
+    private static void fillRawMatrixApproximately(
+            RawMatrix rawMatrix,
+            Set<Short> entities,
+            EntityPairsCounter e1e2PairCount,
+            Map<String, FunctionalitiesSummaries.FunctionalitySummary> contributions,
+            int fillFromIndex,
+            float approximationError
+    ) {
+        int maxNumberOfPairs = e1e2PairCount.getMax();
+
+        short[] entitiesIDs = new short[entities.size()];
+        int[] entityIndexes = new int[1 << 16];
+        int index = 0;
+        for (short entityID : entities) {
+            entityIndexes[entityID & 0xFFFF] = index;
+            entitiesIDs[index++] = entityID;
+        }
 
-                        break;
-                    }
-                }
+        EntityFunctionalitiesSamples samples = new EntityFunctionalitiesSamples(entitiesIDs, contributions, EntityFunctionalitiesSamples.getSampleSize(approximationError));
+
+        // Pairs found in traces of each row, as adjacency lists
+        int[] rowStarts = new int[entitiesIDs.length + 1];
+        e1e2PairCount.forEach((e1ID, e2ID, count) -> {
+            rowStarts[entityIndexes[e1ID & 0xFFFF] + 1]++;
+            rowStarts[entityIndexes[e2ID & 0xFFFF] + 1]++;
+        });
+        for (int i = 0; i < entitiesIDs.length; i++)
+            rowStarts[i + 1] += rowStarts[i];
+        int[] pairedEntities = new int[rowStarts[entitiesIDs.length]];
+        float[] sequenceWeights = new float[pairedEntities.length];
+        int[] rowEnds = Arrays.copyOf(rowStarts, entitiesIDs.length);
+        e1e2PairCount.forEach((e1ID, e2ID, count) -> {
+            int i = entityIndexes[e1ID & 0xFFFF];
+            int j = entityIndexes[e2ID & 0xFFFF];
+            float sequenceWeight = calculateSequenceWeight(maxNumberOfPairs, count);
+            sequenceWeights[rowEnds[i]] = sequenceWeight;
+            pairedEntities[rowEnds[i]++] = j;
+            sequenceWeights[rowEnds[j]] = sequenceWeight;
+            pairedEntities[rowEnds[j]++] = i;
+        });
+
+        MatrixRowsFiller.fill("Approximate accesses weights", entitiesIDs.length, i -> {
+            for (int k = fillFromIndex; k < fillFromIndex + 4; k++)
+                rawMatrix.set(i, i, k, 1);
+
+            samples.estimateRow(i, (j, accessWeight, writeWeight, readWeight) -> {
+                rawMatrix.set(i, j, fillFromIndex, accessWeight);
+                rawMatrix.set(i, j, fillFromIndex + 1, writeWeight);
+                rawMatrix.set(i, j, fillFromIndex + 2, readWeight);
+            });
+            for (int p = rowStarts[i]; p < rowStarts[i + 1]; p++)
+                rawMatrix.set(i, pairedEntities[p], fillFromIndex + 3, sequenceWeights[p]);
+        });
+    }
 
-                if (!containsFunctionality) {
-                    entityFunctionalities.get(entityID).add(new Pair<>(functionalityName, mode));
-                }
+    // Pairs and modes are the ones of the traces expanded with at most 2 occurrences, see TraceAnalytics
+    private static FunctionalitiesSummaries.FunctionalitySummary summariseFunctionality(
+            FunctionalityTracesIterator iter,
+            Constants.TraceType traceType
+    ) throws IOException {
+        return FunctionalitiesSummaries.summarise(getSelectedTraces(iter, traceType), isWeightedByFrequency(traceType), isCountingEveryPair());
+    }
 
-            } else {
-                List<Pair<String, Byte>> functionalitiesPairs = new ArrayList<>();
-                functionalitiesPairs.add(new Pair<>(functionalityName, mode));
+    private static List<TraceDto> getSelectedTraces(FunctionalityTracesIterator iter, Constants.TraceType traceType) throws IOException {
+        TraceDto t;
 
-                entityFunctionalities.put(entityID, functionalitiesPairs);
-            }
+        switch (traceType) {
+            case LONGEST:
+                t = iter.getLongestTrace();
+                return t == null ? Collections.emptyList() : Collections.singletonList(t);
+            case WITH_MORE_DIFFERENT_ACCESSES:
+                t = iter.getTraceWithMoreDifferentAccesses();
+                return t == null ? Collections.emptyList() : Collections.singletonList(t);
+            case ALL:
+                return iter.getAllTraces();
+            default:
+                return iter.getSampledTraces(traceType);
+        }
+    }
 
-            if (i < accessesList.size() - 1) {
-                AccessDto nextAccess = accessesList.get(i + 1);
-                short nextEntityID = nextAccess.getEntityID();
+    // Each trace of all the traces, or of a sample of them, stands for its "frequency" identical traces
+    private static boolean isWeightedByFrequency(Constants.TraceType traceType) {
+        return traceType != Constants.TraceType.LONGEST && traceType != Constants.TraceType.WITH_MORE_DIFFERENT_ACCESSES;
+    }
 
-                if (entityID != nextEntityID) {
-                    String e1e2 = entityID + "->" + nextEntityID;
-                    String e2e1 = nextEntityID + "->" + entityID;
+    // Merges the accesses of the profile's functionalities' summaries, their pairs are counted by countPairs
+    public static void fillDataStructures(
+            Set<Short> entities,
+            EntityFunctionalitiesBitsets entityFunctionalities,
+            Map<String, FunctionalitiesSummaries.FunctionalitySummary> functionalitiesSummaries,
+            Set<String> profileFunctionalities
+    ) {
+        for (Map.Entry<String, FunctionalitiesSummaries.FunctionalitySummary> entry : functionalitiesSummaries.entrySet()) {
+            String functionalityName = entry.getKey();
+            if (!profileFunctionalities.contains(functionalityName))
+                continue;
 
-                    int count = e1e2PairCount.getOrDefault(e1e2, 0);
-                    e1e2PairCount.put(e1e2, count + 1);
+            FunctionalitiesSummaries.FunctionalitySummary summary = entry.getValue();
 
-                    count = e1e2PairCount.getOrDefault(e2e1, 0);
-                    e1e2PairCount.put(e2e1, count + 1);
-                }
-            }
+            int functionalityIndex = entityFunctionalities.addFunctionality(functionalityName);
+            for (int i = 0; i < summary.getEntities().length; i++)
+                entityFunctionalities.addAccess(summary.getEntities()[i], functionalityIndex, summary.getModes()[i]);
         }
+
+        entities.addAll(entityFunctionalities.getEntities());
     }
 
     public static void fillRawMatrix(
-            float[][][] rawMatrix,
+            RawMatrix rawMatrix,
             Set<Short> entities,
-            Map<String, Integer> e1e2PairCount,
-            Map<Short, List<Pair<String, Byte>>> entityFunctionalities,
+            EntityPairsCounter e1e2PairCount,
+            EntityFunctionalitiesBitsets entityFunctionalities,
             int fillFromIndex
     ) {
-        int maxNumberOfPairs = getMaxNumberOfPairs(e1e2PairCount);
+        fillRawMatrix(rawMatrix, entities, e1e2PairCount, entityFunctionalities, fillFromIndex, null, null, null);
+    }
+
+    // Rows of entities not changed and in the base matrix, at their base index, copy the base's metrics but the sequence one
+    private static void fillRawMatrix(
+            RawMatrix rawMatrix,
+            Set<Short> entities,
+            EntityPairsCounter e1e2PairCount,
+            EntityFunctionalitiesBitsets entityFunctionalities,
+            int fillFromIndex,
+            RawMatrix baseRawMatrix,
+            int[] baseIndexes,
+            boolean[] changedEntities
+    ) {
+        int maxNumberOfPairs = e1e2PairCount.getMax();
+
+        short[] entitiesIDs = new short[entities.size()];
+        int index = 0;
+        for (short entityID : entities)
+            entitiesIDs[index++] = entityID;
 
-        int i = 0;
-        for (short e1ID : entities) {
-            int j = 0;
+        // Dense counts are read in the same order as the matrix is filled, falls back to the table when too big
+        int[] pairCounts = e1e2PairCount.toDenseMatrix(entitiesIDs);
+
+        EntityFunctionalitiesBitsets.EntityBitsets[] entitiesBitsets = new EntityFunctionalitiesBitsets.EntityBitsets[entitiesIDs.length];
+        for (int i = 0; i < entitiesIDs.length; i++)
+            entitiesBitsets[i] = entityFunctionalities.getBitsets(entitiesIDs[i]);
+
+        MatrixRowsFiller.fill("Accesses weights", entitiesIDs.length, i -> {
+            short e1ID = entitiesIDs[i];
+            int baseI = baseRawMatrix == null || changedEntities[e1ID & 0xFFFF] ? -1 : baseIndexes[e1ID & 0xFFFF];
+
+            for (int j = 0; j < entitiesIDs.length; j++) {
+                short e2ID = entitiesIDs[j];
 
-            for (short e2ID : entities) {
                 if (e1ID == e2ID) {
                     for (int k = fillFromIndex; k < fillFromIndex + 4; k++)
-                        rawMatrix[i][j][k] = 1;
-                    j++;
+                        rawMatrix.set(i, j, k, 1);
+                    continue;
+                }
+
+                int e1e2Count = pairCounts != null ? pairCounts[i * entitiesIDs.length + j] : e1e2PairCount.get(e1ID, e2ID);
+
+                int baseJ = baseI == -1 ? -1 : baseIndexes[e2ID & 0xFFFF];
+                if (baseJ != -1) {
+                    for (int k = fillFromIndex; k < fillFromIndex + 3; k++)
+                        rawMatrix.set(i, j, k, baseRawMatrix.get(baseI, baseJ, k));
+                    rawMatrix.set(i, j, fillFromIndex + 3, calculateSequenceWeight(maxNumberOfPairs, e1e2Count));
                     continue;
                 }
 
-                float[] weights = calculateSimilarityMatrixWeights(e1ID, e2ID, maxNumberOfPairs, e1e2PairCount, entityFunctionalities);
+                float[] weights = calculateSimilarityMatrixWeights(entitiesBitsets[i], entitiesBitsets[j], maxNumberOfPairs, e1e2Count);
 
                 for (int k = fillFromIndex, l = 0; k < fillFromIndex + 4; k++, l++)
-                    rawMatrix[i][j][k] = weights[l];
-                j++;
+                    rawMatrix.set(i, j, k, weights[l]);
             }
-            i++;
-        }
-    }
-
-    private static int getMaxNumberOfPairs(Map<String,Integer> e1e2PairCount) {
-        if (!e1e2PairCount.values().isEmpty())
-            return Collections.max(e1e2PairCount.values());
-        else
-            return 0;
+        });
     }
 
     private static float[] calculateSimilarityMatrixWeights(
-            short e1ID,
-            short e2ID,
+            EntityFunctionalitiesBitsets.EntityBitsets e1Functionalities,
+            EntityFunctionalitiesBitsets.EntityBitsets e2Functionalities,
             int maxNumberOfPairs,
-            Map<String, Integer> e1e2PairCount,
-            Map<Short, List<Pair<String, Byte>>> entityFunctionalities
+            int e1e2Count
     ) {
+        float inCommon = e1Functionalities.countCommonAccesses(e2Functionalities);
+        float inCommonW = e1Functionalities.countCommonWrites(e2Functionalities); // "W" or "RW" in both
+        float inCommonR = e1Functionalities.countCommonReads(e2Functionalities); // "R" or "RW" in both
+        float e1FunctionalitiesW = e1Functionalities.getWritesCount();
+        float e1FunctionalitiesR = e1Functionalities.getReadsCount();
 
-        float inCommon = 0;
-        float inCommonW = 0;
-        float inCommonR = 0;
-        float e1FunctionalitiesW = 0;
-        float e1FunctionalitiesR = 0;
-
-        for (Pair<String, Byte> e1Functionalities : entityFunctionalities.get(e1ID)) {
-            for (Pair<String, Byte> e2Functionalities : entityFunctionalities.get(e2ID)) {
-                if (e1Functionalities.getFirst().equals(e2Functionalities.getFirst())) {
-                    inCommon++;
-                    // != 1 == contains("W") -> "W" or "RW"
-                    if (e1Functionalities.getSecond() != 1 && e2Functionalities.getSecond() != 1)
-                        inCommonW++;
-
-                    // != 2 == contains("R") -> "R" or "RW"
-                    if (e1Functionalities.getSecond() != 2 && e2Functionalities.getSecond() != 2)
-                        inCommonR++;
-                }
-            }
-
-            // != 1 == contains("W") -> "W" or "RW"
-            if (e1Functionalities.getSecond() != 1)
-                e1FunctionalitiesW++;
-
-            // != 2 == contains("R") -> "R" or "RW"
-            if (e1Functionalities.getSecond() != 2)
-                e1FunctionalitiesR++;
-        }
-
-        float accessWeight = inCommon / entityFunctionalities.get(e1ID).size();
+        float accessWeight = inCommon / e1Functionalities.getAccessesCount();
         float writeWeight = e1FunctionalitiesW == 0 ? 0 : inCommonW / e1FunctionalitiesW;
         float readWeight = e1FunctionalitiesR == 0 ? 0 : inCommonR / e1FunctionalitiesR;
 
-        String e1e2 = e1ID + "->" + e2ID;
-        float e1e2Count = e1e2PairCount.getOrDefault(e1e2, 0);
-
-        float sequenceWeight;
-
-        if (maxNumberOfPairs != 0)
-            sequenceWeight = e1e2Count / maxNumberOfPairs;
-        else // nao ha controladores a aceder a mais do que uma entidade
-            sequenceWeight = 0;
-
         return new float[] {
                 accessWeight,
                 writeWeight,
                 readWeight,
-                sequenceWeight
+                calculateSequenceWeight(maxNumberOfPairs, e1e2Count)
         };
     }
+
+    private static float calculateSequenceWeight(int maxNumberOfPairs, int e1e2Count) {
+        if (maxNumberOfPairs != 0)
+            return (float) e1e2Count / maxNumberOfPairs;
+        else // nao ha controladores a aceder a mais do que uma entidade
+            return 0;
+    }
 }
@@ -5,8 +5,12 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
 import pt.ist.socialsoftware.mono2micro.recommendation.domain.Recommendation;
 import pt.ist.socialsoftware.mono2micro.similarity.domain.Similarity;
+import pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.RawMatrix;
+import pt.ist.socialsoftware.mono2micro.utils.MatrixRowsFiller;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.*;
 
 import static pt.ist.socialsoftware.mono2micro.representation.domain.AuthorRepresentation.AUTHOR;
@@ -78,46 +82,73 @@ public class RepositoryWeights extends Weights {
     }
 
     @Override
-    public void fillMatrix(GridFsService gridFsService, Similarity similarity, float[][][] rawMatrix, Set<Short> elements, int fillFromIndex) throws IOException {
+    public void fillMatrix(GridFsService gridFsService, Similarity similarity, RawMatrix rawMatrix, Set<Short> elements, int fillFromIndex) throws IOException {
         fillRawMatrix(rawMatrix, elements, fillFromIndex,
                 new ObjectMapper().readValue(gridFsService.getFileAsString(similarity.getStrategy().getCodebase().getRepresentationByFileType(AUTHOR).getName()), new TypeReference<Map<Short, ArrayList<String>>>() {}),
                 new ObjectMapper().readValue(gridFsService.getFileAsString(similarity.getStrategy().getCodebase().getRepresentationByFileType(COMMIT).getName()), new TypeReference<Map<String, Map<String, Integer>>>() {}));
     }
 
     @Override
-    public void fillMatrix(GridFsService gridFsService, Recommendation recommendation, float[][][] rawMatrix, Set<Short> elements, int fillFromIndex) throws IOException {
+    public void fillMatrix(GridFsService gridFsService, Recommendation recommendation, RawMatrix rawMatrix, Set<Short> elements, int fillFromIndex) throws IOException {
         fillRawMatrix(rawMatrix, elements, fillFromIndex,
                 new ObjectMapper().readValue(gridFsService.getFileAsString(recommendation.getStrategy().getCodebase().getRepresentationByFileType(AUTHOR).getName()), new TypeReference<Map<Short, ArrayList<String>>>() {}),
                 new ObjectMapper().readValue(gridFsService.getFileAsString(recommendation.getStrategy().getCodebase().getRepresentationByFileType(COMMIT).getName()), new TypeReference<Map<String, Map<String, Integer>>>() {}));
     }
 
+    @Override
+    public void addInputsToDigest(GridFsService gridFsService, MessageDigest digest, Similarity similarity) throws IOException {
+        String authorName = similarity.getStrategy().getCodebase().getRepresentationByFileType(AUTHOR).getName();
+        String commitName = similarity.getStrategy().getCodebase().getRepresentationByFileType(COMMIT).getName();
+        String inputs = authorName + '\n' + gridFsService.getFileId(authorName) + '\n' +
+                commitName + '\n' + gridFsService.getFileId(commitName);
+        digest.update(inputs.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The author and commit representations are the codebase's, the same for every similarity
+    @Override
+    public boolean canUpdateMatrix(Similarity similarity, Similarity baseSimilarity) {
+        return true;
+    }
+
+    @Override
+    public void updateMatrix(GridFsService gridFsService, Similarity similarity, RawMatrix rawMatrix, Set<Short> elements, int fillFromIndex, Similarity baseSimilarity, RawMatrix baseRawMatrix) {
+        MatrixRowsFiller.fill("Repository weights", elements.size(), i -> {
+            for (int j = 0; j < elements.size(); j++)
+                for (int k = fillFromIndex; k < fillFromIndex + 2; k++)
+                    rawMatrix.set(i, j, k, baseRawMatrix.get(i, j, k));
+        });
+    }
+
     public void fillRawMatrix(
-            float[][][] rawMatrix,
+            RawMatrix rawMatrix,
             Set<Short> entities,
             int fillFromIndex,
             HashMap<Short, ArrayList<String>> authorChanges,
             HashMap<String, Map<String, Integer>> commitChanges
     ) {
-        int i = 0;
-        for (short e1ID : entities) {
-            int j = 0;
+        short[] entitiesIDs = new short[entities.size()];
+        int index = 0;
+        for (short entityID : entities)
+            entitiesIDs[index++] = entityID;
+
+        MatrixRowsFiller.fill("Repository weights", entitiesIDs.length, i -> {
+            short e1ID = entitiesIDs[i];
+
+            for (int j = 0; j < entitiesIDs.length; j++) {
+                short e2ID = entitiesIDs[j];
 
-            for (short e2ID : entities) {
                 if (e1ID == e2ID) {
                     for (int k = fillFromIndex; k < fillFromIndex + 2; k++)
-                        rawMatrix[i][j][k] = 1;
-                    j++;
+                        rawMatrix.set(i, j, k, 1);
                     continue;
                 }
 
                 float[] metrics = calculateSimilarityMatrixCommitMetrics(e1ID, e2ID, commitChanges, authorChanges);
 
                 for (int k = fillFromIndex, l = 0; k < fillFromIndex + 2; k++, l++)
-                    rawMatrix[i][j][k] = metrics[l];
-                j++;
+                    rawMatrix.set(i, j, k, metrics[l]);
             }
-            i++;
-        }
+        });
     }
 
     public float[] calculateSimilarityMatrixCommitMetrics(
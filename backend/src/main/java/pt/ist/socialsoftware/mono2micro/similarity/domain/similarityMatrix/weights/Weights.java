@@ -5,7 +5,11 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
 import pt.ist.socialsoftware.mono2micro.recommendation.domain.Recommendation;
 import pt.ist.socialsoftware.mono2micro.similarity.domain.Similarity;
+import pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.RawMatrix;
+import pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.SimilarityMatrix;
 
+import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.List;
 import java.util.Set;
 
@@ -26,8 +30,17 @@ public abstract class Weights {
     public abstract List<String> getWeightsNames();
 
     public abstract void setWeightsFromArray(float[] weightsArray);
-    public abstract void fillMatrix(GridFsService gridFsService, Similarity similarity, float[][][] rawMatrix, Set<Short> elements, int fillFromIndex) throws Exception;
-    public abstract void fillMatrix(GridFsService gridFsService, Recommendation recommendation, float[][][] rawMatrix, Set<Short> elements, int fillFromIndex) throws Exception;
+    public abstract void fillMatrix(GridFsService gridFsService, Similarity similarity, RawMatrix rawMatrix, Set<Short> elements, int fillFromIndex) throws Exception;
+    public abstract void fillMatrix(GridFsService gridFsService, Recommendation recommendation, RawMatrix rawMatrix, Set<Short> elements, int fillFromIndex) throws Exception;
+    // Adds the inputs fillMatrix reads, other than the weights, so similarities with the same digest share their matrix.
+    // Files are identified by their content's ID, not their name, since a representation can be uploaded again
+    public abstract void addInputsToDigest(GridFsService gridFsService, MessageDigest digest, Similarity similarity) throws IOException;
+    // Whether the weights' values can be updated from the raw matrix of baseSimilarity, which has the same types of weights
+    public abstract boolean canUpdateMatrix(Similarity similarity, Similarity baseSimilarity);
+    // Fills the weights' values from the ones of baseRawMatrix, only computing again the ones whose inputs changed
+    public abstract void updateMatrix(GridFsService gridFsService, Similarity similarity, RawMatrix rawMatrix, Set<Short> elements, int fillFromIndex, Similarity baseSimilarity, RawMatrix baseRawMatrix) throws Exception;
+    // Called instead of filling the weights' values when the similarity reuses a raw matrix filled for another one
+    public void reuseMatrix(GridFsService gridFsService, SimilarityMatrix similarityMatrix) throws Exception {}
     @Override
     public abstract boolean equals(Object object);
 }
@@ -15,6 +15,7 @@ public class SimilarityMatrixSciPyDto extends SimilarityDto {
     private int tracesMaxLimit;
     private Constants.TraceType traceType;
     private String profile;
+    private int neighboursCount;
 
     public SimilarityMatrixSciPyDto() { this.type = SIMILARITY_MATRIX_SCIPY; }
 
@@ -28,6 +29,7 @@ public class SimilarityMatrixSciPyDto extends SimilarityDto {
         this.linkageType = similarity.getLinkageType();
         this.tracesMaxLimit = similarity.getTracesMaxLimit();
         this.traceType = similarity.getTraceType();
+        this.neighboursCount = similarity.getSimilarityMatrix().getNeighboursCount();
     }
 
     public SimilarityMatrixSciPyDto(RecommendMatrixSciPy recommend, List<Weights> weightsList) {
@@ -72,6 +74,14 @@ public class SimilarityMatrixSciPyDto extends SimilarityDto {
         this.traceType = traceType;
     }
 
+    public int getNeighboursCount() {
+        return neighboursCount;
+    }
+
+    public void setNeighboursCount(int neighboursCount) {
+        this.neighboursCount = neighboursCount;
+    }
+
     public String getLinkageType() {
         return linkageType;
     }
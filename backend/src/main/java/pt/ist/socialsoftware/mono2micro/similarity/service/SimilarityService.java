@@ -8,6 +8,7 @@ import pt.ist.socialsoftware.mono2micro.decomposition.service.DecompositionServi
 import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
 import pt.ist.socialsoftware.mono2micro.similarity.domain.Similarity;
 import pt.ist.socialsoftware.mono2micro.similarity.domain.SimilarityFactory;
+import pt.ist.socialsoftware.mono2micro.similarity.domain.SimilarityMatrixSciPy;
 import pt.ist.socialsoftware.mono2micro.similarity.dto.SimilarityDto;
 import pt.ist.socialsoftware.mono2micro.similarity.repository.SimilarityRepository;
 import pt.ist.socialsoftware.mono2micro.strategy.domain.Strategy;
@@ -15,7 +16,10 @@ import pt.ist.socialsoftware.mono2micro.strategy.repository.StrategyRepository;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class SimilarityService {
@@ -43,6 +47,46 @@ public class SimilarityService {
         strategyRepository.save(strategy);
     }
 
+    /*
+     * The traces of the functionalities of the similarities' profiles are decoded once for all of them. Every strategy
+     * must exist, and a similarity equal to an existing one or to one before it in the batch is skipped. Nothing is saved
+     * until every similarity is generated, the files of the ones already generated are removed if one fails.
+     */
+    public void createSimilarities(List<SimilarityDto> similarityDtos) throws Exception {
+        Map<String, Strategy> strategies = new LinkedHashMap<>();
+        for (SimilarityDto similarityDto : similarityDtos) {
+            Strategy strategy = strategyRepository.findByName(similarityDto.getStrategyName());
+            if (strategy == null)
+                throw new RuntimeException("No strategy " + similarityDto.getStrategyName() + " found.");
+            strategies.putIfAbsent(strategy.getName(), strategy);
+        }
+
+        List<Similarity> similarities = new ArrayList<>();
+        for (SimilarityDto similarityDto : similarityDtos) {
+            Strategy strategy = strategies.get(similarityDto.getStrategyName());
+            if (strategy.getSimilarities().stream().anyMatch(similarity -> similarity.equalsDto(similarityDto)) ||
+                    similarities.stream().anyMatch(similarity -> similarity.equalsDto(similarityDto)))
+                continue;
+            similarities.add(SimilarityFactory.getSimilarity(strategy, similarityDto));
+        }
+
+        SimilarityMatrixSciPy.summariseFunctionalities(similarities);
+        List<Similarity> generatedSimilarities = new ArrayList<>();
+        try {
+            for (Similarity similarity : similarities) {
+                similarity.generate();
+                generatedSimilarities.add(similarity);
+            }
+        } catch (Exception e) {
+            for (Similarity similarity : generatedSimilarities)
+                similarity.removeProperties();
+            throw e;
+        }
+
+        similarityRepository.saveAll(similarities);
+        strategyRepository.saveAll(strategies.values());
+    }
+
     public void deleteSingleSimilarity(String similarityName) {
         Similarity similarity = similarityRepository.findByName(similarityName);
 
@@ -77,4 +121,9 @@ public class SimilarityService {
         InputStream inputStream = gridFsService.getFile(similarity.getName() + "_image");
         return IOUtils.toByteArray(inputStream);
     }
+
+    public Map<Short, Map<Short, Float>> getNeighbours(String similarityName) throws IOException {
+        SimilarityMatrixSciPy similarity = (SimilarityMatrixSciPy) similarityRepository.findByName(similarityName);
+        return similarity.getSimilarityMatrix().getNeighbours(gridFsService);
+    }
 }
\ No newline at end of file
@@ -12,6 +12,15 @@ public final class Constants {
 
   public static String SCRIPTS_ADDRESS = (String) context.getBean("scriptsAddress");
   public static String CODEBASES_PATH = (String) context.getBean("codebasesPath");
+  public static boolean ACCESSES_BINARY_ENCODING = (Boolean) context.getBean("accessesBinaryEncoding");
+  public static long TRACES_CACHE_MAX_BYTES = (Long) context.getBean("tracesCacheMaxSizeMB") * 1024 * 1024;
+  public static int TRACES_DECODING_THREADS = (Integer) context.getBean("tracesDecodingThreads");
+  public static int SIMILARITY_MATRIX_THREADS = (Integer) context.getBean("similarityMatrixThreads");
+  public static long SIMILARITY_MATRIX_MAPPED_THRESHOLD_BYTES = (Long) context.getBean("similarityMatrixMappedThresholdMB") * 1024 * 1024;
+  public static double SIMILARITY_MATRIX_SPARSE_MAX_DENSITY = (Double) context.getBean("similarityMatrixSparseMaxDensity");
+  public static boolean SIMILARITY_MATRIX_JSON_FORMAT = context.getBean("similarityMatrixFormat").equals("json");
+  public static double SIMILARITY_MATRIX_NEIGHBOURS_TIES_MIN_SIMILARITY = (Double) context.getBean("similarityMatrixNeighboursTiesMinSimilarity");
+  public static long SIMILARITY_SEQUENCE_PAIRS_MAX_BYTES = (Long) context.getBean("similaritySequencePairsMaxMB") * 1024 * 1024;
   public static String MOJO_RESOURCES_PATH = "src/main/java/pt/ist/socialsoftware/mono2micro/utils/mojoCalculator/" +
           "src/main/resources/";
   public static String STRATEGIES_FOLDER = "/strategies/";
@@ -22,6 +31,10 @@ public final class Constants {
     ALL,
     LONGEST,
     WITH_MORE_DIFFERENT_ACCESSES,
+    // Samples of tracesMaxLimit traces, see TracesSampler
+    RESERVOIR_SAMPLE,
+    FREQUENCY_WEIGHTED_SAMPLE,
+    STRATIFIED_SAMPLE,
   }
 
   enum Mode {
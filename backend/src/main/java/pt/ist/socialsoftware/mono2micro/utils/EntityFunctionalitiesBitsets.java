@@ -0,0 +1,107 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import java.util.*;
+
+/**
+ * Functionalities that access each entity, as dense bitsets over functionality indices: one for any access, one for
+ * reads and one for writes ("RW" sets both). The number of functionalities two entities have in common, overall or
+ * for a given mode, is then an AND and a popcount of their bitsets word by word instead of comparing names.
+ * Functionalities are indexed in the order they are added.
+ */
+public class EntityFunctionalitiesBitsets {
+    private final List<String> functionalitiesNames = new ArrayList<>();
+    private final Map<String, Integer> functionalitiesIndexes = new HashMap<>();
+    private final Map<Short, EntityBitsets> entitiesBitsets = new HashMap<>();
+
+    public EntityFunctionalitiesBitsets() {}
+
+    // Index of the functionality, added if new
+    public int addFunctionality(String functionalityName) {
+        return functionalitiesIndexes.computeIfAbsent(functionalityName, name -> {
+            functionalitiesNames.add(name);
+            return functionalitiesNames.size() - 1;
+        });
+    }
+
+    // Modes of the same entity and functionality are merged, "R" -> 1, "W" -> 2, "RW" -> 3
+    public void addAccess(short entityID, int functionalityIndex, byte mode) {
+        entitiesBitsets.computeIfAbsent(entityID, id -> new EntityBitsets()).add(functionalityIndex, mode);
+    }
+
+    public Set<Short> getEntities() {
+        return entitiesBitsets.keySet();
+    }
+
+    // null when no functionality accesses the entity
+    public EntityBitsets getBitsets(short entityID) {
+        return entitiesBitsets.get(entityID);
+    }
+
+    public int getFunctionalitiesCount() {
+        return functionalitiesNames.size();
+    }
+
+    public String getFunctionalityName(int functionalityIndex) {
+        return functionalitiesNames.get(functionalityIndex);
+    }
+
+    public static int countCommon(long[] bitset1, long[] bitset2) {
+        int count = 0;
+        for (int i = 0, words = Math.min(bitset1.length, bitset2.length); i < words; i++)
+            count += Long.bitCount(bitset1[i] & bitset2[i]);
+        return count;
+    }
+
+    public static class EntityBitsets {
+        private long[] accesses = new long[1];
+        private long[] reads = new long[1];
+        private long[] writes = new long[1];
+        private int accessesCount;
+        private int readsCount;
+        private int writesCount;
+
+        void add(int functionalityIndex, byte mode) {
+            int word = functionalityIndex >>> 6;
+            if (word >= accesses.length) {
+                int words = Math.max(word + 1, accesses.length * 2);
+                accesses = Arrays.copyOf(accesses, words);
+                reads = Arrays.copyOf(reads, words);
+                writes = Arrays.copyOf(writes, words);
+            }
+
+            long bit = 1L << functionalityIndex;
+            if ((accesses[word] & bit) == 0) {
+                accesses[word] |= bit;
+                accessesCount++;
+            }
+            if ((mode & 1) != 0 && (reads[word] & bit) == 0) {
+                reads[word] |= bit;
+                readsCount++;
+            }
+            if ((mode & 2) != 0 && (writes[word] & bit) == 0) {
+                writes[word] |= bit;
+                writesCount++;
+            }
+        }
+
+        public long[] getAccesses() { return accesses; }
+        public long[] getReads() { return reads; }
+        public long[] getWrites() { return writes; }
+
+        public int getAccessesCount() { return accessesCount; }
+        public int getReadsCount() { return readsCount; }
+        public int getWritesCount() { return writesCount; }
+
+        public int countCommonAccesses(EntityBitsets other) {
+            return countCommon(accesses, other.accesses);
+        }
+
+        public int countCommonReads(EntityBitsets other) {
+            return countCommon(reads, other.reads);
+        }
+
+        public int countCommonWrites(EntityBitsets other) {
+            return countCommon(writes, other.writes);
+        }
+    }
+}
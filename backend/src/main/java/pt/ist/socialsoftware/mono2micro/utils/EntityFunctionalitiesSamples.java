@@ -0,0 +1,155 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Samples of the functionalities that access each entity, one for any access, one for reads and one for writes, the
+ * approximate counterpart of EntityFunctionalitiesBitsets. Each sample holds the sampleSize functionalities with the
+ * smallest hashes of their names among the entity's, a uniform sample without replacement that does not depend on the
+ * order functionalities are added in, or all of them when there are no more.
+ * The share of functionalities of entity i that also access entity j, the accesses weights of cell (i, j), is then
+ * estimated as the share of i's sample that accesses j, directly, so estimates are within [0, 1], exact for entities
+ * with no more functionalities than sampleSize and with a standard error of at most 1 / (2 * sqrt(sampleSize)).
+ * A row costs the accesses of the functionalities in its samples instead of a comparison with every other entity.
+ */
+public class EntityFunctionalitiesSamples {
+    private static final int ACCESS = 0;
+    private static final int READ = 1;
+    private static final int WRITE = 2;
+
+    private final int entitiesCount;
+    private final int[] entityIndexes = new int[1 << 16];
+    private final int[][] functionalitiesEntities; // matrix indexes of the entities each functionality accesses
+    private final byte[][] functionalitiesModes;
+    private final int[][][] samples = new int[3][][]; // by mode, the functionalities sampled for each entity
+    private final ThreadLocal<RowCounts> rowCounts;
+
+    @FunctionalInterface
+    public interface RowEstimatesConsumer {
+        void accept(int j, float accessWeight, float writeWeight, float readWeight);
+    }
+
+    // Entities are indexed in the given order, accesses to other entities are ignored
+    public EntityFunctionalitiesSamples(
+            short[] entities,
+            Map<String, FunctionalitiesSummaries.FunctionalitySummary> functionalities,
+            int sampleSize
+    ) {
+        this.entitiesCount = entities.length;
+        Arrays.fill(entityIndexes, -1);
+        for (int i = 0; i < entities.length; i++)
+            entityIndexes[entities[i] & 0xFFFF] = i;
+
+        // Functionalities by ascending hash of their names, ties by name
+        String[] names = functionalities.keySet().toArray(new String[0]);
+        long[] hashes = new long[names.length];
+        Integer[] order = new Integer[names.length];
+        for (int f = 0; f < names.length; f++) {
+            hashes[f] = mix(names[f].hashCode());
+            order[f] = f;
+        }
+        Arrays.sort(order, (f1, f2) -> hashes[f1] != hashes[f2] ? Long.compare(hashes[f1], hashes[f2]) : names[f1].compareTo(names[f2]));
+
+        functionalitiesEntities = new int[names.length][];
+        functionalitiesModes = new byte[names.length][];
+        for (int f = 0; f < names.length; f++) {
+            FunctionalitiesSummaries.FunctionalitySummary summary = functionalities.get(names[order[f]]);
+            functionalitiesEntities[f] = new int[summary.getEntities().length];
+            for (int e = 0; e < summary.getEntities().length; e++)
+                functionalitiesEntities[f][e] = entityIndexes[summary.getEntities()[e] & 0xFFFF];
+            functionalitiesModes[f] = summary.getModes();
+        }
+
+        for (int mode = ACCESS; mode <= WRITE; mode++)
+            samples[mode] = sample(mode, sampleSize);
+        rowCounts = ThreadLocal.withInitial(() -> new RowCounts(entitiesCount));
+    }
+
+    // Smallest sample whose standard error is at most error
+    public static int getSampleSize(double error) {
+        return Math.max(1, (int) Math.ceil(1 / (4 * error * error)));
+    }
+
+    private static boolean hasMode(byte accessMode, int mode) {
+        return mode == ACCESS || (accessMode & mode) != 0; // "R" -> 1, "W" -> 2, "RW" -> 3
+    }
+
+    // Functionalities being in ascending hash order, each entity's sample are the first sampleSize ones accessing it
+    private int[][] sample(int mode, int sampleSize) {
+        int[] counts = new int[entitiesCount];
+        for (int f = 0; f < functionalitiesEntities.length; f++)
+            for (int e = 0; e < functionalitiesEntities[f].length; e++)
+                if (functionalitiesEntities[f][e] != -1 && hasMode(functionalitiesModes[f][e], mode))
+                    counts[functionalitiesEntities[f][e]]++;
+
+        int[][] entitySamples = new int[entitiesCount][];
+        for (int i = 0; i < entitiesCount; i++)
+            entitySamples[i] = new int[Math.min(sampleSize, counts[i])];
+
+        Arrays.fill(counts, 0);
+        for (int f = 0; f < functionalitiesEntities.length; f++) {
+            for (int e = 0; e < functionalitiesEntities[f].length; e++) {
+                int i = functionalitiesEntities[f][e];
+                if (i != -1 && hasMode(functionalitiesModes[f][e], mode) && counts[i] < entitySamples[i].length)
+                    entitySamples[i][counts[i]++] = f;
+            }
+        }
+        return entitySamples;
+    }
+
+    /*
+     * Gives the estimated accesses weights of row i to each entity j != i that shares a functionality of i's samples, the
+     * other cells of the row being 0. Rows can be estimated concurrently.
+     */
+    public void estimateRow(int i, RowEstimatesConsumer consumer) {
+        RowCounts counts = rowCounts.get();
+        for (int mode = ACCESS; mode <= WRITE; mode++) {
+            for (int f : samples[mode][i]) {
+                for (int e = 0; e < functionalitiesEntities[f].length; e++) {
+                    int j = functionalitiesEntities[f][e];
+                    if (j == -1 || j == i || !hasMode(functionalitiesModes[f][e], mode))
+                        continue;
+                    if (counts.counts[ACCESS][j] == 0 && counts.counts[READ][j] == 0 && counts.counts[WRITE][j] == 0)
+                        counts.touched[counts.touchedCount++] = j;
+                    counts.counts[mode][j]++;
+                }
+            }
+        }
+
+        int accessesCount = samples[ACCESS][i].length;
+        int readsCount = samples[READ][i].length;
+        int writesCount = samples[WRITE][i].length;
+        for (int t = 0; t < counts.touchedCount; t++) {
+            int j = counts.touched[t];
+            consumer.accept(
+                    j,
+                    (float) counts.counts[ACCESS][j] / accessesCount,
+                    writesCount == 0 ? 0 : (float) counts.counts[WRITE][j] / writesCount,
+                    readsCount == 0 ? 0 : (float) counts.counts[READ][j] / readsCount
+            );
+            for (int mode = ACCESS; mode <= WRITE; mode++)
+                counts.counts[mode][j] = 0;
+        }
+        counts.touchedCount = 0;
+    }
+
+    // Counts of a row being estimated, by mode, and the entities they are not 0 for
+    private static class RowCounts {
+        private final int[][] counts;
+        private final int[] touched;
+        private int touchedCount = 0;
+
+        private RowCounts(int entitiesCount) {
+            counts = new int[3][entitiesCount];
+            touched = new int[entitiesCount];
+        }
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
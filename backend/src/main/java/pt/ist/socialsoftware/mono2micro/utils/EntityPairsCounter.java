@@ -0,0 +1,157 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import java.util.Arrays;
+
+/**
+ * Counts of unordered pairs of different entities, kept in an open addressing table of primitive arrays whose keys
+ * pack the two entity IDs, so counting and looking up pairs allocates nothing.
+ * toDenseMatrix gives the counts as a dense E*E matrix over a list of entities, which is faster to read when every
+ * pair of entities is visited, as when filling the similarity matrix.
+ */
+public class EntityPairsCounter {
+    private static final int EMPTY = 0; // not a valid key since the two entities of a pair are different
+    private static final int DENSE_MAX_CELLS = 1 << 22;
+
+    private int[] keys;
+    private int[] counts;
+    private int size;
+    private int max;
+
+    @FunctionalInterface
+    public interface PairCountConsumer {
+        void accept(short e1ID, short e2ID, int count);
+    }
+
+    public EntityPairsCounter() {
+        this(64);
+    }
+
+    public EntityPairsCounter(int expectedPairs) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedPairs * 2 - 1)) << 1;
+        this.keys = new int[capacity];
+        this.counts = new int[capacity];
+    }
+
+    public void add(short e1ID, short e2ID, int count) {
+        int key = pairKey(e1ID, e2ID);
+        int slot = findSlot(keys, key);
+
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            size++;
+        }
+        counts[slot] = (int) Math.min(Integer.MAX_VALUE, (long) counts[slot] + count); // saturates
+        max = Math.max(max, counts[slot]);
+
+        if (size * 2 > keys.length)
+            rehash();
+    }
+
+    public int get(short e1ID, short e2ID) {
+        if (e1ID == e2ID)
+            return 0;
+        int slot = findSlot(keys, pairKey(e1ID, e2ID));
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    public boolean contains(short e1ID, short e2ID) {
+        return e1ID != e2ID && keys[findSlot(keys, pairKey(e1ID, e2ID))] != EMPTY;
+    }
+
+    // Highest count of a pair, 0 when there are no pairs
+    public int getMax() {
+        return max;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Visits the pairs by increasing key, with e1ID < e2ID
+    public void forEach(PairCountConsumer consumer) {
+        int[] sortedKeys = new int[size];
+        int i = 0;
+        for (int key : keys)
+            if (key != EMPTY)
+                sortedKeys[i++] = key;
+        Arrays.sort(sortedKeys);
+
+        for (int key : sortedKeys)
+            consumer.accept((short) (key >>> 16), (short) key, counts[findSlot(keys, key)]);
+    }
+
+    // Symmetric matrix whose cell [i * E + j] is the count of entities[i] and entities[j], null when too big
+    public int[] toDenseMatrix(short[] entities) {
+        int entitiesCount = entities.length;
+        if ((long) entitiesCount * entitiesCount > DENSE_MAX_CELLS)
+            return null;
+
+        int[] entityIndex = new int[1 << 16];
+        Arrays.fill(entityIndex, -1);
+        for (int i = 0; i < entitiesCount; i++)
+            entityIndex[entities[i] & 0xFFFF] = i;
+
+        int[] matrix = new int[entitiesCount * entitiesCount];
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] == EMPTY)
+                continue;
+
+            int i = entityIndex[keys[slot] >>> 16];
+            int j = entityIndex[keys[slot] & 0xFFFF];
+            if (i != -1 && j != -1) {
+                matrix[i * entitiesCount + j] = counts[slot];
+                matrix[j * entitiesCount + i] = counts[slot];
+            }
+        }
+        return matrix;
+    }
+
+    private static int pairKey(short e1ID, short e2ID) {
+        return e1ID < e2ID ?
+                (e1ID & 0xFFFF) << 16 | e2ID & 0xFFFF :
+                (e2ID & 0xFFFF) << 16 | e1ID & 0xFFFF;
+    }
+
+    private static int findSlot(int[] keys, int key) {
+        int mask = keys.length - 1;
+        int slot = (key * 0x9E3779B9) >>> 7 & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key)
+            slot = slot + 1 & mask;
+        return slot;
+    }
+
+    // Subtracts amount from every count, the pairs left without count are removed
+    public void subtractFromAll(int amount) {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length];
+        counts = new int[oldKeys.length];
+        size = 0;
+        max = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY || oldCounts[i] <= amount)
+                continue;
+            int slot = findSlot(keys, oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i] - amount;
+            size++;
+            max = Math.max(max, counts[slot]);
+        }
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY)
+                continue;
+            int slot = findSlot(keys, oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i];
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Counts of the pairs of entities seen the most, kept within a bounded number of pairs for when counting every pair of
+ * the traces does not fit in memory. The pairs are read twice. The first pass keeps a Misra-Gries summary, the counter
+ * based sketch space-saving is equivalent to: each time it has more than maxPairs pairs, the count of the pair ranked
+ * maxPairs / 2 is subtracted from every count and the pairs left without count are dropped. Every pair seen more times
+ * than the sum of what was subtracted, at most the total count / (maxPairs / 2 + 1), is still in the summary, and the
+ * second pass counts the pairs in the summary exactly. The other pairs count 0, at most the error bound below their count.
+ * Pairs are counted exactly in a single pass when they all fit, the error bound being 0. The pairs are given by a source
+ * that can be read again, so they need not be held in memory, e.g. decoded from the traces each time.
+ */
+public class EntityPairsHeavyHitters {
+    /*
+     * Peak bytes per pair kept. The summary and the exact counts are EntityPairsCounter tables of an int key and an int
+     * count per slot, 8 bytes, doubled once more than half full, so with at most 4 slots per pair, 32 bytes. Two tables
+     * are held at once when the second pass holds the summary and the exact counts, and when subtracting from the summary
+     * copies it, 64 bytes. Rehashing the summary holds at most 6 slots per pair, which is below.
+     */
+    public static final int BYTES_PER_PAIR = 2 * 4 * 8;
+
+    @FunctionalInterface
+    public interface PairsSource {
+        // Gives the same pairs, in the same order, each time it is called
+        void forEach(EntityPairsCounter.PairCountConsumer consumer) throws IOException;
+    }
+
+    private final EntityPairsCounter counts;
+    private final long errorBound;
+
+    private EntityPairsHeavyHitters(EntityPairsCounter counts, long errorBound) {
+        this.counts = counts;
+        this.errorBound = errorBound;
+    }
+
+    public static EntityPairsHeavyHitters count(PairsSource pairs, int maxPairs) throws IOException {
+        EntityPairsCounter summary = new EntityPairsCounter();
+        long[] subtracted = {0};
+        pairs.forEach((e1ID, e2ID, count) -> {
+            summary.add(e1ID, e2ID, count);
+            if (summary.size() > maxPairs) {
+                int amount = Math.max(1, getCountRanked(summary, maxPairs / 2));
+                summary.subtractFromAll(amount);
+                subtracted[0] += amount;
+            }
+        });
+        if (subtracted[0] == 0)
+            return new EntityPairsHeavyHitters(summary, 0);
+
+        EntityPairsCounter counts = new EntityPairsCounter(summary.size());
+        summary.forEach((e1ID, e2ID, count) -> counts.add(e1ID, e2ID, 0));
+        pairs.forEach((e1ID, e2ID, count) -> {
+            if (counts.contains(e1ID, e2ID))
+                counts.add(e1ID, e2ID, count);
+        });
+        return new EntityPairsHeavyHitters(counts, subtracted[0]);
+    }
+
+    // Count of the pair at the given rank, from 0, by decreasing count
+    private static int getCountRanked(EntityPairsCounter counter, int rank) {
+        int[] counts = new int[counter.size()];
+        int[] i = {0};
+        counter.forEach((e1ID, e2ID, count) -> counts[i[0]++] = count);
+        Arrays.sort(counts);
+        return counts[counts.length - 1 - rank];
+    }
+
+    // Exact counts of the pairs kept
+    public EntityPairsCounter getCounts() {
+        return counts;
+    }
+
+    // Highest count of a pair not kept, 0 when every pair is
+    public long getErrorBound() {
+        return errorBound;
+    }
+}
@@ -0,0 +1,136 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
+import pt.ist.socialsoftware.mono2micro.representation.domain.AccessesRepresentation;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static pt.ist.socialsoftware.mono2micro.utils.Constants.TRACES_DECODING_THREADS;
+
+/**
+ * Decodes functionalities of an accesses representation concurrently on a dedicated pool, whose size is given by
+ * traces.decoding.threads (0 means one thread per core). Each functionality is read by its own iterator sharing the
+ * representation's FunctionalityTracesIndex and the results are returned, or given to a consumer, in file order, so
+ * merging them gives the same result as a sequential decoding.
+ * Representations without index are a single stream, their functionalities are decoded sequentially.
+ */
+public final class FunctionalitiesDecoder {
+    private static ForkJoinPool pool = null;
+
+    private FunctionalitiesDecoder() {}
+
+    @FunctionalInterface
+    public interface FunctionalityDecoder<T> {
+        // The iterator is positioned at the functionality and is not shared with other functionalities
+        T decode(FunctionalityTracesIterator iter, String functionalityName) throws IOException;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null)
+            pool = new ForkJoinPool(TRACES_DECODING_THREADS > 0 ? TRACES_DECODING_THREADS : Runtime.getRuntime().availableProcessors());
+        return pool;
+    }
+
+    @FunctionalInterface
+    public interface ResultConsumer<T> {
+        void accept(String functionalityName, T result) throws IOException;
+    }
+
+    public static <T> Map<String, T> decode(
+            GridFsService gridFsService,
+            AccessesRepresentation representation,
+            int tracesMaxLimit,
+            Set<String> functionalitiesNames,
+            FunctionalityDecoder<T> decoder
+    ) throws IOException {
+        Map<String, T> results = new LinkedHashMap<>(); // in file order
+        forEach(gridFsService, representation, tracesMaxLimit, functionalitiesNames, decoder, results::put);
+        return results;
+    }
+
+    /*
+     * Gives the results to the consumer in file order, on the calling thread, as they are decoded. At most twice as many
+     * functionalities as the pool has threads are decoded ahead of the consumer, so only their results are held at once.
+     */
+    public static <T> void forEach(
+            GridFsService gridFsService,
+            AccessesRepresentation representation,
+            int tracesMaxLimit,
+            Set<String> functionalitiesNames,
+            FunctionalityDecoder<T> decoder,
+            ResultConsumer<T> consumer
+    ) throws IOException {
+        FunctionalityTracesIndex index = representation.getTracesIndex(gridFsService);
+
+        if (index == null) {
+            try (FunctionalityTracesIterator iter = new FunctionalityTracesIterator(gridFsService, representation, tracesMaxLimit)) {
+                Iterator<String> availableFunctionalities = iter.getFunctionalitiesNames();
+                while (availableFunctionalities.hasNext()) {
+                    String functionalityName = availableFunctionalities.next();
+                    if (!functionalitiesNames.contains(functionalityName))
+                        continue;
+
+                    iter.getFunctionalityWithName(functionalityName);
+                    consumer.accept(functionalityName, decoder.decode(iter, functionalityName));
+                }
+            }
+            return;
+        }
+
+        ForkJoinPool pool = getPool();
+        int maxPendingTasks = 2 * pool.getParallelism();
+        Deque<String> names = new ArrayDeque<>();
+        Deque<ForkJoinTask<T>> tasks = new ArrayDeque<>();
+        try {
+            for (String functionalityName : index.getFunctionalitiesNames()) {
+                if (!functionalitiesNames.contains(functionalityName))
+                    continue;
+
+                names.add(functionalityName);
+                tasks.add(pool.submit(() -> {
+                    try (FunctionalityTracesIterator iter = new FunctionalityTracesIterator(gridFsService, representation, index, tracesMaxLimit)) {
+                        iter.getFunctionalityWithName(functionalityName);
+                        return decoder.decode(iter, functionalityName);
+                    }
+                }));
+                if (tasks.size() == maxPendingTasks)
+                    consumer.accept(names.remove(), getResult(representation, tasks.remove()));
+            }
+            while (!tasks.isEmpty())
+                consumer.accept(names.remove(), getResult(representation, tasks.remove()));
+
+        } finally {
+            for (ForkJoinTask<T> task : tasks)
+                task.cancel(false); // no effect on the finished ones
+        }
+    }
+
+    private static <T> T getResult(AccessesRepresentation representation, ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding the traces of " + representation.getName(), e);
+
+        } catch (ExecutionException e) {
+            // The pool wraps checked exceptions and may rethrow a copy of the task's exception, whose cause is the original
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+
+            Throwable cause = e.getCause();
+            while (cause.getCause() != null && cause.getCause().getClass() == cause.getClass())
+                cause = cause.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+}
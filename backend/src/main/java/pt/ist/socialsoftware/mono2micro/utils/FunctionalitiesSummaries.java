@@ -0,0 +1,246 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Per functionality aggregates of an accesses representation, computed once at upload and stored in GridFS next to it.
+ * For each trace type, a functionality is summarised by the modes of the entities it accesses and by the counts of
+ * adjacent pairs of different entities, which is all the similarity matrix needs, so a matrix for any profile is
+ * obtained by merging the summaries of the profile's functionalities without decoding traces.
+ * The summaries follow the traces selected without limit (tracesMaxLimit == 0) and pairs are counted as in
+ * AccessesWeights, on the traces expanded with at most 2 occurrences of each element and, for TraceType.ALL,
+ * weighted by the traces' frequency. They also stand for any limit not below the functionality's number of traces,
+ * and for its samples, which are then every trace unchanged.
+ * The pairs are left out when built with similarity.sequence.pairs.max.mb set, the similarity matrix counting them from
+ * the traces within that bound instead, see AccessesWeights.
+ */
+public class FunctionalitiesSummaries {
+    private static final int MAX_OCCURRENCES = 2;
+    private static final List<Constants.TraceType> SUMMARISED_TRACE_TYPES = Arrays.asList( // samples depend on their size
+            Constants.TraceType.ALL,
+            Constants.TraceType.LONGEST,
+            Constants.TraceType.WITH_MORE_DIFFERENT_ACCESSES
+    );
+
+    private Map<Constants.TraceType, Map<String, FunctionalitySummary>> summaries = new HashMap<>(); // functionalities kept in file order
+    private boolean withPairs = true; // summaries saved before pairs could be left out have them
+
+    public FunctionalitiesSummaries() {}
+
+    public static FunctionalitiesSummaries build(byte[] representationFile, boolean binaryEncoded, boolean withPairs) throws IOException {
+        FunctionalitiesSummaries functionalitiesSummaries = new FunctionalitiesSummaries();
+        functionalitiesSummaries.withPairs = withPairs;
+        for (Constants.TraceType traceType : SUMMARISED_TRACE_TYPES)
+            functionalitiesSummaries.summaries.put(traceType, new LinkedHashMap<>());
+
+        if (binaryEncoded) {
+            try (InputStream in = new BufferedInputStream(new ByteArrayInputStream(representationFile))) {
+                for (TracesBinaryFormat.FunctionalityHeader functionality : TracesBinaryFormat.readDirectory(in)) {
+                    FunctionalitySummarizer summarizer = new FunctionalitySummarizer(withPairs);
+                    for (int i = 0; i < functionality.getTracesCount(); i++)
+                        summarizer.addTrace(TracesBinaryFormat.readTrace(in));
+                    functionalitiesSummaries.addFunctionality(functionality.getName(), summarizer);
+                }
+            }
+        }
+        else {
+            try (FunctionalityTracesIterator iter = new FunctionalityTracesIterator(new ByteArrayInputStream(representationFile), 0)) {
+                Iterator<String> functionalitiesNames = iter.getFunctionalitiesNames();
+                while (functionalitiesNames.hasNext()) {
+                    String functionalityName = functionalitiesNames.next();
+                    iter.getFunctionalityWithName(functionalityName);
+
+                    FunctionalitySummarizer summarizer = new FunctionalitySummarizer(withPairs);
+                    TraceDto t;
+                    while ((t = iter.nextTrace()) != null)
+                        summarizer.addTrace(t);
+                    functionalitiesSummaries.addFunctionality(functionalityName, summarizer);
+                }
+            }
+        }
+        return functionalitiesSummaries;
+    }
+
+    private void addFunctionality(String functionalityName, FunctionalitySummarizer summarizer) {
+        summaries.get(Constants.TraceType.ALL).put(functionalityName, summarizer.all.toSummary());
+        if (summarizer.longest != null)
+            summaries.get(Constants.TraceType.LONGEST).put(functionalityName, summarise(Collections.singletonList(summarizer.longest), false, withPairs));
+        if (summarizer.withMoreDifferentAccesses != null)
+            summaries.get(Constants.TraceType.WITH_MORE_DIFFERENT_ACCESSES).put(functionalityName, summarise(Collections.singletonList(summarizer.withMoreDifferentAccesses), false, withPairs));
+    }
+
+    public static FunctionalitiesSummaries fromJSON(InputStream inputStream) throws IOException {
+        try (InputStream is = inputStream) {
+            return new ObjectMapper().readValue(is, FunctionalitiesSummaries.class);
+        }
+    }
+
+    public InputStream toJSON() throws IOException {
+        return new ByteArrayInputStream(new ObjectMapper().writeValueAsBytes(this));
+    }
+
+    public Map<Constants.TraceType, Map<String, FunctionalitySummary>> getSummaries() {
+        return summaries;
+    }
+
+    public void setSummaries(Map<Constants.TraceType, Map<String, FunctionalitySummary>> summaries) {
+        this.summaries = summaries;
+    }
+
+    public boolean isWithPairs() {
+        return withPairs;
+    }
+
+    public void setWithPairs(boolean withPairs) {
+        this.withPairs = withPairs;
+    }
+
+    // Summary of some traces of a functionality, weighted by their frequency when they stand for all its traces
+    public static FunctionalitySummary summarise(List<TraceDto> traces, boolean weightedByFrequency) {
+        return summarise(traces, weightedByFrequency, true);
+    }
+
+    public static FunctionalitySummary summarise(List<TraceDto> traces, boolean weightedByFrequency, boolean withPairs) {
+        SummaryAccumulator accumulator = new SummaryAccumulator(withPairs);
+        for (TraceDto t : traces)
+            accumulator.add(t, weightedByFrequency ? t.getFrequency() : 1);
+        return accumulator.toSummary();
+    }
+
+    // Only the pairs of the summary of the traces
+    public static EntityPairsCounter countPairs(List<TraceDto> traces, boolean weightedByFrequency) {
+        EntityPairsCounter pairsCounter = new EntityPairsCounter();
+        for (TraceDto t : traces)
+            addPairs(pairsCounter, t, weightedByFrequency ? t.getFrequency() : 1);
+        return pairsCounter;
+    }
+
+    // Counts saturate, as folded traces may have large frequencies
+    private static TraceAnalytics addPairs(EntityPairsCounter pairsCounter, TraceDto t, int frequency) {
+        return TraceAnalytics.analyse(t, MAX_OCCURRENCES, (e1ID, e2ID, count) -> {
+            if (pairsCounter != null)
+                pairsCounter.add(e1ID, e2ID, (int) Math.min(Integer.MAX_VALUE, Math.min(count, Integer.MAX_VALUE) * frequency));
+        });
+    }
+
+    public boolean isSummarised(Constants.TraceType traceType) {
+        return summaries.containsKey(traceType);
+    }
+
+    // Summaries of the functionalities with at least one trace, in file order
+    public Map<String, FunctionalitySummary> getSummaries(Constants.TraceType traceType) {
+        return summaries.getOrDefault(traceType, Collections.emptyMap());
+    }
+
+    // Same selections as FunctionalityTracesIterator without limit, ties keep the first trace
+    private static class FunctionalitySummarizer {
+        private final SummaryAccumulator all;
+        private TraceDto longest;
+        private int longestUncompressedSize;
+        private TraceDto withMoreDifferentAccesses;
+        private int differentAccessesCount;
+
+        FunctionalitySummarizer(boolean withPairs) {
+            all = new SummaryAccumulator(withPairs);
+        }
+
+        void addTrace(TraceDto t) {
+            all.add(t, t.getFrequency());
+
+            int uncompressedSize = t.getUncompressedSize();
+            if (longest == null || uncompressedSize > longestUncompressedSize) {
+                longest = t;
+                longestUncompressedSize = uncompressedSize;
+            }
+
+            int differentAccesses = t.getDifferentAccessesCount();
+            if (withMoreDifferentAccesses == null || differentAccesses > differentAccessesCount) {
+                withMoreDifferentAccesses = t;
+                differentAccessesCount = differentAccesses;
+            }
+        }
+    }
+
+    private static class SummaryAccumulator {
+        private final Map<Short, Byte> entitiesModes = new HashMap<>();
+        private final EntityPairsCounter pairsCounter; // null when the pairs are left out
+
+        SummaryAccumulator(boolean withPairs) {
+            pairsCounter = withPairs ? new EntityPairsCounter() : null;
+        }
+
+        void add(TraceDto t, int frequency) {
+            TraceAnalytics analytics = addPairs(pairsCounter, t, frequency);
+
+            short[] entities = analytics.getEntities();
+            for (int i = 0; i < entities.length; i++)
+                entitiesModes.merge(entities[i], analytics.getModesAt(i), (m1, m2) -> (byte) (m1 | m2)); // "RW" -> 3
+        }
+
+        FunctionalitySummary toSummary() {
+            FunctionalitySummary summary = new FunctionalitySummary();
+
+            List<Short> entities = new ArrayList<>(entitiesModes.keySet());
+            Collections.sort(entities);
+            summary.entities = new short[entities.size()];
+            summary.modes = new byte[entities.size()];
+            for (int i = 0; i < entities.size(); i++) {
+                summary.entities[i] = entities.get(i);
+                summary.modes[i] = entitiesModes.get(entities.get(i));
+            }
+
+            if (pairsCounter == null)
+                return summary;
+            summary.pairsE1 = new short[pairsCounter.size()];
+            summary.pairsE2 = new short[pairsCounter.size()];
+            summary.pairsCount = new int[pairsCounter.size()];
+            int[] i = {0};
+            pairsCounter.forEach((e1ID, e2ID, count) -> {
+                summary.pairsE1[i[0]] = e1ID;
+                summary.pairsE2[i[0]] = e2ID;
+                summary.pairsCount[i[0]++] = count;
+            });
+            return summary;
+        }
+    }
+
+    public static class FunctionalitySummary {
+        private short[] entities = new short[0]; // sorted
+        private byte[] modes = new byte[0]; // aligned with entities, "R" -> 1, "W" -> 2, "RW" -> 3
+        private short[] pairsE1 = new short[0];
+        private short[] pairsE2 = new short[0];
+        private int[] pairsCount = new int[0]; // aligned with pairsE1 and pairsE2, pairs are not ordered
+
+        public FunctionalitySummary() {}
+
+        // Sharing the entities and modes
+        public FunctionalitySummary withoutPairs() {
+            FunctionalitySummary summary = new FunctionalitySummary();
+            summary.entities = entities;
+            summary.modes = modes;
+            return summary;
+        }
+
+        public short[] getEntities() { return entities; }
+        public void setEntities(short[] entities) { this.entities = entities; }
+
+        public byte[] getModes() { return modes; }
+        public void setModes(byte[] modes) { this.modes = modes; }
+
+        public short[] getPairsE1() { return pairsE1; }
+        public void setPairsE1(short[] pairsE1) { this.pairsE1 = pairsE1; }
+
+        public short[] getPairsE2() { return pairsE2; }
+        public void setPairsE2(short[] pairsE2) { this.pairsE2 = pairsE2; }
+
+        public int[] getPairsCount() { return pairsCount; }
+        public void setPairsCount(int[] pairsCount) { this.pairsCount = pairsCount; }
+    }
+}
@@ -0,0 +1,189 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.input.CountingInputStream;
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Side index of an accesses representation, stored in GridFS next to it.
+ * For each functionality it keeps the byte range of its value in the representation file and, for each of its
+ * traces, the byte range, the uncompressed size and the number of different accesses. This allows a single
+ * trace to be read with one ranged read and the functionalities to be listed without touching the main file.
+ * For JSON representations a functionality's range starts at its field name, for binary ones (TracesBinaryFormat)
+ * it is its block of traces.
+ */
+public class FunctionalityTracesIndex {
+    private Map<String, FunctionalityEntry> functionalities = new LinkedHashMap<>(); // kept in file order
+
+    public FunctionalityTracesIndex() {}
+
+    public static FunctionalityTracesIndex build(InputStream representationFile) throws IOException {
+        FunctionalityTracesIndex index = new FunctionalityTracesIndex();
+
+        try (FunctionalityTracesIterator iter = new FunctionalityTracesIterator(representationFile, 0)) {
+            Iterator<String> functionalitiesNames = iter.getFunctionalitiesNames();
+            while (functionalitiesNames.hasNext()) {
+                String functionalityName = functionalitiesNames.next();
+                iter.getFunctionalityWithName(functionalityName);
+
+                FunctionalityEntry entry = new FunctionalityEntry();
+                TraceDto t;
+                while ((t = iter.nextTrace()) != null)
+                    entry.addTrace(iter.getTraceOffset(), iter.getTraceLength(), t.getUncompressedSize(), t.getDifferentAccessesCount());
+
+                iter.finishFunctionality();
+                entry.setOffset(iter.getFunctionalityOffset());
+                entry.setLength(iter.getFunctionalityLength());
+                entry.trim();
+
+                index.functionalities.put(functionalityName, entry);
+            }
+        }
+        return index;
+    }
+
+    public static FunctionalityTracesIndex buildFromBinary(InputStream representationFile) throws IOException {
+        FunctionalityTracesIndex index = new FunctionalityTracesIndex();
+
+        try (CountingInputStream in = new CountingInputStream(new BufferedInputStream(representationFile))) {
+            List<TracesBinaryFormat.FunctionalityHeader> directory = TracesBinaryFormat.readDirectory(in);
+
+            for (TracesBinaryFormat.FunctionalityHeader functionality : directory) {
+                FunctionalityEntry entry = new FunctionalityEntry();
+                entry.setOffset(in.getByteCount());
+                entry.setLength(functionality.getBlockLength());
+
+                for (int i = 0; i < functionality.getTracesCount(); i++) {
+                    long traceOffset = in.getByteCount();
+                    TraceDto t = TracesBinaryFormat.readTrace(in);
+                    entry.addTrace(traceOffset, (int) (in.getByteCount() - traceOffset), t.getUncompressedSize(), t.getDifferentAccessesCount());
+                }
+                entry.trim();
+
+                index.functionalities.put(functionality.getName(), entry);
+            }
+        }
+        return index;
+    }
+
+    public static FunctionalityTracesIndex fromJSON(InputStream inputStream) throws IOException {
+        try (InputStream is = inputStream) {
+            return new ObjectMapper().readValue(is, FunctionalityTracesIndex.class);
+        }
+    }
+
+    public InputStream toJSON() throws IOException {
+        return new ByteArrayInputStream(new ObjectMapper().writeValueAsBytes(this));
+    }
+
+    public Map<String, FunctionalityEntry> getFunctionalities() {
+        return functionalities;
+    }
+
+    public void setFunctionalities(Map<String, FunctionalityEntry> functionalities) {
+        this.functionalities = functionalities;
+    }
+
+    @JsonIgnore
+    public Set<String> getFunctionalitiesNames() {
+        return functionalities.keySet();
+    }
+
+    public FunctionalityEntry getFunctionality(String functionalityName) {
+        return functionalities.get(functionalityName);
+    }
+
+    public static class FunctionalityEntry {
+        private long offset;
+        private long length;
+        private int tracesCount;
+        private long[] traceOffsets = new long[0];
+        private int[] traceLengths = new int[0];
+        private int[] traceUncompressedSizes = new int[0];
+        private int[] traceDifferentAccesses = new int[0];
+
+        public FunctionalityEntry() {}
+
+        public long getOffset() { return offset; }
+        public void setOffset(long offset) { this.offset = offset; }
+
+        public long getLength() { return length; }
+        public void setLength(long length) { this.length = length; }
+
+        public int getTracesCount() { return tracesCount; }
+        public void setTracesCount(int tracesCount) { this.tracesCount = tracesCount; }
+
+        public long[] getTraceOffsets() { return traceOffsets; }
+        public void setTraceOffsets(long[] traceOffsets) { this.traceOffsets = traceOffsets; }
+
+        public int[] getTraceLengths() { return traceLengths; }
+        public void setTraceLengths(int[] traceLengths) { this.traceLengths = traceLengths; }
+
+        public int[] getTraceUncompressedSizes() { return traceUncompressedSizes; }
+        public void setTraceUncompressedSizes(int[] traceUncompressedSizes) { this.traceUncompressedSizes = traceUncompressedSizes; }
+
+        public int[] getTraceDifferentAccesses() { return traceDifferentAccesses; }
+        public void setTraceDifferentAccesses(int[] traceDifferentAccesses) { this.traceDifferentAccesses = traceDifferentAccesses; }
+
+        void addTrace(long traceOffset, int traceLength, int uncompressedSize, int differentAccesses) {
+            if (tracesCount == traceOffsets.length) {
+                int newCapacity = Math.max(4, tracesCount * 2);
+                traceOffsets = Arrays.copyOf(traceOffsets, newCapacity);
+                traceLengths = Arrays.copyOf(traceLengths, newCapacity);
+                traceUncompressedSizes = Arrays.copyOf(traceUncompressedSizes, newCapacity);
+                traceDifferentAccesses = Arrays.copyOf(traceDifferentAccesses, newCapacity);
+            }
+            traceOffsets[tracesCount] = traceOffset;
+            traceLengths[tracesCount] = traceLength;
+            traceUncompressedSizes[tracesCount] = uncompressedSize;
+            traceDifferentAccesses[tracesCount] = differentAccesses;
+            tracesCount++;
+        }
+
+        void trim() {
+            traceOffsets = Arrays.copyOf(traceOffsets, tracesCount);
+            traceLengths = Arrays.copyOf(traceLengths, tracesCount);
+            traceUncompressedSizes = Arrays.copyOf(traceUncompressedSizes, tracesCount);
+            traceDifferentAccesses = Arrays.copyOf(traceDifferentAccesses, tracesCount);
+        }
+
+        // Same selection as FunctionalityTracesIterator.getLongestTrace, -1 if there are no traces
+        public int getLongestTraceIndex(int limit) {
+            return getTraceIndexWithHighestValue(traceUncompressedSizes, limit);
+        }
+
+        // Same selection as FunctionalityTracesIterator.getTraceWithMoreDifferentAccesses, -1 if there are no traces
+        public int getTraceWithMoreDifferentAccessesIndex(int limit) {
+            return getTraceIndexWithHighestValue(traceDifferentAccesses, limit);
+        }
+
+        // Only the first traces until "limit" non empty traces are seen are considered, ties keep the first trace
+        private int getTraceIndexWithHighestValue(int[] values, int limit) {
+            if (tracesCount == 0) return -1;
+
+            int tracesCounter = traceDifferentAccesses[0] > 0 ? 1 : 0;
+            int best = 0;
+
+            for (int i = 1; i < tracesCount && (limit == 0 || tracesCounter < limit); i++) {
+                if (traceDifferentAccesses[i] > 0)
+                    tracesCounter++;
+
+                if (values[i] > values[best])
+                    best = i;
+            }
+            return best;
+        }
+    }
+}
@@ -1,50 +1,300 @@
 package pt.ist.socialsoftware.mono2micro.utils;
 
-import org.apache.commons.io.IOUtils;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import pt.ist.socialsoftware.mono2micro.functionality.dto.AccessDto;
-import pt.ist.socialsoftware.mono2micro.functionality.dto.ReducedTraceElementDto;
-import pt.ist.socialsoftware.mono2micro.functionality.dto.RuleDto;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
+import pt.ist.socialsoftware.mono2micro.functionality.deserializer.TraceElementsDeserializer;
 import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+import pt.ist.socialsoftware.mono2micro.representation.domain.AccessesRepresentation;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
 
-public class FunctionalityTracesIterator {
-    private int limit; // 0 means no limit aka all traces will be parsed
-    private int tracesCounter; // #traces
-    private final JSONObject codebaseAsJSON;
-    private JSONObject requestedFunctionality;
+/**
+ * Streams the functionalities of an accesses representation ({"functionalityName": {"t": [{"id": 0, "f": 2, "a": [...]}]}})
+ * without building the whole JSON tree. Functionalities are visited in file order, the ones that are not
+ * requested are skipped and the traces of the requested one are decoded token by token, so the memory used
+ * is bounded by the largest functionality instead of the whole file.
+ * When the representation has a FunctionalityTracesIndex, only the byte ranges of the requested functionality
+ * (or of the single selected trace for LONGEST and WITH_MORE_DIFFERENT_ACCESSES) are read from GridFS.
+ * Representations stored with TracesBinaryFormat are always indexed and their ranges are decoded as binary.
+ */
+public class FunctionalityTracesIterator implements Closeable {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final byte[] OPEN_OBJECT = "{".getBytes();
+    private static final byte[] CLOSE_OBJECT = "}".getBytes();
+
+    private final int limit; // 0 means no limit aka all traces will be parsed
+    private int tracesCounter; // #traces of the requested functionality
+    private JsonParser parser; // parser of the whole file or, when indexed, of the range being read
+
+    private final GridFsService gridFsService; // only used when indexed
+    private final String fileName;
+    private final FunctionalityTracesIndex index; // null when the whole file is streamed
+    private final boolean binaryEncoded;
+    private String requestedFunctionalityName;
+    private FunctionalityTracesIndex.FunctionalityEntry requestedEntry;
+
+    // Byte positions, relative to the parsed stream, used to build the index
+    private long functionalityOffset;
+    private long functionalityLength;
+    private long traceOffset;
+    private int traceLength;
+
+    private long[] elementsBuffer = new long[64]; // reused while decoding, each trace keeps an exact copy
+
+    private String currentFunctionalityName; // functionality whose field name is the parser's current position
+    private int currentFunctionalityFrequency;
+    private boolean currentFunctionalityEntered; // its value started being consumed
+    private boolean currentFunctionalityReturned; // already returned by the functionalities names iterator
+    private boolean tracesArrayOpen; // the parser is inside the "t" array of the requested functionality
+    private boolean finished;
 
     public FunctionalityTracesIterator(
             InputStream file,
             int limit
-    ) throws IOException, JSONException {
+    ) throws IOException {
+        this.limit = limit;
+        this.gridFsService = null;
+        this.fileName = null;
+        this.index = null;
+        this.binaryEncoded = false;
+        startParsing(file);
+    }
+
+    public FunctionalityTracesIterator(
+            GridFsService gridFsService,
+            AccessesRepresentation representation,
+            int limit
+    ) throws IOException {
+        this(gridFsService, representation, representation.getTracesIndex(gridFsService), limit);
+    }
+
+    // The index is only read, so iterators decoding different functionalities concurrently can share it
+    public FunctionalityTracesIterator(
+            GridFsService gridFsService,
+            AccessesRepresentation representation,
+            FunctionalityTracesIndex index,
+            int limit
+    ) throws IOException {
         this.limit = limit;
-        codebaseAsJSON = new JSONObject(new String(IOUtils.toByteArray(file)));
-        file.close();
+        this.gridFsService = gridFsService;
+        this.fileName = representation.getName();
+        this.index = index;
+        this.binaryEncoded = representation.isBinaryEncoded();
+
+        if (index == null) { // representations uploaded before the index existed
+            if (binaryEncoded)
+                throw new IOException("Binary accesses representation " + fileName + " has no traces index");
+            startParsing(gridFsService.getFile(fileName));
+        }
     }
 
+    /**
+     * The returned iterator walks the remaining functionalities in file order.
+     * A functionality that is not requested through getFunctionalityWithName is skipped without being decoded.
+     */
     public Iterator<String> getFunctionalitiesNames() {
-        return codebaseAsJSON.keys();
+        if (index != null)
+            return Collections.unmodifiableSet(index.getFunctionalitiesNames()).iterator();
+
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    if (currentFunctionalityName == null || currentFunctionalityReturned)
+                        moveToNextFunctionality();
+                    return currentFunctionalityName != null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                currentFunctionalityReturned = true;
+                return currentFunctionalityName;
+            }
+        };
     }
 
-    public void getFunctionalityWithName(String functionalityName) throws JSONException {
-        requestedFunctionality = codebaseAsJSON.getJSONObject(functionalityName);
+    public void getFunctionalityWithName(String functionalityName) throws IOException {
+        if (index != null) {
+            requestedEntry = index.getFunctionality(functionalityName);
+            if (requestedEntry == null)
+                throw new IOException("Functionality with name: " + functionalityName + " not found");
+
+            requestedFunctionalityName = functionalityName;
+            tracesCounter = 0;
+            closeParser();
+            return;
+        }
+        seekFunctionality(functionalityName);
+        requestedFunctionalityName = functionalityName;
     }
 
-    public TraceDto getLongestTrace() throws JSONException {
-        JSONArray tracesArray = requestedFunctionality.getJSONArray("t");
-        TraceDto t1 = nextTrace(tracesArray.getJSONObject(0));;
+    /*
+     * Functionalities of a file without index are looked for ahead of the parser, a functionality already passed being
+     * looked for by reading the file again from the start, skipping the functionalities before it. Only streams given
+     * to the constructor cannot be read again.
+     */
+    private void seekFunctionality(String functionalityName) throws IOException {
+        if (!moveToFunctionality(functionalityName)) {
+            if (gridFsService == null)
+                throw new IOException("Functionality with name: " + functionalityName + " not found");
+            startParsing(gridFsService.getFile(fileName));
+            if (!moveToFunctionality(functionalityName))
+                throw new IOException("Functionality with name: " + functionalityName + " not found");
+        }
+
+        if (currentFunctionalityEntered)
+            return;
+
+        tracesCounter = 0;
+        currentFunctionalityFrequency = 0;
+        currentFunctionalityEntered = true;
+        parser.nextToken(); // START_OBJECT
+
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+
+            if (fieldName.equals("t") && parser.currentToken() == JsonToken.START_ARRAY) {
+                tracesArrayOpen = true;
+                return;
+            }
+            if (fieldName.equals("f") && parser.currentToken() == JsonToken.VALUE_NUMBER_INT)
+                currentFunctionalityFrequency = parser.getIntValue();
+            else parser.skipChildren();
+        }
+
+        if (token != JsonToken.END_OBJECT)
+            throw new IOException("Error parsing functionality " + functionalityName);
+    }
+
+    // False when the functionality is not ahead of the parser, which is then at the end of the file
+    private boolean moveToFunctionality(String functionalityName) throws IOException {
+        if (currentFunctionalityName == null || currentFunctionalityEntered && !tracesArrayOpen)
+            moveToNextFunctionality();
+
+        while (currentFunctionalityName != null && !currentFunctionalityName.equals(functionalityName))
+            moveToNextFunctionality();
+
+        return currentFunctionalityName != null;
+    }
+
+    public TraceDto getLongestTrace() throws IOException {
+        List<TraceDto> cachedTraces = getCachedTraces(Constants.TraceType.LONGEST);
+        if (cachedTraces != null)
+            return cachedTraces.isEmpty() ? null : cachedTraces.get(0);
+
+        TraceDto t = loadLongestTrace();
+        putCachedTraces(Constants.TraceType.LONGEST, t == null ? Collections.emptyList() : Collections.singletonList(t));
+        return t;
+    }
+
+    public TraceDto getTraceWithMoreDifferentAccesses() throws IOException {
+        List<TraceDto> cachedTraces = getCachedTraces(Constants.TraceType.WITH_MORE_DIFFERENT_ACCESSES);
+        if (cachedTraces != null)
+            return cachedTraces.isEmpty() ? null : cachedTraces.get(0);
+
+        TraceDto t = loadTraceWithMoreDifferentAccesses();
+        putCachedTraces(Constants.TraceType.WITH_MORE_DIFFERENT_ACCESSES, t == null ? Collections.emptyList() : Collections.singletonList(t));
+        return t;
+    }
+
+    public List<TraceDto> getAllTraces() throws IOException {
+        List<TraceDto> cachedTraces = getCachedTraces(Constants.TraceType.ALL);
+        if (cachedTraces != null)
+            return new ArrayList<>(cachedTraces);
+
+        List<TraceDto> traceDtos = loadAllTraces();
+        putCachedTraces(Constants.TraceType.ALL, traceDtos);
+        return traceDtos;
+    }
+
+    // The sample size is the iterator's limit, every trace of the functionality is streamed through the sampler
+    public List<TraceDto> getSampledTraces(Constants.TraceType traceType) throws IOException {
+        List<TraceDto> cachedTraces = getCachedTraces(traceType);
+        if (cachedTraces != null)
+            return new ArrayList<>(cachedTraces);
+
+        TracesSampler sampler = TracesSampler.create(traceType, limit, requestedFunctionalityName);
+        streamAllTraces(sampler);
+        List<TraceDto> traceDtos = sampler.getSample();
+        putCachedTraces(traceType, traceDtos);
+        return traceDtos;
+    }
+
+    public List<TraceDto> getTracesByType(Constants.TraceType traceType) throws IOException {
+        List<TraceDto> traceDtos = new ArrayList<>();
+        TraceDto t;
+
+        // Get traces according to trace type
+        switch(traceType) {
+            case LONGEST:
+                t = this.getLongestTrace();
+                if (t != null)
+                    traceDtos.add(t);
+                break;
+            case WITH_MORE_DIFFERENT_ACCESSES:
+                t = this.getTraceWithMoreDifferentAccesses();
+                if (t != null)
+                    traceDtos.add(t);
+                break;
+            case RESERVOIR_SAMPLE:
+            case FREQUENCY_WEIGHTED_SAMPLE:
+            case STRATIFIED_SAMPLE:
+                traceDtos.addAll(this.getSampledTraces(traceType));
+                break;
+            default:
+                traceDtos.addAll(this.getAllTraces());
+        }
+        if (traceDtos.size() == 0)
+            throw new RuntimeException("Functionality does not contain any trace.");
+
+        return traceDtos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeParser();
+    }
+
+    // Only iterators created from a stored representation are cached, streams given directly are read once
+    private List<TraceDto> getCachedTraces(Constants.TraceType traceType) {
+        if (fileName == null)
+            return null;
+        return TracesCache.get().getTraces(fileName, traceType, limit, requestedFunctionalityName);
+    }
+
+    private void putCachedTraces(Constants.TraceType traceType, List<TraceDto> traces) {
+        if (fileName != null)
+            TracesCache.get().putTraces(fileName, traceType, limit, requestedFunctionalityName, traces);
+    }
+
+    private TraceDto loadLongestTrace() throws IOException {
+        if (index != null)
+            return readIndexedTrace(requestedEntry.getLongestTraceIndex(limit));
+
+        TraceDto t1 = nextTrace();
+        if (t1 == null) return null;
+
         int t1UncompressedSize = t1.getUncompressedSize();
-        for (int i = 1; i < tracesArray.length() && (limit == 0 || tracesCounter < limit); i++) {
-            TraceDto t2 = nextTrace(tracesArray.getJSONObject(i));
 
+        TraceDto t2;
+        while ((limit == 0 || tracesCounter < limit) && (t2 = nextTrace()) != null) {
             int t2UncompressedSize = t2.getUncompressedSize();
 
             if (t2UncompressedSize > t1UncompressedSize) {
@@ -52,86 +302,284 @@ public class FunctionalityTracesIterator {
                 t1UncompressedSize = t2UncompressedSize;
             }
         }
+        skipRemainingTraces();
+
         return t1;
     }
 
-    public TraceDto getTraceWithMoreDifferentAccesses() throws JSONException {
-        JSONArray tracesArray = requestedFunctionality.getJSONArray("t");
-        TraceDto t1 = nextTrace(tracesArray.getJSONObject(0));
-        int t1AccessesSetSize = t1.getAccessesSet().size();
+    private TraceDto loadTraceWithMoreDifferentAccesses() throws IOException {
+        if (index != null)
+            return readIndexedTrace(requestedEntry.getTraceWithMoreDifferentAccessesIndex(limit));
+
+        TraceDto t1 = nextTrace();
+        if (t1 == null) return null;
 
-        for (int i = 1; i < tracesArray.length() && (limit == 0 || tracesCounter < limit); i++) {
-            TraceDto t2 = nextTrace(tracesArray.getJSONObject(i));
+        int t1AccessesSetSize = t1.getDifferentAccessesCount();
 
-            int t2AccessesSetSize = t2.getAccessesSet().size();
+        TraceDto t2;
+        while ((limit == 0 || tracesCounter < limit) && (t2 = nextTrace()) != null) {
+            int t2AccessesSetSize = t2.getDifferentAccessesCount();
 
             if (t2AccessesSetSize > t1AccessesSetSize) {
                 t1 = t2;
                 t1AccessesSetSize = t2AccessesSetSize;
             }
         }
+        skipRemainingTraces();
 
         return t1;
     }
 
-    public List<TraceDto> getAllTraces() throws JSONException {
+    private List<TraceDto> loadAllTraces() throws IOException {
         List<TraceDto> traceDtos = new ArrayList<>();
-        JSONArray tracesArray = requestedFunctionality.getJSONArray("t");
-        for (int i = 0; i < tracesArray.length() && (limit == 0 || tracesCounter < limit); i++)
-            traceDtos.add(nextTrace(tracesArray.getJSONObject(i)));
+
+        if (binaryEncoded)
+            return getAllBinaryTraces();
+        if (index != null)
+            openIndexedFunctionality();
+
+        TraceDto t;
+        while ((limit == 0 || tracesCounter < limit) && (t = nextTrace()) != null)
+            traceDtos.add(t);
+        skipRemainingTraces();
+
         return traceDtos;
     }
 
-    public List<TraceDto> getTracesByType(Constants.TraceType traceType) throws JSONException {
-        List<TraceDto> traceDtos = new ArrayList<>();
+    private void startParsing(InputStream inputStream) throws IOException {
+        closeParser();
+        parser = JSON_FACTORY.createParser(inputStream);
 
-        // Get traces according to trace type
-        switch(traceType) {
-            case LONGEST:
-                traceDtos.add(this.getLongestTrace());
-                break;
-            case WITH_MORE_DIFFERENT_ACCESSES:
-                traceDtos.add(this.getTraceWithMoreDifferentAccesses());
-                break;
-            default:
-                traceDtos.addAll(this.getAllTraces());
+        currentFunctionalityName = null;
+        currentFunctionalityEntered = false;
+        currentFunctionalityReturned = false;
+        tracesArrayOpen = false;
+        finished = false;
+
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+            throw new IOException("Accesses representation should start with a JSON object");
+    }
+
+    private void closeParser() throws IOException {
+        if (parser != null) {
+            parser.close();
+            parser = null;
         }
-        if (traceDtos.size() == 0)
-            throw new RuntimeException("Functionality does not contain any trace.");
+    }
 
+    // The indexed range starts at the functionality's field name, so it is wrapped to be read as {"name": {...}}
+    private void openIndexedFunctionality() throws IOException {
+        startParsing(new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(OPEN_OBJECT),
+                gridFsService.getFileRange(fileName, requestedEntry.getOffset(), requestedEntry.getLength()),
+                new ByteArrayInputStream(CLOSE_OBJECT)
+        ))));
+        seekFunctionality(requestedFunctionalityName);
+    }
+
+    private List<TraceDto> getAllBinaryTraces() throws IOException {
+        List<TraceDto> traceDtos = new ArrayList<>();
+
+        try (InputStream in = new BufferedInputStream(gridFsService.getFileRange(fileName, requestedEntry.getOffset(), requestedEntry.getLength()))) {
+            for (int i = 0; i < requestedEntry.getTracesCount() && (limit == 0 || tracesCounter < limit); i++) {
+                TraceDto t = TracesBinaryFormat.readTrace(in);
+                if (t.size() > 0)
+                    tracesCounter++;
+                traceDtos.add(t);
+            }
+        }
         return traceDtos;
     }
 
-    private TraceDto nextTrace(JSONObject traceJSON) throws JSONException {
-        List<ReducedTraceElementDto> elements = new ArrayList<>();
-        JSONArray accessesJSON = traceJSON.getJSONArray("a");
+    // Offers every trace of the requested functionality, without limit
+    private void streamAllTraces(TracesSampler sampler) throws IOException {
+        if (binaryEncoded) {
+            try (InputStream in = new BufferedInputStream(gridFsService.getFileRange(fileName, requestedEntry.getOffset(), requestedEntry.getLength()))) {
+                for (int i = 0; i < requestedEntry.getTracesCount(); i++)
+                    sampler.offer(TracesBinaryFormat.readTrace(in));
+            }
+            return;
+        }
+        if (index != null)
+            openIndexedFunctionality();
+
+        TraceDto t;
+        while ((t = nextTrace()) != null)
+            sampler.offer(t);
+    }
 
-        for (int i = 0; i < accessesJSON.length(); i++) {
-            JSONArray reducedTraceElementJSON = accessesJSON.getJSONArray(i);
-            Object elementType = reducedTraceElementJSON.get(0);
+    private TraceDto readIndexedTrace(int traceIndex) throws IOException {
+        if (traceIndex == -1)
+            return null;
 
-            if (elementType instanceof String) { // Is an AccessDto
-                AccessDto accessDto = new AccessDto();
-                accessDto.setMode((byte) (reducedTraceElementJSON.getString(0).equals("R") ? 1 : 2));
-                accessDto.setEntityID((short) reducedTraceElementJSON.getInt(1));
-                if (reducedTraceElementJSON.length() == 3)
-                    accessDto.setOccurrences(reducedTraceElementJSON.getInt(2));
-                else accessDto.setOccurrences(1);
-                elements.add(accessDto);
+        if (binaryEncoded) {
+            try (InputStream in = new BufferedInputStream(gridFsService.getFileRange(
+                    fileName,
+                    requestedEntry.getTraceOffsets()[traceIndex],
+                    requestedEntry.getTraceLengths()[traceIndex]
+            ))) {
+                return TracesBinaryFormat.readTrace(in);
             }
-            else { // Is a RuleDto
-                RuleDto ruleDto = new RuleDto();
-                ruleDto.setCount(reducedTraceElementJSON.getInt(0));
-                if (reducedTraceElementJSON.length() == 2)
-                    ruleDto.setOccurrences(reducedTraceElementJSON.getInt(1));
-                else ruleDto.setOccurrences(1);
-                elements.add(ruleDto);
+        }
+
+        startParsing(gridFsService.getFileRange(
+                fileName,
+                requestedEntry.getTraceOffsets()[traceIndex],
+                requestedEntry.getTraceLengths()[traceIndex]
+        ));
+        currentFunctionalityName = requestedFunctionalityName;
+        TraceDto t = readTrace();
+        closeParser();
+        return t;
+    }
+
+    // Index building, positions are relative to the stream given to the constructor
+    void finishFunctionality() throws IOException {
+        skipRemainingFunctionality();
+        functionalityLength = parser.getCurrentLocation().getByteOffset() - functionalityOffset;
+    }
+
+    int getFunctionalityFrequency() {
+        return currentFunctionalityFrequency;
+    }
+
+    long getFunctionalityOffset() {
+        return functionalityOffset;
+    }
+
+    long getFunctionalityLength() {
+        return functionalityLength;
+    }
+
+    long getTraceOffset() {
+        return traceOffset;
+    }
+
+    int getTraceLength() {
+        return traceLength;
+    }
+
+    private void moveToNextFunctionality() throws IOException {
+        if (finished)
+            return;
+
+        if (currentFunctionalityName != null) {
+            if (currentFunctionalityEntered)
+                skipRemainingFunctionality();
+            else {
+                parser.nextToken();
+                parser.skipChildren();
+            }
+        }
+
+        currentFunctionalityEntered = false;
+        currentFunctionalityReturned = false;
+
+        if (parser.nextToken() == JsonToken.FIELD_NAME) {
+            currentFunctionalityName = parser.getCurrentName();
+            functionalityOffset = parser.getTokenLocation().getByteOffset();
+        }
+        else {
+            currentFunctionalityName = null;
+            finished = true;
+            parser.close();
+        }
+    }
+
+    private void skipRemainingTraces() throws IOException {
+        if (!tracesArrayOpen)
+            return;
+
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null)
+                throw new IOException("Unexpected end of the accesses representation");
+            parser.skipChildren();
+        }
+        tracesArrayOpen = false;
+    }
+
+    // Moves the parser to the END_OBJECT of the entered functionality
+    private void skipRemainingFunctionality() throws IOException {
+        skipRemainingTraces();
+
+        if (parser.currentToken() == JsonToken.END_OBJECT)
+            return; // the functionality had no traces and was already fully consumed
+
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+
+        if (token != JsonToken.END_OBJECT)
+            throw new IOException("Error parsing functionality " + currentFunctionalityName);
+    }
+
+    // Decodes the next trace of the requested functionality, returns null when there are no more traces
+    TraceDto nextTrace() throws IOException {
+        if (!tracesArrayOpen)
+            return null;
+
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+            tracesArrayOpen = false;
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT)
+            throw new IOException("Error parsing trace of functionality " + currentFunctionalityName);
+
+        return readTrace();
+    }
+
+    // Decodes the trace whose START_OBJECT is the parser's current token
+    private TraceDto readTrace() throws IOException {
+        traceOffset = parser.getTokenLocation().getByteOffset();
+
+        JsonToken token;
+        int id = 0;
+        int frequency = 1;
+        int elementsSize = 0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            token = parser.nextToken();
+
+            switch (fieldName) {
+                case "id":
+                    id = parser.getIntValue();
+                    break;
+                case "f":
+                    frequency = parser.getIntValue();
+                    break;
+                case "a":
+                    if (token != JsonToken.START_ARRAY)
+                        throw new IOException("Error parsing accesses of functionality " + currentFunctionalityName);
+                    while (parser.nextToken() == JsonToken.START_ARRAY) {
+                        if (elementsSize == elementsBuffer.length)
+                            elementsBuffer = Arrays.copyOf(elementsBuffer, elementsSize * 2);
+                        elementsBuffer[elementsSize++] = nextElement();
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
             }
         }
 
-        if (elements.size() > 0)
+        if (elementsSize > 0)
             tracesCounter++;
 
-        return new TraceDto(traceJSON.getInt("id"), traceJSON.has("f")? traceJSON.getInt("f") : 1, elements);
+        traceLength = (int) (parser.getCurrentLocation().getByteOffset() - traceOffset);
+
+        return new TraceDto(id, frequency, Arrays.copyOf(elementsBuffer, elementsSize));
+    }
+
+    // Decodes either ["R", entityID, occurrences?] or [count, occurrences?], the parser is at its START_ARRAY
+    private long nextElement() throws IOException {
+        try {
+            return TraceElementsDeserializer.readElement(parser);
+        } catch (IOException e) {
+            throw new IOException("Error parsing trace element of functionality " + currentFunctionalityName, e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import static pt.ist.socialsoftware.mono2micro.utils.Constants.SIMILARITY_MATRIX_THREADS;
+
+/**
+ * Fills the rows of a matrix concurrently on a dedicated pool, whose size is given by similarity.matrix.threads
+ * (0 means one thread per core). Rows are split in contiguous blocks and, as each row only writes its own cells from
+ * values computed independently of the other rows, the matrix is the same whatever the number of threads.
+ * Progress of matrices with at least PROGRESS_MIN_ROWS rows is logged as blocks end and the blocks not yet started
+ * are skipped once a block fails or the caller is interrupted.
+ */
+public final class MatrixRowsFiller {
+    private static final Logger logger = LoggerFactory.getLogger(MatrixRowsFiller.class);
+    private static final int BLOCKS_PER_THREAD = 4;
+    private static final int PROGRESS_REPORTS = 10;
+    private static final int PROGRESS_MIN_ROWS = 1000;
+    private static ForkJoinPool pool = null;
+
+    private MatrixRowsFiller() {}
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null)
+            pool = new ForkJoinPool(SIMILARITY_MATRIX_THREADS > 0 ? SIMILARITY_MATRIX_THREADS : Runtime.getRuntime().availableProcessors());
+        return pool;
+    }
+
+    // Calls rowFiller for each row in [0, rowsCount), returns when every row is filled
+    public static void fill(String description, int rowsCount, IntConsumer rowFiller) {
+        if (rowsCount == 0)
+            return;
+
+        ForkJoinPool pool = getPool();
+        int blocksCount = Math.min(rowsCount, pool.getParallelism() * BLOCKS_PER_THREAD);
+        int blockSize = (rowsCount + blocksCount - 1) / blocksCount;
+        int progressStep = Math.max(1, rowsCount / PROGRESS_REPORTS);
+
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        AtomicInteger filledRows = new AtomicInteger(0);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+
+        for (int fromRow = 0; fromRow < rowsCount; fromRow += blockSize) {
+            int blockFromRow = fromRow;
+            int blockToRow = Math.min(rowsCount, fromRow + blockSize);
+
+            tasks.add(pool.submit(() -> {
+                if (cancelled.get())
+                    return;
+
+                for (int i = blockFromRow; i < blockToRow; i++)
+                    rowFiller.accept(i);
+
+                int filled = filledRows.addAndGet(blockToRow - blockFromRow);
+                if (rowsCount >= PROGRESS_MIN_ROWS && (filled - (blockToRow - blockFromRow)) / progressStep != filled / progressStep)
+                    logger.info("{}: {}/{} rows filled", description, filled, rowsCount);
+            }));
+        }
+
+        try {
+            for (ForkJoinTask<?> task : tasks)
+                task.get();
+
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException(description + " was interrupted");
+
+        } catch (ExecutionException e) {
+            cancelled.set(true);
+
+            // The pool may rethrow a copy of the block's exception, whose cause is the original
+            Throwable cause = e.getCause();
+            while (cause.getCause() != null && cause.getCause().getClass() == cause.getClass())
+                cause = cause.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+
+        } finally {
+            for (ForkJoinTask<?> task : tasks)
+                task.cancel(false); // no effect on the finished ones
+        }
+    }
+}
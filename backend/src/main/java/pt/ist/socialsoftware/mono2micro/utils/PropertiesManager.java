@@ -19,6 +19,33 @@ public class PropertiesManager {
 	@Value("${codebases.path}")
 	private String codebasesPath;
 
+	@Value("${accesses.binary.encoding:false}")
+	private boolean accessesBinaryEncoding;
+
+	@Value("${traces.cache.max.size.mb:256}")
+	private long tracesCacheMaxSizeMB;
+
+	@Value("${traces.decoding.threads:0}")
+	private int tracesDecodingThreads;
+
+	@Value("${similarity.matrix.threads:0}")
+	private int similarityMatrixThreads;
+
+	@Value("${similarity.matrix.mapped.threshold.mb:1024}")
+	private long similarityMatrixMappedThresholdMB;
+
+	@Value("${similarity.matrix.sparse.max.density:0.25}")
+	private double similarityMatrixSparseMaxDensity;
+
+	@Value("${similarity.matrix.format:binary}")
+	private String similarityMatrixFormat;
+
+	@Value("${similarity.matrix.neighbours.ties.min.similarity:0.5}")
+	private double similarityMatrixNeighboursTiesMinSimilarity;
+
+	@Value("${similarity.sequence.pairs.max.mb:0}")
+	private long similaritySequencePairsMaxMB;
+
 	@Bean(name="scriptsAddress")
 	public String getScriptsAddress() {
 		return scriptsAddress;
@@ -28,4 +55,49 @@ public class PropertiesManager {
 	public String getCodebasesPath() {
 		return codebasesPath;
 	}
+
+	@Bean(name="accessesBinaryEncoding")
+	public Boolean getAccessesBinaryEncoding() {
+		return accessesBinaryEncoding;
+	}
+
+	@Bean(name="tracesCacheMaxSizeMB")
+	public Long getTracesCacheMaxSizeMB() {
+		return tracesCacheMaxSizeMB;
+	}
+
+	@Bean(name="tracesDecodingThreads")
+	public Integer getTracesDecodingThreads() {
+		return tracesDecodingThreads;
+	}
+
+	@Bean(name="similarityMatrixThreads")
+	public Integer getSimilarityMatrixThreads() {
+		return similarityMatrixThreads;
+	}
+
+	@Bean(name="similarityMatrixMappedThresholdMB")
+	public Long getSimilarityMatrixMappedThresholdMB() {
+		return similarityMatrixMappedThresholdMB;
+	}
+
+	@Bean(name="similarityMatrixSparseMaxDensity")
+	public Double getSimilarityMatrixSparseMaxDensity() {
+		return similarityMatrixSparseMaxDensity;
+	}
+
+	@Bean(name="similarityMatrixFormat")
+	public String getSimilarityMatrixFormat() {
+		return similarityMatrixFormat;
+	}
+
+	@Bean(name="similarityMatrixNeighboursTiesMinSimilarity")
+	public Double getSimilarityMatrixNeighboursTiesMinSimilarity() {
+		return similarityMatrixNeighboursTiesMinSimilarity;
+	}
+
+	@Bean(name="similaritySequencePairsMaxMB")
+	public Long getSimilaritySequencePairsMaxMB() {
+		return similaritySequencePairsMaxMB;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+
+import java.util.Arrays;
+
+/**
+ * Analyses a trace directly on its RLE-Sequitur form, without expanding it.
+ * The rules are visited once with the multiplier given by the occurrences of the rules that contain them, so the
+ * cost is proportional to the compressed size of the trace. Every occurrence count is capped by maxOccurrences,
+ * which gives the same results as analysing TraceDto.forEachExpandedAccess(maxOccurrences, ...).
+ *
+ * Adjacent pairs of different entities of the expanded trace are reported to a PairConsumer as they are found,
+ * a given pair may be reported more than once with partial counts.
+ */
+public class TraceAnalytics {
+    private static final int NONE = -1;
+
+    @FunctionalInterface
+    public interface PairConsumer {
+        void accept(short e1ID, short e2ID, long count);
+    }
+
+    private final TraceDto trace;
+    private final int maxOccurrences;
+    private final PairConsumer pairConsumer;
+
+    private final short[] entities; // sorted entity IDs of the trace, null when entities are not analysed
+    private final long[] accessesCount; // aligned with entities
+    private final byte[] modes; // aligned with entities, "R" -> 1, "W" -> 2, "RW" -> 3
+    private int differentAccessesCount;
+
+    private long length;
+
+    // Result of the last visited segment
+    private int segmentFirst;
+    private int segmentLast;
+    private long segmentLength;
+
+    private TraceAnalytics(TraceDto trace, int maxOccurrences, PairConsumer pairConsumer, boolean withEntities) {
+        this.trace = trace;
+        this.maxOccurrences = maxOccurrences;
+        this.pairConsumer = pairConsumer;
+
+        if (withEntities) {
+            this.entities = collectEntities(trace);
+            this.accessesCount = new long[entities.length];
+            this.modes = new byte[entities.length];
+            this.differentAccessesCount = trace.getDifferentAccessesCount();
+        }
+        else {
+            this.entities = null;
+            this.accessesCount = null;
+            this.modes = null;
+        }
+
+        visitSegment(0, trace.size(), 1);
+        this.length = segmentLength;
+    }
+
+    public static TraceAnalytics analyse(TraceDto trace, int maxOccurrences, PairConsumer pairConsumer) {
+        return new TraceAnalytics(trace, maxOccurrences, pairConsumer, true);
+    }
+
+    public static long getUncompressedLength(TraceDto trace) {
+        return new TraceAnalytics(trace, Integer.MAX_VALUE, null, false).length;
+    }
+
+    // Length of the expanded trace
+    public long getLength() { return length; }
+
+    public int getDifferentAccessesCount() { return differentAccessesCount; }
+
+    public short[] getEntities() { return entities; }
+
+    public long getAccessesCount(short entityID) {
+        int i = Arrays.binarySearch(entities, entityID);
+        return i < 0 ? 0 : accessesCount[i];
+    }
+
+    public byte getModes(short entityID) {
+        int i = Arrays.binarySearch(entities, entityID);
+        return i < 0 ? 0 : modes[i];
+    }
+
+    // The modes of the i-th entity of getEntities()
+    public byte getModesAt(int i) { return modes[i]; }
+
+    public long getAccessesCountAt(int i) { return accessesCount[i]; }
+
+    private static short[] collectEntities(TraceDto trace) {
+        short[] entities = new short[trace.size()];
+        int entitiesSize = 0;
+
+        for (int i = 0; i < trace.size(); i++)
+            if (!trace.isRule(i))
+                entities[entitiesSize++] = trace.getEntityID(i);
+
+        Arrays.sort(entities, 0, entitiesSize);
+
+        int uniqueSize = 0;
+        for (int i = 0; i < entitiesSize; i++)
+            if (uniqueSize == 0 || entities[i] != entities[uniqueSize - 1])
+                entities[uniqueSize++] = entities[i];
+
+        return Arrays.copyOf(entities, uniqueSize);
+    }
+
+    // Visits [from, to[ once, everything found inside happens "multiplier" times in the expanded trace
+    private void visitSegment(int from, int to, long multiplier) {
+        int first = NONE;
+        int last = NONE;
+        long expandedLength = 0;
+
+        int i = from;
+        while (i < to) {
+            long repetitions = Math.min(trace.getOccurrences(i), maxOccurrences);
+            int itemFirst;
+            int itemLast;
+            long itemLength;
+
+            if (trace.isRule(i)) {
+                int count = trace.getCount(i);
+                visitSegment(i + 1, i + 1 + count, multiplier * repetitions);
+                itemFirst = segmentFirst;
+                itemLast = segmentLast;
+                itemLength = segmentLength;
+
+                // the end of each repetition is followed by the start of the next one
+                if (itemFirst != NONE && repetitions > 1 && itemLast != itemFirst)
+                    emitPair(itemLast, itemFirst, multiplier * (repetitions - 1));
+
+                i += 1 + count;
+            }
+            else {
+                short entityID = trace.getEntityID(i);
+                itemFirst = entityID;
+                itemLast = entityID;
+                itemLength = 1;
+
+                if (entities != null) {
+                    int entityIndex = Arrays.binarySearch(entities, entityID);
+                    accessesCount[entityIndex] += multiplier * repetitions;
+                    modes[entityIndex] |= trace.getMode(i);
+                }
+                i++;
+            }
+
+            if (itemFirst != NONE) {
+                if (last != NONE && last != itemFirst)
+                    emitPair(last, itemFirst, multiplier);
+                if (first == NONE)
+                    first = itemFirst;
+                last = itemLast;
+            }
+            expandedLength += itemLength * repetitions;
+        }
+
+        segmentFirst = first;
+        segmentLast = last;
+        segmentLength = expandedLength;
+    }
+
+    private void emitPair(int e1ID, int e2ID, long count) {
+        if (pairConsumer != null)
+            pairConsumer.accept((short) e1ID, (short) e2ID, count);
+    }
+}
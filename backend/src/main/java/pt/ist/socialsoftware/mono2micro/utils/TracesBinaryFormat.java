@@ -0,0 +1,304 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+import pt.ist.socialsoftware.mono2micro.functionality.serializer.TraceElementsSerializer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Binary encoding of an accesses representation, an alternative to the JSON one:
+ *
+ *   file          := "M2MT" version:u8 functionalitiesCount directory functionalityBlock*
+ *   directory     := (nameLength nameUTF8 frequency tracesCount blockLength)*
+ *   functionality := trace*
+ *   trace         := id frequency elementsCount element*
+ *   element       := tag [occurrences]
+ *
+ * Every number is an unsigned varint. The tag of an element packs (value << 3) | (hasOccurrences << 2) | kind,
+ * where kind is RULE (value is the rule's count) or the access mode (value is the entity ID), so most elements
+ * take one or two bytes. Traces are decoded straight into the packed long[] of TraceDto.
+ */
+public final class TracesBinaryFormat {
+    private static final byte[] MAGIC = {'M', '2', 'M', 'T'};
+    private static final int VERSION = 1;
+
+    private static final int RULE = TraceDto.RULE; // kinds 1 to 3 are the access modes
+    private static final int HAS_OCCURRENCES = 0b100;
+
+    private TracesBinaryFormat() {}
+
+    public static boolean isBinary(byte[] file) {
+        return file.length >= MAGIC.length && Arrays.equals(Arrays.copyOf(file, MAGIC.length), MAGIC);
+    }
+
+    public static class FunctionalityHeader {
+        private final String name;
+        private final int frequency;
+        private final int tracesCount;
+        private final long blockLength;
+
+        FunctionalityHeader(String name, int frequency, int tracesCount, long blockLength) {
+            this.name = name;
+            this.frequency = frequency;
+            this.tracesCount = tracesCount;
+            this.blockLength = blockLength;
+        }
+
+        public String getName() { return name; }
+        public int getFrequency() { return frequency; }
+        public int getTracesCount() { return tracesCount; }
+        public long getBlockLength() { return blockLength; }
+    }
+
+    // Reads the header and directory, leaving the stream at the first functionality block
+    public static List<FunctionalityHeader> readDirectory(InputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        readFully(in, magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("Not a binary accesses representation");
+        int version = in.read();
+        if (version != VERSION)
+            throw new IOException("Unsupported binary accesses representation version " + version);
+
+        int functionalitiesCount = readVarint(in);
+        List<FunctionalityHeader> directory = new ArrayList<>(functionalitiesCount);
+        for (int i = 0; i < functionalitiesCount; i++) {
+            byte[] name = new byte[readVarint(in)];
+            readFully(in, name);
+            directory.add(new FunctionalityHeader(
+                    new String(name, StandardCharsets.UTF_8),
+                    readVarint(in),
+                    readVarint(in),
+                    readVarLong(in)
+            ));
+        }
+        return directory;
+    }
+
+    public static TraceDto readTrace(InputStream in) throws IOException {
+        int id = readVarint(in);
+        int frequency = readVarint(in);
+        return new TraceDto(id, frequency, readElements(in, readVarint(in)));
+    }
+
+    private static long[] readElements(InputStream in, int elementsCount) throws IOException {
+        long[] elements = new long[elementsCount];
+        for (int i = 0; i < elementsCount; i++) {
+            int tag = readVarint(in);
+            int occurrences = (tag & HAS_OCCURRENCES) != 0 ? readVarint(in) : 1;
+            int kind = tag & 0b11;
+            elements[i] = kind == RULE ?
+                    TraceDto.packRule(tag >>> 3, occurrences) :
+                    TraceDto.packAccess((short) (tag >>> 3), (byte) kind, occurrences);
+        }
+        return elements;
+    }
+
+    public static byte[] fromJSON(InputStream jsonFile) throws IOException {
+        Encoder encoder = new Encoder();
+
+        try (FunctionalityTracesIterator iter = new FunctionalityTracesIterator(jsonFile, 0)) {
+            Iterator<String> functionalitiesNames = iter.getFunctionalitiesNames();
+            while (functionalitiesNames.hasNext()) {
+                String functionalityName = functionalitiesNames.next();
+                iter.getFunctionalityWithName(functionalityName);
+
+                TraceDto t;
+                while ((t = iter.nextTrace()) != null)
+                    encoder.addTrace(t);
+                encoder.addFunctionality(functionalityName, iter.getFunctionalityFrequency());
+            }
+        }
+        return encoder.toByteArray();
+    }
+
+    /**
+     * Folds the traces of a functionality that have the same elements into the first one, whose frequency becomes
+     * the sum of their frequencies. The same array is returned when no functionality has identical traces.
+     */
+    public static byte[] foldIdenticalTraces(byte[] binaryFile) throws IOException {
+        Encoder encoder = new Encoder();
+        boolean folded = false;
+
+        try (InputStream in = new BufferedInputStream(new ByteArrayInputStream(binaryFile))) {
+            for (FunctionalityHeader functionality : readDirectory(in)) {
+                Map<TraceElements, TraceDto> uniqueTraces = new LinkedHashMap<>(); // kept in file order
+                for (int i = 0; i < functionality.getTracesCount(); i++) {
+                    TraceDto t = readTrace(in);
+                    TraceDto firstTrace = uniqueTraces.putIfAbsent(new TraceElements(t.getElements()), t);
+                    if (firstTrace != null)
+                        firstTrace.setFrequency(firstTrace.getFrequency() + t.getFrequency());
+                }
+
+                for (TraceDto t : uniqueTraces.values())
+                    encoder.addTrace(t);
+                encoder.addFunctionality(functionality.getName(), functionality.getFrequency());
+                folded |= uniqueTraces.size() != functionality.getTracesCount();
+            }
+        }
+        return folded ? encoder.toByteArray() : binaryFile;
+    }
+
+    // Folds the identical traces of a JSON representation, which is written back as JSON. The same array is returned when nothing is folded
+    public static byte[] foldIdenticalJSONTraces(byte[] jsonFile) throws IOException {
+        byte[] binaryFile = fromJSON(new ByteArrayInputStream(jsonFile));
+        byte[] foldedFile = foldIdenticalTraces(binaryFile);
+        if (foldedFile == binaryFile)
+            return jsonFile;
+
+        ByteArrayOutputStream foldedJSONFile = new ByteArrayOutputStream(jsonFile.length);
+        toJSON(new ByteArrayInputStream(foldedFile), foldedJSONFile);
+        return foldedJSONFile.toByteArray();
+    }
+
+    // Hashes the packed elements of a trace, so that identical traces are found by content
+    private static class TraceElements {
+        private final long[] elements;
+        private final int hashCode;
+
+        TraceElements(long[] elements) {
+            this.elements = elements;
+            this.hashCode = Arrays.hashCode(elements);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return object instanceof TraceElements && Arrays.equals(elements, ((TraceElements) object).elements);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    // Traces are added to the block of the current functionality, which is closed by addFunctionality
+    private static class Encoder {
+        private final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        private int functionalitiesCount;
+        private int tracesCount;
+
+        void addTrace(TraceDto t) throws IOException {
+            writeTrace(block, t);
+            tracesCount++;
+        }
+
+        void addFunctionality(String functionalityName, int frequency) throws IOException {
+            byte[] name = functionalityName.getBytes(StandardCharsets.UTF_8);
+            writeVarint(directory, name.length);
+            directory.write(name);
+            writeVarint(directory, frequency);
+            writeVarint(directory, tracesCount);
+            writeVarLong(directory, block.size());
+            block.writeTo(blocks);
+            block.reset();
+            tracesCount = 0;
+            functionalitiesCount++;
+        }
+
+        byte[] toByteArray() throws IOException {
+            ByteArrayOutputStream file = new ByteArrayOutputStream(MAGIC.length + 6 + directory.size() + blocks.size());
+            file.write(MAGIC);
+            file.write(VERSION);
+            writeVarint(file, functionalitiesCount);
+            directory.writeTo(file);
+            blocks.writeTo(file);
+            return file.toByteArray();
+        }
+    }
+
+    private static void writeTrace(OutputStream out, TraceDto t) throws IOException {
+        writeVarint(out, t.getId());
+        writeVarint(out, t.getFrequency());
+        writeVarint(out, t.size());
+
+        for (int i = 0; i < t.size(); i++) {
+            int tag = t.isRule(i) ?
+                    t.getCount(i) << 3 | RULE :
+                    t.getEntityID(i) << 3 | t.getMode(i);
+
+            if (t.getOccurrences(i) != 1) {
+                writeVarint(out, tag | HAS_OCCURRENCES);
+                writeVarint(out, t.getOccurrences(i));
+            }
+            else writeVarint(out, tag);
+        }
+    }
+
+    // Exports the binary encoding in the JSON format used for uploads
+    public static void toJSON(InputStream binaryFile, OutputStream jsonFile) throws IOException {
+        try (InputStream in = new BufferedInputStream(binaryFile);
+             JsonGenerator generator = new JsonFactory().createGenerator(jsonFile)
+        ) {
+            List<FunctionalityHeader> directory = readDirectory(in);
+            TraceElementsSerializer elementsSerializer = new TraceElementsSerializer();
+
+            generator.writeStartObject();
+            for (FunctionalityHeader functionality : directory) {
+                generator.writeObjectFieldStart(functionality.getName());
+                generator.writeNumberField("f", functionality.getFrequency());
+                generator.writeArrayFieldStart("t");
+
+                for (int i = 0; i < functionality.getTracesCount(); i++) {
+                    TraceDto t = readTrace(in);
+
+                    generator.writeStartObject();
+                    generator.writeNumberField("id", t.getId());
+                    generator.writeNumberField("f", t.getFrequency());
+                    generator.writeFieldName("a");
+                    elementsSerializer.serialize(t.getElements(), generator, null);
+                    generator.writeEndObject();
+                }
+
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static int readVarint(InputStream in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b == -1)
+                throw new EOFException("Unexpected end of the binary accesses representation");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint in the binary accesses representation");
+    }
+
+    private static void readFully(InputStream in, byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            int n = in.read(bytes, read, bytes.length - read);
+            if (n == -1)
+                throw new EOFException("Unexpected end of the binary accesses representation");
+            read += n;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+
+import java.util.*;
+
+import static pt.ist.socialsoftware.mono2micro.utils.Constants.TRACES_CACHE_MAX_BYTES;
+
+/**
+ * Decoded traces of each functionality, shared by every FunctionalityTracesIterator created from a representation.
+ * Entries are evicted in LRU order once their estimated size goes over the configured budget.
+ * A single instance is used since domain objects obtain their beans from ContextManager, whose context is
+ * different from the application's one.
+ */
+public class TracesCache {
+    private static TracesCache tracesCache = null;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    TracesCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static synchronized TracesCache get() {
+        if (tracesCache == null)
+            tracesCache = new TracesCache(TRACES_CACHE_MAX_BYTES);
+        return tracesCache;
+    }
+
+    public synchronized List<TraceDto> getTraces(String representationName, Constants.TraceType traceType, int tracesMaxLimit, String functionalityName) {
+        Entry entry = entries.get(new Key(representationName, traceType, tracesMaxLimit, functionalityName));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.traces;
+    }
+
+    public synchronized void putTraces(String representationName, Constants.TraceType traceType, int tracesMaxLimit, String functionalityName, List<TraceDto> traces) {
+        Entry entry = new Entry(Collections.unmodifiableList(new ArrayList<>(traces)), estimateBytes(functionalityName, traces));
+        if (entry.bytes > maxBytes)
+            return;
+
+        Entry previous = entries.put(new Key(representationName, traceType, tracesMaxLimit, functionalityName), entry);
+        if (previous != null)
+            bytes -= previous.bytes;
+        bytes += entry.bytes;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().bytes;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    // Used when a representation is deleted
+    public synchronized void invalidate(String representationName) {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Entry> entry = iterator.next();
+            if (entry.getKey().representationName.equals(representationName)) {
+                bytes -= entry.getValue().bytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("hits", hits);
+        statistics.put("misses", misses);
+        statistics.put("evictions", evictions);
+        statistics.put("entries", (long) entries.size());
+        statistics.put("bytes", bytes);
+        statistics.put("maxBytes", maxBytes);
+        return statistics;
+    }
+
+    // Rough heap size of the key and of the traces' objects and packed elements
+    private static long estimateBytes(String functionalityName, List<TraceDto> traces) {
+        long estimate = 128 + 2L * functionalityName.length();
+        for (TraceDto t : traces)
+            estimate += 48 + 8L * t.size();
+        return estimate;
+    }
+
+    private static class Entry {
+        private final List<TraceDto> traces;
+        private final long bytes;
+
+        Entry(List<TraceDto> traces, long bytes) {
+            this.traces = traces;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class Key {
+        private final String representationName;
+        private final Constants.TraceType traceType;
+        private final int tracesMaxLimit;
+        private final String functionalityName;
+
+        Key(String representationName, Constants.TraceType traceType, int tracesMaxLimit, String functionalityName) {
+            this.representationName = representationName;
+            this.traceType = traceType;
+            this.tracesMaxLimit = tracesMaxLimit;
+            this.functionalityName = functionalityName;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key))
+                return false;
+            Key key = (Key) object;
+            return tracesMaxLimit == key.tracesMaxLimit &&
+                    traceType == key.traceType &&
+                    representationName.equals(key.representationName) &&
+                    functionalityName.equals(key.functionalityName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(representationName, traceType, tracesMaxLimit, functionalityName);
+        }
+    }
+}
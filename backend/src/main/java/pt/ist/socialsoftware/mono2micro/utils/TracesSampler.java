@@ -0,0 +1,338 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+
+import java.util.*;
+
+/**
+ * Selects at most sampleSize traces of a functionality while they are streamed, so only the sample is kept in memory.
+ * The random generator is seeded with the functionality's name, which makes samples reproducible.
+ * When the functionality has no more traces than the sample size every trace is selected unchanged, otherwise the
+ * frequency of the selected traces is set so that weighting them by frequency estimates the proportions of the whole
+ * functionality:
+ * - RESERVOIR_SAMPLE: uniform sample, frequencies are kept
+ * - FREQUENCY_WEIGHTED_SAMPLE: traces are selected with probability proportional to their frequency, which is set to 1
+ * - STRATIFIED_SAMPLE: traces are grouped by their set of different accesses and each group gets a share of the sample
+ *   proportional to its size, at least one trace while the sample size allows it. Frequencies are scaled by the
+ *   inverse of the share of the group that was selected. There are at most sampleSize groups, the traces of the sets
+ *   of accesses seen after that being one more group.
+ * Samplers keep O(sampleSize) traces whatever the number of traces offered.
+ * The sample is returned in file order, 0 as sample size means no limit.
+ */
+public abstract class TracesSampler {
+    private static final long SEED = 0x6D326D54L;
+
+    protected final int sampleSize;
+    protected final Random random;
+    protected long tracesCount; // #traces offered
+
+    private TracesSampler(int sampleSize, String functionalityName) {
+        this.sampleSize = sampleSize == 0 ? Integer.MAX_VALUE : sampleSize;
+        this.random = new Random(SEED ^ functionalityName.hashCode());
+    }
+
+    public static TracesSampler create(Constants.TraceType traceType, int sampleSize, String functionalityName) {
+        switch (traceType) {
+            case RESERVOIR_SAMPLE:
+                return new ReservoirSampler(sampleSize, functionalityName);
+            case FREQUENCY_WEIGHTED_SAMPLE:
+                return new FrequencyWeightedSampler(sampleSize, functionalityName);
+            case STRATIFIED_SAMPLE:
+                return new StratifiedSampler(sampleSize, functionalityName);
+            default:
+                throw new RuntimeException("Trace type " + traceType + " is not a sampling trace type.");
+        }
+    }
+
+    public abstract void offer(TraceDto t);
+
+    public abstract List<TraceDto> getSample();
+
+    private static TraceDto withFrequency(TraceDto t, int frequency) {
+        return t.getFrequency() == frequency ? t : new TraceDto(t.getId(), frequency, t.getElements());
+    }
+
+    private static List<TraceDto> inFileOrder(List<SampledTrace> sampledTraces) {
+        sampledTraces.sort(Comparator.comparingLong(sampledTrace -> sampledTrace.position));
+
+        List<TraceDto> traces = new ArrayList<>(sampledTraces.size());
+        for (SampledTrace sampledTrace : sampledTraces)
+            traces.add(sampledTrace.trace);
+        return traces;
+    }
+
+    private static class SampledTrace {
+        private final long position;
+        private final TraceDto trace;
+        private final double key; // only used by the frequency weighted and stratified samplings
+
+        SampledTrace(long position, TraceDto trace, double key) {
+            this.position = position;
+            this.trace = trace;
+            this.key = key;
+        }
+    }
+
+    // Algorithm R
+    private static class Reservoir {
+        private final int capacity;
+        private final List<SampledTrace> sampledTraces = new ArrayList<>();
+        private long offered;
+
+        Reservoir(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void offer(long position, TraceDto t, Random random) {
+            offered++;
+            if (sampledTraces.size() < capacity)
+                sampledTraces.add(new SampledTrace(position, t, 0));
+            else {
+                long j = (long) (random.nextDouble() * offered);
+                if (j < capacity)
+                    sampledTraces.set((int) j, new SampledTrace(position, t, 0));
+            }
+        }
+    }
+
+    private static class ReservoirSampler extends TracesSampler {
+        private final Reservoir reservoir;
+
+        ReservoirSampler(int sampleSize, String functionalityName) {
+            super(sampleSize, functionalityName);
+            this.reservoir = new Reservoir(this.sampleSize);
+        }
+
+        @Override
+        public void offer(TraceDto t) {
+            reservoir.offer(tracesCount++, t, random);
+        }
+
+        @Override
+        public List<TraceDto> getSample() {
+            return inFileOrder(new ArrayList<>(reservoir.sampledTraces));
+        }
+    }
+
+    // Efraimidis and Spirakis' A-Res, the traces with the highest u^(1/frequency) are kept
+    private static class FrequencyWeightedSampler extends TracesSampler {
+        private final PriorityQueue<SampledTrace> sampledTraces = new PriorityQueue<>(Comparator.comparingDouble(sampledTrace -> sampledTrace.key));
+
+        FrequencyWeightedSampler(int sampleSize, String functionalityName) {
+            super(sampleSize, functionalityName);
+        }
+
+        @Override
+        public void offer(TraceDto t) {
+            double key = Math.log(1 - random.nextDouble()) / Math.max(1, t.getFrequency()); // log(u^(1/frequency))
+            long position = tracesCount++;
+
+            if (sampledTraces.size() < sampleSize)
+                sampledTraces.add(new SampledTrace(position, t, key));
+            else if (key > sampledTraces.peek().key) {
+                sampledTraces.poll();
+                sampledTraces.add(new SampledTrace(position, t, key));
+            }
+        }
+
+        @Override
+        public List<TraceDto> getSample() {
+            List<TraceDto> traces = inFileOrder(new ArrayList<>(sampledTraces));
+            if (tracesCount > sampleSize)
+                traces.replaceAll(t -> withFrequency(t, 1));
+            return traces;
+        }
+    }
+
+    /*
+     * Each trace gets a random key, the traces of a stratum with the smallest keys being a uniform sample of it. Only
+     * the 2 * sampleSize smallest keys overall and the STRATUM_KEPT_TRACES smallest ones of each stratum are kept: a
+     * stratum has about twice its share of the sample among the former and the latter cover the small strata. When a
+     * stratum is still left with fewer traces than its share, the rest goes to the biggest strata.
+     */
+    private static class StratifiedSampler extends TracesSampler {
+        private static final int STRATUM_KEPT_TRACES = 2;
+
+        private final Map<AccessesSignature, Stratum> strata = new LinkedHashMap<>(); // in order of appearance
+        private final Stratum overflow = new Stratum(); // traces whose signature came after sampleSize strata
+        private final PriorityQueue<StratumTrace> smallestKeys = new PriorityQueue<>( // the biggest key first
+                (st1, st2) -> Double.compare(st2.sampledTrace.key, st1.sampledTrace.key)
+        );
+        private final long smallestKeysCapacity;
+
+        StratifiedSampler(int sampleSize, String functionalityName) {
+            super(sampleSize, functionalityName);
+            this.smallestKeysCapacity = 2L * this.sampleSize;
+        }
+
+        @Override
+        public void offer(TraceDto t) {
+            AccessesSignature signature = new AccessesSignature(t);
+            Stratum stratum = strata.get(signature);
+            if (stratum == null) {
+                if (strata.size() < sampleSize)
+                    strata.put(signature, stratum = new Stratum());
+                else stratum = overflow;
+            }
+            stratum.offered++;
+
+            StratumTrace stratumTrace = new StratumTrace(new SampledTrace(tracesCount++, t, random.nextDouble()), stratum);
+            stratum.keep(stratumTrace);
+            if (smallestKeys.size() < smallestKeysCapacity)
+                smallestKeys.add(stratumTrace);
+            else if (stratumTrace.sampledTrace.key < smallestKeys.peek().sampledTrace.key) {
+                smallestKeys.poll();
+                smallestKeys.add(stratumTrace);
+            }
+        }
+
+        @Override
+        public List<TraceDto> getSample() {
+            List<Stratum> allStrata = new ArrayList<>(strata.values());
+            if (overflow.offered > 0)
+                allStrata.add(overflow);
+
+            for (StratumTrace stratumTrace : smallestKeys)
+                stratumTrace.stratum.kept.add(stratumTrace.sampledTrace);
+            for (Stratum stratum : allStrata)
+                for (StratumTrace stratumTrace : stratum.smallestKeys)
+                    stratum.kept.add(stratumTrace.sampledTrace);
+
+            int[] allocation = allocate(allStrata);
+            int[] taken = new int[allStrata.size()];
+            int shortfall = 0;
+            for (int i = 0; i < allStrata.size(); i++) {
+                taken[i] = Math.min(allocation[i], allStrata.get(i).kept.size());
+                shortfall += allocation[i] - taken[i];
+            }
+            for (; shortfall > 0; shortfall--) {
+                int biggest = -1;
+                for (int i = 0; i < allStrata.size(); i++)
+                    if (taken[i] < allStrata.get(i).kept.size() && (biggest == -1 || allStrata.get(i).offered > allStrata.get(biggest).offered))
+                        biggest = i;
+                if (biggest == -1)
+                    break;
+                taken[biggest]++;
+            }
+
+            List<SampledTrace> sampledTraces = new ArrayList<>();
+            for (int i = 0; i < allStrata.size(); i++) {
+                Stratum stratum = allStrata.get(i);
+                List<SampledTrace> kept = new ArrayList<>(stratum.kept);
+                kept.sort(Comparator.comparingDouble(sampledTrace -> sampledTrace.key));
+
+                for (SampledTrace sampledTrace : kept.subList(0, taken[i])) {
+                    int frequency = taken[i] == stratum.offered ?
+                            sampledTrace.trace.getFrequency() :
+                            (int) Math.max(1, Math.round((double) sampledTrace.trace.getFrequency() * stratum.offered / taken[i]));
+                    sampledTraces.add(new SampledTrace(sampledTrace.position, withFrequency(sampledTrace.trace, frequency), 0));
+                }
+            }
+            return inFileOrder(sampledTraces);
+        }
+
+        // One trace per stratum, the biggest ones first when there are more strata than the sample size, and then
+        // the rest of the sample in proportion to the strata's sizes by largest remainder
+        private int[] allocate(List<Stratum> allStrata) {
+            int[] allocation = new int[allStrata.size()];
+            if (allStrata.isEmpty())
+                return allocation;
+
+            if (allStrata.size() >= sampleSize) {
+                Integer[] bySize = new Integer[allStrata.size()];
+                for (int i = 0; i < bySize.length; i++)
+                    bySize[i] = i;
+                Arrays.sort(bySize, (i1, i2) -> Long.compare(allStrata.get(i2).offered, allStrata.get(i1).offered));
+                for (int i = 0; i < sampleSize; i++)
+                    allocation[bySize[i]] = 1;
+                return allocation;
+            }
+
+            long remainingTraces = tracesCount - allStrata.size();
+            long remainingSample = Math.min(sampleSize, tracesCount) - allStrata.size();
+            double[] remainders = new double[allStrata.size()];
+            long allocated = 0;
+
+            for (int i = 0; i < allStrata.size(); i++) {
+                double share = remainingTraces == 0 ? 0 : (double) (allStrata.get(i).offered - 1) * remainingSample / remainingTraces;
+                allocation[i] = 1 + (int) share;
+                remainders[i] = share - (int) share;
+                allocated += (int) share;
+            }
+
+            while (allocated < remainingSample) {
+                int best = -1;
+                for (int i = 0; i < allStrata.size(); i++)
+                    if (allocation[i] < allStrata.get(i).offered && (best == -1 || remainders[i] > remainders[best]))
+                        best = i;
+                allocation[best]++;
+                remainders[best] = -1;
+                allocated++;
+            }
+            return allocation;
+        }
+
+        private static class Stratum {
+            private final List<StratumTrace> smallestKeys = new ArrayList<>(STRATUM_KEPT_TRACES);
+            private final Set<SampledTrace> kept = new HashSet<>(); // filled when sampling
+            private long offered;
+
+            void keep(StratumTrace stratumTrace) {
+                if (smallestKeys.size() < STRATUM_KEPT_TRACES) {
+                    smallestKeys.add(stratumTrace);
+                    return;
+                }
+
+                int biggest = 0;
+                for (int i = 1; i < smallestKeys.size(); i++)
+                    if (smallestKeys.get(i).sampledTrace.key > smallestKeys.get(biggest).sampledTrace.key)
+                        biggest = i;
+                if (stratumTrace.sampledTrace.key < smallestKeys.get(biggest).sampledTrace.key)
+                    smallestKeys.set(biggest, stratumTrace);
+            }
+        }
+
+        private static class StratumTrace {
+            private final SampledTrace sampledTrace;
+            private final Stratum stratum;
+
+            StratumTrace(SampledTrace sampledTrace, Stratum stratum) {
+                this.sampledTrace = sampledTrace;
+                this.stratum = stratum;
+            }
+        }
+    }
+
+    // Sorted different (entityID, mode) accesses of a trace
+    private static class AccessesSignature {
+        private final int[] accesses;
+        private final int hashCode;
+
+        AccessesSignature(TraceDto t) {
+            int[] accesses = new int[t.size()];
+            int accessesSize = 0;
+            for (int i = 0; i < t.size(); i++)
+                if (!t.isRule(i))
+                    accesses[accessesSize++] = t.getEntityID(i) << 2 | t.getMode(i);
+            Arrays.sort(accesses, 0, accessesSize);
+
+            int uniqueSize = 0;
+            for (int i = 0; i < accessesSize; i++)
+                if (uniqueSize == 0 || accesses[i] != accesses[uniqueSize - 1])
+                    accesses[uniqueSize++] = accesses[i];
+
+            this.accesses = Arrays.copyOf(accesses, uniqueSize);
+            this.hashCode = Arrays.hashCode(this.accesses);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return object instanceof AccessesSignature && Arrays.equals(accesses, ((AccessesSignature) object).accesses);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -8,8 +8,7 @@ import pt.ist.socialsoftware.mono2micro.decomposition.domain.representationInfo.
 import pt.ist.socialsoftware.mono2micro.functionality.domain.Functionality;
 import pt.ist.socialsoftware.mono2micro.functionality.domain.LocalTransaction;
 import pt.ist.socialsoftware.mono2micro.functionality.dto.AccessDto;
-import pt.ist.socialsoftware.mono2micro.functionality.dto.ReducedTraceElementDto;
-import pt.ist.socialsoftware.mono2micro.functionality.dto.RuleDto;
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
 
 import java.util.*;
 
@@ -46,13 +45,13 @@ public class Utils {
     public static GetLocalTransactionsSequenceAndCalculateTracePerformanceResult getLocalTransactionsSequenceAndCalculateTracePerformance(
         int lastLocalTransactionID,
         LocalTransaction lastLocalTransaction,
-        List<ReducedTraceElementDto> elements,
+        TraceDto trace,
         Map<Short, String> entityIDToClusterName,
         Map<Short, Byte> entityIDToMode,
         int from,
         int to
     ) {
-        int numberOfElements = elements == null ? 0 : elements.size();
+        int numberOfElements = trace.size();
 
         if (numberOfElements == 0) return new GetLocalTransactionsSequenceAndCalculateTracePerformanceResult();
 
@@ -65,19 +64,18 @@ public class Utils {
         int i = from;
 
         while (i < to) {
-            ReducedTraceElementDto element = elements.get(i);
-
-            if (element instanceof RuleDto) {
-                RuleDto r = (RuleDto) element;
+            if (trace.isRule(i)) {
+                int ruleCount = trace.getCount(i);
+                int ruleOccurrences = trace.getOccurrences(i);
 
                 GetLocalTransactionsSequenceAndCalculateTracePerformanceResult result = getLocalTransactionsSequenceAndCalculateTracePerformance(
                     lastLocalTransactionID,
                     currentLocalTransaction,
-                    elements,
+                    trace,
                     entityIDToClusterName,
                     entityIDToMode,
                     i + 1,
-                    i + 1 + r.getCount()
+                    i + 1 + ruleCount
                 );
 
                 String sequenceFirstAccessedClusterName = result.firstAccessedClusterName;
@@ -95,7 +93,7 @@ public class Utils {
                 }
 
                 // performance of the sequence multiplied by the number of times it occurs
-                performance += sequencePerformance * r.getOccurrences();
+                performance += sequencePerformance * ruleOccurrences;
 
                 // update outdated variables
                 currentLocalTransaction = result.lastLocalTransaction;
@@ -106,19 +104,19 @@ public class Utils {
                 // If the rule has more than 1 occurrence,
                 // then we want to consider the hop between the final access and the first one
                 if (
-                    r.getOccurrences() > 1 &&
+                    ruleOccurrences > 1 &&
                     !sequenceFirstAccessedClusterName.equals(currentLocalTransaction.getClusterName())
                 ) {
-                    performance += r.getOccurrences() - 1;
+                    performance += ruleOccurrences - 1;
                 }
 
-                i += 1 + r.getCount();
+                i += 1 + ruleCount;
 
             } else {
 
-                AccessDto access = (AccessDto) element;
-                short accessedEntityID = access.getEntityID();
-                byte accessMode = access.getMode();
+                short accessedEntityID = trace.getEntityID(i);
+                byte accessMode = trace.getMode(i);
+                int accessOccurrences = trace.getOccurrences(i);
 
                 String currentClusterName = entityIDToClusterName.get(accessedEntityID);
 
@@ -133,6 +131,7 @@ public class Utils {
                 if (currentLocalTransaction == null) { // if it's the first element
                     performance++;
 
+                    AccessDto access = newAccess(accessedEntityID, accessMode, accessOccurrences);
                     currentLocalTransaction = new LocalTransaction(
                         ++lastLocalTransactionID,
                         currentClusterName,
@@ -158,7 +157,7 @@ public class Utils {
                         }
 
                         if (hasCost) {
-                            currentLocalTransaction.addClusterAccess(access);
+                            currentLocalTransaction.addClusterAccess(newAccess(accessedEntityID, accessMode, accessOccurrences));
                             entityIDToMode.put(accessedEntityID, accessMode);
                         }
 
@@ -169,6 +168,7 @@ public class Utils {
                             new LocalTransaction(currentLocalTransaction)
                         );
 
+                        AccessDto access = newAccess(accessedEntityID, accessMode, accessOccurrences);
                         currentLocalTransaction = new LocalTransaction(
                             ++lastLocalTransactionID,
                             currentClusterName,
@@ -206,6 +206,15 @@ public class Utils {
         );
     }
 
+    // Accesses are only materialized when they become part of a local transaction
+    private static AccessDto newAccess(short entityID, byte mode, int occurrences) {
+        AccessDto access = new AccessDto();
+        access.setEntityID(entityID);
+        access.setMode(mode);
+        access.setOccurrences(occurrences);
+        return access;
+    }
+
     public static Map<String, Set<Cluster>> getFunctionalitiesClusters(
             Map<Short, String> entityIDToClusterName,
             Map<String, Cluster> clusters,
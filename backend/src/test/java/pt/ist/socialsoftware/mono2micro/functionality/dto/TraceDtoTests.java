@@ -0,0 +1,49 @@
+package pt.ist.socialsoftware.mono2micro.functionality.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TraceDtoTests {
+
+	@Test
+	public void packedElementsKeepTheirFields() {
+		TraceDto t = new TraceDto(0, 1, new long[] {
+			TraceDto.packRule(2, 3),
+			TraceDto.packAccess((short) 7, (byte) 1, 1),
+			TraceDto.packAccess((short) -2, (byte) 2, 5) // entity 65534
+		});
+
+		assertEquals(3, t.size());
+		assertEquals(true, t.isRule(0));
+		assertEquals(2, t.getCount(0));
+		assertEquals(3, t.getOccurrences(0));
+		assertEquals(7, t.getEntityID(1));
+		assertEquals(1, t.getMode(1));
+		assertEquals(1, t.getOccurrences(1));
+		assertEquals(-2, t.getEntityID(2));
+		assertEquals(2, t.getMode(2));
+		assertEquals(5, t.getOccurrences(2));
+	}
+
+	@Test
+	public void jsonRoundTripKeepsTheAccesses() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		TraceDto t = new TraceDto(4, 2, new long[] {
+			TraceDto.packAccess((short) 1, (byte) 1, 1),
+			TraceDto.packRule(2, 4),
+			TraceDto.packAccess((short) 2, (byte) 2, 1),
+			TraceDto.packAccess((short) 3, (byte) 1, 2)
+		});
+
+		String json = mapper.writeValueAsString(t);
+		assertEquals("{\"id\":4,\"f\":2,\"a\":[[\"R\",1],[2,4],[\"W\",2],[\"R\",3,2]]}", json);
+
+		TraceDto read = mapper.readValue(json, TraceDto.class);
+		assertEquals(4, read.getId());
+		assertEquals(2, read.getFrequency());
+		assertArrayEquals(t.getElements(), read.getElements());
+	}
+}
@@ -0,0 +1,125 @@
+package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SimilarityMatrixBinaryTests {
+    private static final int ELEMENTS_COUNT = 7;
+    private static final int WEIGHTS_COUNT = 3;
+
+    private static Set<Short> elements() {
+        Set<Short> elements = new LinkedHashSet<>();
+        for (int i = 0; i < ELEMENTS_COUNT; i++)
+            elements.add((short) (100 - 3 * i));
+        return elements;
+    }
+
+    // About a third of the cells are non-zero
+    private static RawMatrix denseMatrix() {
+        Random random = new Random(19);
+        RawMatrix matrix = new HeapRawMatrix(ELEMENTS_COUNT, WEIGHTS_COUNT);
+        for (int i = 0; i < ELEMENTS_COUNT; i++)
+            for (int j = 0; j < ELEMENTS_COUNT; j++)
+                if (i != j && random.nextInt(3) == 0)
+                    for (int k = 0; k < WEIGHTS_COUNT; k++)
+                        matrix.set(i, j, k, random.nextFloat());
+        return matrix;
+    }
+
+    private static SparseRawMatrix sparseMatrix(RawMatrix matrix) {
+        int[] rowStarts = new int[ELEMENTS_COUNT + 1];
+        for (int i = 0; i < ELEMENTS_COUNT; i++) {
+            rowStarts[i + 1] = rowStarts[i];
+            for (int j = 0; j < ELEMENTS_COUNT; j++)
+                if (matrix.get(i, j, 0) != 0)
+                    rowStarts[i + 1]++;
+        }
+
+        SparseRawMatrix sparseMatrix = new SparseRawMatrix(ELEMENTS_COUNT, WEIGHTS_COUNT, rowStarts);
+        for (int i = 0; i < ELEMENTS_COUNT; i++) {
+            int cell = rowStarts[i];
+            for (int j = 0; j < ELEMENTS_COUNT; j++) {
+                if (matrix.get(i, j, 0) == 0)
+                    continue;
+                sparseMatrix.setColumn(cell, j);
+                for (int k = 0; k < WEIGHTS_COUNT; k++)
+                    sparseMatrix.setValueAt(cell, k, matrix.get(i, j, k));
+                cell++;
+            }
+        }
+        return sparseMatrix;
+    }
+
+    private static byte[] write(RawMatrix matrix) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new SimilarityMatrixBinaryWriter(elements(), matrix).write(outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static void assertSameValues(RawMatrix expected, RawMatrix actual) {
+        assertEquals(expected.getElementsCount(), actual.getElementsCount());
+        assertEquals(expected.getWeightsCount(), actual.getWeightsCount());
+        for (int i = 0; i < ELEMENTS_COUNT; i++)
+            for (int j = 0; j < ELEMENTS_COUNT; j++)
+                for (int k = 0; k < WEIGHTS_COUNT; k++)
+                    assertEquals(i + " " + j + " " + k, expected.get(i, j, k), actual.get(i, j, k), 0);
+    }
+
+    @Test
+    public void rawDenseMatrixRoundTrip() throws IOException {
+        RawMatrix matrix = denseMatrix();
+        SimilarityMatrixBinaryReader reader = new SimilarityMatrixBinaryReader(new ByteArrayInputStream(write(matrix)));
+
+        try (RawMatrix read = reader.readRawMatrix()) {
+            assertFalse(read instanceof SparseRawMatrix);
+            assertSameValues(matrix, read);
+            assertEquals(new ArrayList<>(elements()), new ArrayList<>(reader.getElements()));
+        }
+    }
+
+    @Test
+    public void rawSparseMatrixRoundTrip() throws IOException {
+        SparseRawMatrix matrix = sparseMatrix(denseMatrix());
+        SimilarityMatrixBinaryReader reader = new SimilarityMatrixBinaryReader(new ByteArrayInputStream(write(matrix)));
+
+        RawMatrix read = reader.readRawMatrix();
+        assertTrue(read instanceof SparseRawMatrix);
+        assertEquals(matrix.getCellsCount(), ((SparseRawMatrix) read).getCellsCount());
+        assertSameValues(matrix, read);
+        assertEquals(new ArrayList<>(elements()), new ArrayList<>(reader.getElements()));
+    }
+
+    @Test
+    public void headerHasTheCurrentVersion() throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(write(denseMatrix())).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[4];
+        header.get(magic);
+
+        assertArrayEquals(SimilarityMatrixBinaryWriter.MAGIC, magic);
+        assertEquals(SimilarityMatrixBinaryWriter.VERSION, header.getInt());
+        assertEquals(SimilarityMatrixBinaryWriter.RAW_DENSE_FORMAT, header.getInt());
+        assertEquals(ELEMENTS_COUNT, header.getInt());
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownVersionIsRefused() throws IOException {
+        byte[] bytes = write(denseMatrix());
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(4, SimilarityMatrixBinaryWriter.VERSION + 1);
+        new SimilarityMatrixBinaryReader(new ByteArrayInputStream(bytes)).readRawMatrix();
+    }
+
+    @Test(expected = IOException.class)
+    public void weightedMatrixIsNotReadAsRaw() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new SimilarityMatrixBinaryWriter(elements(), denseMatrix(), new float[] {50, 30, 20}).write(outputStream);
+        new SimilarityMatrixBinaryReader(new ByteArrayInputStream(outputStream.toByteArray())).readRawMatrix();
+    }
+}
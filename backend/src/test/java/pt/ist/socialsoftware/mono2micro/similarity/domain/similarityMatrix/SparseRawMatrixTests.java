@@ -0,0 +1,120 @@
+package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static pt.ist.socialsoftware.mono2micro.utils.Constants.SIMILARITY_MATRIX_NEIGHBOURS_TIES_MIN_SIMILARITY;
+
+public class SparseRawMatrixTests {
+    private static final int ELEMENTS_COUNT = 60;
+    private static final int WEIGHTS_COUNT = 3;
+    private static final float[] WEIGHTS = {50, 30, 20};
+
+    // Values in quarters, so rows have many ties both above and below the ties threshold
+    private static RawMatrix denseMatrix() {
+        Random random = new Random(24);
+        RawMatrix matrix = new HeapRawMatrix(ELEMENTS_COUNT, WEIGHTS_COUNT);
+        for (int i = 0; i < ELEMENTS_COUNT; i++)
+            for (int j = 0; j < ELEMENTS_COUNT; j++)
+                if (random.nextInt(2) == 0)
+                    for (int k = 0; k < WEIGHTS_COUNT; k++)
+                        matrix.set(i, j, k, random.nextInt(5) / 4f);
+        return matrix;
+    }
+
+    private static SparseRawMatrix sparseMatrix(RawMatrix matrix) {
+        int[] rowStarts = new int[ELEMENTS_COUNT + 1];
+        for (int i = 0; i < ELEMENTS_COUNT; i++) {
+            rowStarts[i + 1] = rowStarts[i];
+            for (int j = 0; j < ELEMENTS_COUNT; j++)
+                if (matrix.getWeighted(i, j, WEIGHTS) != 0)
+                    rowStarts[i + 1]++;
+        }
+
+        SparseRawMatrix sparseMatrix = new SparseRawMatrix(ELEMENTS_COUNT, WEIGHTS_COUNT, rowStarts);
+        for (int i = 0; i < ELEMENTS_COUNT; i++) {
+            int cell = rowStarts[i];
+            for (int j = 0; j < ELEMENTS_COUNT; j++) {
+                if (matrix.getWeighted(i, j, WEIGHTS) == 0)
+                    continue;
+                sparseMatrix.setColumn(cell, j);
+                for (int k = 0; k < WEIGHTS_COUNT; k++)
+                    sparseMatrix.setValueAt(cell, k, matrix.get(i, j, k));
+                cell++;
+            }
+        }
+        return sparseMatrix;
+    }
+
+    // Sorts every related element by decreasing similarity, ties by increasing column, and keeps the first ones
+    private static List<Integer> bruteForceNeighbours(RawMatrix matrix, int i, int neighboursCount) {
+        List<Integer> related = new ArrayList<>();
+        for (int j = 0; j < ELEMENTS_COUNT; j++)
+            if (j != i && matrix.getWeighted(i, j, WEIGHTS) > 0)
+                related.add(j);
+        related.sort((j1, j2) -> {
+            int comparison = Float.compare(matrix.getWeighted(i, j2, WEIGHTS), matrix.getWeighted(i, j1, WEIGHTS));
+            return comparison != 0 ? comparison : Integer.compare(j1, j2);
+        });
+        if (related.size() <= neighboursCount)
+            return sorted(related);
+
+        float last = matrix.getWeighted(i, related.get(neighboursCount - 1), WEIGHTS);
+        List<Integer> neighbours = new ArrayList<>(related.subList(0, neighboursCount));
+        if (last >= SIMILARITY_MATRIX_NEIGHBOURS_TIES_MIN_SIMILARITY)
+            for (int j : related.subList(neighboursCount, related.size()))
+                if (matrix.getWeighted(i, j, WEIGHTS) == last)
+                    neighbours.add(j);
+        return sorted(neighbours);
+    }
+
+    private static List<Integer> sorted(List<Integer> columns) {
+        List<Integer> sortedColumns = new ArrayList<>(columns);
+        Collections.sort(sortedColumns);
+        return sortedColumns;
+    }
+
+    private static void assertBruteForceNeighbours(RawMatrix matrix, int neighboursCount) {
+        SparseRawMatrix neighbours = SparseRawMatrix.nearestNeighbours(matrix, WEIGHTS, neighboursCount);
+
+        for (int i = 0; i < ELEMENTS_COUNT; i++) {
+            int rowEnd = i + 1 == ELEMENTS_COUNT ? neighbours.getCellsCount() : neighbours.getRowStart(i + 1);
+            List<Integer> columns = new ArrayList<>();
+            for (int cell = neighbours.getRowStart(i); cell < rowEnd; cell++) {
+                columns.add(neighbours.getColumn(cell));
+                for (int k = 0; k < WEIGHTS_COUNT; k++)
+                    assertEquals(i + " " + k, matrix.get(i, neighbours.getColumn(cell), k), neighbours.getValueAt(cell, k), 0);
+            }
+            assertEquals(neighboursCount + " " + i, bruteForceNeighbours(matrix, i, neighboursCount), columns);
+        }
+    }
+
+    @Test
+    public void denseNearestNeighboursAreTheBruteForceOnes() {
+        RawMatrix matrix = denseMatrix();
+        for (int neighboursCount : new int[] {1, 3, 8, ELEMENTS_COUNT})
+            assertBruteForceNeighbours(matrix, neighboursCount);
+    }
+
+    @Test
+    public void sparseNearestNeighboursAreTheBruteForceOnes() {
+        SparseRawMatrix matrix = sparseMatrix(denseMatrix());
+        for (int neighboursCount : new int[] {1, 3, 8, ELEMENTS_COUNT})
+            assertBruteForceNeighbours(matrix, neighboursCount);
+    }
+
+    @Test
+    public void everyRelatedElementIsKeptWithoutALimit() {
+        RawMatrix matrix = denseMatrix();
+        SparseRawMatrix neighbours = SparseRawMatrix.nearestNeighbours(matrix, WEIGHTS, Integer.MAX_VALUE);
+
+        int relatedCount = 0;
+        for (int i = 0; i < ELEMENTS_COUNT; i++)
+            for (int j = 0; j < ELEMENTS_COUNT; j++)
+                if (i != j && matrix.getWeighted(i, j, WEIGHTS) > 0)
+                    relatedCount++;
+        assertEquals(relatedCount, neighbours.getCellsCount());
+    }
+}
@@ -0,0 +1,197 @@
+package pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.weights;
+
+import org.apache.commons.io.IOUtils;
+import org.bson.Document;
+import org.junit.Test;
+import pt.ist.socialsoftware.mono2micro.codebase.domain.Codebase;
+import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+import pt.ist.socialsoftware.mono2micro.representation.domain.AccessesRepresentation;
+import pt.ist.socialsoftware.mono2micro.similarity.domain.SimilarityMatrixSciPy;
+import pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.HeapRawMatrix;
+import pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.RawMatrix;
+import pt.ist.socialsoftware.mono2micro.similarity.domain.similarityMatrix.SimilarityMatrix;
+import pt.ist.socialsoftware.mono2micro.strategy.domain.Strategy;
+import pt.ist.socialsoftware.mono2micro.utils.Constants;
+import pt.ist.socialsoftware.mono2micro.utils.FunctionalitiesSummaries;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class AccessesWeightsTests {
+    private static final int ENTITIES_COUNT = 30;
+    private static final int FUNCTIONALITIES_COUNT = 80;
+    private static final int ROUNDS = 6;
+
+    // Files held in memory, only the ones the accesses weights read and write
+    private static class MemoryGridFsService extends GridFsService {
+        private final Map<String, byte[]> files = new HashMap<>();
+        private final Map<String, Document> metadata = new HashMap<>();
+
+        @Override
+        public InputStream getFile(String fileName) throws IOException {
+            if (!files.containsKey(fileName))
+                throw new NoSuchFileException("No file called: " + fileName);
+            return new ByteArrayInputStream(files.get(fileName));
+        }
+
+        @Override
+        public void saveFile(InputStream fileStream, String fileName, Document metadata) {
+            try {
+                files.put(fileName, IOUtils.toByteArray(fileStream));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.metadata.put(fileName, metadata);
+        }
+
+        @Override
+        public Document getFileMetadata(String fileName) throws IOException {
+            if (!files.containsKey(fileName))
+                throw new NoSuchFileException("No file called: " + fileName);
+            return metadata.get(fileName);
+        }
+    }
+
+    // Summaries of traces of random accesses, so entities are accessed by different numbers of functionalities
+    private static Map<String, FunctionalitiesSummaries.FunctionalitySummary> summaries() {
+        Random random = new Random(21);
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> summaries = new LinkedHashMap<>();
+        for (int f = 0; f < FUNCTIONALITIES_COUNT; f++) {
+            List<TraceDto> traces = new ArrayList<>();
+            int tracesCount = 1 + random.nextInt(3);
+            for (int t = 0; t < tracesCount; t++) {
+                long[] elements = new long[1 + random.nextInt(8)];
+                for (int i = 0; i < elements.length; i++)
+                    elements[i] = TraceDto.packAccess(
+                            (short) (ENTITIES_COUNT * random.nextDouble() * random.nextDouble()),
+                            (byte) (1 + random.nextInt(2)),
+                            1 + random.nextInt(3)
+                    );
+                traces.add(new TraceDto(t, 1 + random.nextInt(3), elements));
+            }
+            summaries.put("Functionality" + f, FunctionalitiesSummaries.summarise(traces, true));
+        }
+        return summaries;
+    }
+
+    private static Set<Short> entities(Map<String, FunctionalitiesSummaries.FunctionalitySummary> summaries, Set<String> profile) {
+        Set<Short> entities = new TreeSet<>();
+        for (String functionalityName : profile)
+            for (short entityID : summaries.get(functionalityName).getEntities())
+                entities.add(entityID);
+        return entities;
+    }
+
+    // The summaries are given to the similarity as a batch's, so no traces are decoded
+    private static SimilarityMatrixSciPy similarity(
+            AccessesRepresentation accesses,
+            String profile,
+            float approximationError,
+            String rawMatrixName,
+            Map<String, FunctionalitiesSummaries.FunctionalitySummary> summaries
+    ) {
+        Codebase codebase = new Codebase();
+        codebase.setRepresentations(Collections.singletonList(accesses));
+        Strategy strategy = new Strategy();
+        strategy.setCodebase(codebase);
+
+        AccessesWeights weights = new AccessesWeights(25, 25, 25, 25);
+        weights.setApproximationError(approximationError);
+        SimilarityMatrix similarityMatrix = new SimilarityMatrix(Collections.singletonList(weights));
+        similarityMatrix.setRawMatrixName(rawMatrixName);
+
+        SimilarityMatrixSciPy similarity = new SimilarityMatrixSciPy();
+        similarity.setName(profile);
+        similarity.setStrategy(strategy);
+        similarity.setProfile(profile);
+        similarity.setTraceType(Constants.TraceType.ALL);
+        similarity.setTracesMaxLimit(0);
+        similarity.setSimilarityMatrix(similarityMatrix);
+        similarity.setFunctionalitiesSummaries(summaries);
+        return similarity;
+    }
+
+    private static AccessesWeights getWeights(SimilarityMatrixSciPy similarity) {
+        return (AccessesWeights) similarity.getSimilarityMatrix().getWeightsList().get(0);
+    }
+
+    private static RawMatrix fillMatrix(GridFsService gridFsService, SimilarityMatrixSciPy similarity, Set<Short> elements) throws IOException {
+        RawMatrix rawMatrix = new HeapRawMatrix(elements.size(), 4);
+        getWeights(similarity).fillMatrix(gridFsService, similarity, rawMatrix, elements, 0);
+        return rawMatrix;
+    }
+
+    // Functionalities removed from and added to the base profile, the rounds going from a few changes to many
+    private static void assertUpdatesAreTheFullRecomputes(float approximationError) throws IOException {
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> summaries = summaries();
+        Random random = new Random(7);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            Set<String> baseProfile = new HashSet<>();
+            for (String functionalityName : summaries.keySet())
+                if (random.nextInt(10) < 7)
+                    baseProfile.add(functionalityName);
+            Set<String> profile = new HashSet<>(baseProfile);
+            for (String functionalityName : summaries.keySet())
+                if (random.nextInt(10) < round % 3 + 1 && !profile.remove(functionalityName))
+                    profile.add(functionalityName);
+
+            AccessesRepresentation accesses = new AccessesRepresentation();
+            accesses.setName("AccessesWeightsTests");
+            Map<String, Set<String>> profiles = new HashMap<>();
+            profiles.put("Base", baseProfile);
+            profiles.put("Profile", profile);
+            accesses.setProfiles(profiles);
+            MemoryGridFsService gridFsService = new MemoryGridFsService();
+            Set<Short> elements = entities(summaries, profile);
+
+            SimilarityMatrixSciPy base = similarity(accesses, "Base", approximationError, "Base raw matrix", summaries);
+            RawMatrix baseRawMatrix = fillMatrix(gridFsService, base, entities(summaries, baseProfile));
+
+            SimilarityMatrixSciPy updated = similarity(accesses, "Profile", approximationError, "Updated raw matrix", summaries);
+            assertTrue(getWeights(updated).canUpdateMatrix(updated, base));
+            RawMatrix updatedRawMatrix = new HeapRawMatrix(elements.size(), 4);
+            getWeights(updated).updateMatrix(gridFsService, updated, updatedRawMatrix, elements, 0, base, baseRawMatrix);
+
+            SimilarityMatrixSciPy recomputed = similarity(accesses, "Profile", approximationError, null, summaries);
+            RawMatrix recomputedRawMatrix = fillMatrix(gridFsService, recomputed, elements);
+
+            for (int i = 0; i < elements.size(); i++)
+                for (int j = 0; j < elements.size(); j++)
+                    for (int k = 0; k < 4; k++)
+                        assertEquals(round + ": " + i + " " + j + " " + k, recomputedRawMatrix.get(i, j, k), updatedRawMatrix.get(i, j, k), 0);
+            assertEquals(getWeights(recomputed).getSequenceErrorBound(), getWeights(updated).getSequenceErrorBound(), 0);
+        }
+    }
+
+    @Test
+    public void updatedMatricesAreTheFullRecomputes() throws IOException {
+        assertUpdatesAreTheFullRecomputes(0);
+    }
+
+    @Test
+    public void updatedApproximateMatricesAreTheFullRecomputes() throws IOException {
+        assertUpdatesAreTheFullRecomputes(0.1f);
+    }
+
+    @Test
+    public void onlyMatricesApproximatedTheSameWayAreUpdated() {
+        AccessesRepresentation accesses = new AccessesRepresentation();
+        SimilarityMatrixSciPy exact = similarity(accesses, "Profile", 0, "Exact raw matrix", null);
+        SimilarityMatrixSciPy approximate = similarity(accesses, "Profile", 0.1f, "Approximate raw matrix", null);
+        SimilarityMatrixSciPy sampled = similarity(accesses, "Profile", 0, "Sampled raw matrix", null);
+        sampled.setTraceType(Constants.TraceType.RESERVOIR_SAMPLE);
+
+        assertFalse(getWeights(exact).canUpdateMatrix(exact, approximate));
+        assertFalse(getWeights(approximate).canUpdateMatrix(approximate, exact));
+        assertFalse(getWeights(sampled).canUpdateMatrix(sampled, exact));
+        assertTrue(getWeights(exact).canUpdateMatrix(exact, exact));
+    }
+}
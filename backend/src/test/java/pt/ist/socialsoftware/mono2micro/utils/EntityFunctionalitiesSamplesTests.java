@@ -0,0 +1,161 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class EntityFunctionalitiesSamplesTests {
+    private static final int ENTITIES_COUNT = 40;
+    private static final int FUNCTIONALITIES_COUNT = 1000;
+    private static final double ERROR = 0.05; // samples of 100 functionalities
+
+    // Entities with lower IDs are accessed by more functionalities, so some are sampled and some are not
+    private static Map<String, FunctionalitiesSummaries.FunctionalitySummary> profile() {
+        Random random = new Random(23);
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> functionalities = new LinkedHashMap<>();
+        for (int f = 0; f < FUNCTIONALITIES_COUNT; f++) {
+            TreeMap<Short, Byte> accesses = new TreeMap<>();
+            int accessesCount = 2 + random.nextInt(7);
+            while (accesses.size() < accessesCount) {
+                short entityID = (short) (ENTITIES_COUNT * random.nextDouble() * random.nextDouble());
+                accesses.put(entityID, (byte) (1 + random.nextInt(3)));
+            }
+
+            FunctionalitiesSummaries.FunctionalitySummary summary = new FunctionalitiesSummaries.FunctionalitySummary();
+            summary.setEntities(new short[accesses.size()]);
+            summary.setModes(new byte[accesses.size()]);
+            int i = 0;
+            for (Map.Entry<Short, Byte> access : accesses.entrySet()) {
+                summary.getEntities()[i] = access.getKey();
+                summary.getModes()[i++] = access.getValue();
+            }
+            functionalities.put("Functionality" + f, summary);
+        }
+        return functionalities;
+    }
+
+    private static short[] entities(Map<String, FunctionalitiesSummaries.FunctionalitySummary> functionalities) {
+        Set<Short> entities = new TreeSet<>();
+        for (FunctionalitiesSummaries.FunctionalitySummary summary : functionalities.values())
+            for (short entityID : summary.getEntities())
+                entities.add(entityID);
+
+        short[] entitiesIDs = new short[entities.size()];
+        int i = 0;
+        for (short entityID : entities)
+            entitiesIDs[i++] = entityID;
+        return entitiesIDs;
+    }
+
+    private static EntityFunctionalitiesBitsets bitsets(Map<String, FunctionalitiesSummaries.FunctionalitySummary> functionalities) {
+        EntityFunctionalitiesBitsets bitsets = new EntityFunctionalitiesBitsets();
+        for (Map.Entry<String, FunctionalitiesSummaries.FunctionalitySummary> entry : functionalities.entrySet()) {
+            int functionalityIndex = bitsets.addFunctionality(entry.getKey());
+            for (int i = 0; i < entry.getValue().getEntities().length; i++)
+                bitsets.addAccess(entry.getValue().getEntities()[i], functionalityIndex, entry.getValue().getModes()[i]);
+        }
+        return bitsets;
+    }
+
+    // Access, write and read weights of each cell, as AccessesWeights computes them exactly
+    private static float[][][] exactWeights(short[] entities, EntityFunctionalitiesBitsets bitsets) {
+        float[][][] weights = new float[entities.length][entities.length][];
+        for (int i = 0; i < entities.length; i++) {
+            EntityFunctionalitiesBitsets.EntityBitsets e1 = bitsets.getBitsets(entities[i]);
+            for (int j = 0; j < entities.length; j++) {
+                EntityFunctionalitiesBitsets.EntityBitsets e2 = bitsets.getBitsets(entities[j]);
+                weights[i][j] = new float[] {
+                        (float) e1.countCommonAccesses(e2) / e1.getAccessesCount(),
+                        e1.getWritesCount() == 0 ? 0 : (float) e1.countCommonWrites(e2) / e1.getWritesCount(),
+                        e1.getReadsCount() == 0 ? 0 : (float) e1.countCommonReads(e2) / e1.getReadsCount()
+                };
+            }
+        }
+        return weights;
+    }
+
+    private static float[][][] estimatedWeights(short[] entities, EntityFunctionalitiesSamples samples) {
+        float[][][] weights = new float[entities.length][entities.length][];
+        for (int i = 0; i < entities.length; i++) {
+            for (int j = 0; j < entities.length; j++)
+                weights[i][j] = new float[3];
+            float[][] row = weights[i];
+            samples.estimateRow(i, (j, accessWeight, writeWeight, readWeight) -> {
+                assertEquals(0, row[j][0] + row[j][1] + row[j][2], 0); // each cell given once
+                row[j] = new float[] {accessWeight, writeWeight, readWeight};
+            });
+        }
+        return weights;
+    }
+
+    @Test
+    public void estimatesAreWithinTheErrorBound() {
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> functionalities = profile();
+        short[] entities = entities(functionalities);
+        EntityFunctionalitiesBitsets bitsets = bitsets(functionalities);
+        int sampleSize = EntityFunctionalitiesSamples.getSampleSize(ERROR);
+        float[][][] exact = exactWeights(entities, bitsets);
+        float[][][] estimated = estimatedWeights(entities, new EntityFunctionalitiesSamples(entities, functionalities, sampleSize));
+
+        double errorsSum = 0;
+        int estimatesCount = 0;
+        int sampledRows = 0;
+        for (int i = 0; i < entities.length; i++) {
+            EntityFunctionalitiesBitsets.EntityBitsets e1 = bitsets.getBitsets(entities[i]);
+            int[] functionalitiesCounts = {e1.getAccessesCount(), e1.getWritesCount(), e1.getReadsCount()};
+            if (functionalitiesCounts[0] > sampleSize)
+                sampledRows++;
+
+            for (int j = 0; j < entities.length; j++) {
+                if (i == j)
+                    continue;
+                for (int k = 0; k < 3; k++) {
+                    float error = Math.abs(estimated[i][j][k] - exact[i][j][k]);
+                    // Rows of entities with no more functionalities than a sample are exact
+                    if (functionalitiesCounts[k] <= sampleSize)
+                        assertEquals(i + " " + j + " " + k, exact[i][j][k], estimated[i][j][k], 1e-6);
+                    // Every estimate within 5 standard errors, far beyond what sampling 100 functionalities deviates
+                    assertTrue(i + " " + j + " " + k + " error " + error, error <= 5 * ERROR);
+                    errorsSum += error;
+                    estimatesCount++;
+                }
+            }
+        }
+        assertTrue("sampled rows " + sampledRows, sampledRows > 0 && sampledRows < entities.length);
+        assertTrue("mean error " + errorsSum / estimatesCount, errorsSum / estimatesCount <= ERROR);
+    }
+
+    @Test
+    public void samplesAsBigAsTheProfileAreExact() {
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> functionalities = profile();
+        short[] entities = entities(functionalities);
+        float[][][] exact = exactWeights(entities, bitsets(functionalities));
+        float[][][] estimated = estimatedWeights(entities, new EntityFunctionalitiesSamples(entities, functionalities, FUNCTIONALITIES_COUNT));
+
+        for (int i = 0; i < entities.length; i++)
+            for (int j = 0; j < entities.length; j++)
+                if (i != j)
+                    assertArrayEquals(i + " " + j, exact[i][j], estimated[i][j], 1e-6f);
+    }
+
+    @Test
+    public void estimatesDoNotDependOnTheFunctionalitiesOrder() {
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> functionalities = profile();
+        List<String> names = new ArrayList<>(functionalities.keySet());
+        Collections.reverse(names);
+        Map<String, FunctionalitiesSummaries.FunctionalitySummary> reversed = new LinkedHashMap<>();
+        for (String name : names)
+            reversed.put(name, functionalities.get(name));
+
+        short[] entities = entities(functionalities);
+        int sampleSize = EntityFunctionalitiesSamples.getSampleSize(ERROR);
+        float[][][] estimated = estimatedWeights(entities, new EntityFunctionalitiesSamples(entities, functionalities, sampleSize));
+        float[][][] reversedEstimated = estimatedWeights(entities, new EntityFunctionalitiesSamples(entities, reversed, sampleSize));
+
+        for (int i = 0; i < entities.length; i++)
+            for (int j = 0; j < entities.length; j++)
+                assertArrayEquals(i + " " + j, estimated[i][j], reversedEstimated[i][j], 0);
+    }
+}
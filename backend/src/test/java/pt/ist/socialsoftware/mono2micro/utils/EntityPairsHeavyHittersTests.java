@@ -0,0 +1,78 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class EntityPairsHeavyHittersTests {
+    private static final int ENTITIES_COUNT = 40;
+    private static final int OCCURRENCES_COUNT = 5000;
+
+    // Pairs of skewed entities, so a few pairs are seen much more than the many others
+    private static List<short[]> pairs() {
+        Random random = new Random(25);
+        List<short[]> pairs = new ArrayList<>();
+        while (pairs.size() < OCCURRENCES_COUNT) {
+            short e1ID = (short) (ENTITIES_COUNT * random.nextDouble() * random.nextDouble());
+            short e2ID = (short) (ENTITIES_COUNT * random.nextDouble() * random.nextDouble());
+            if (e1ID != e2ID)
+                pairs.add(new short[] {e1ID, e2ID, (short) (1 + random.nextInt(3))});
+        }
+        return pairs;
+    }
+
+    private static EntityPairsHeavyHitters.PairsSource source(List<short[]> pairs) {
+        return consumer -> {
+            for (short[] pair : pairs)
+                consumer.accept(pair[0], pair[1], pair[2]);
+        };
+    }
+
+    private static EntityPairsCounter exactCounts(List<short[]> pairs) throws IOException {
+        EntityPairsCounter counts = new EntityPairsCounter();
+        source(pairs).forEach(counts::add);
+        return counts;
+    }
+
+    @Test
+    public void pairsAreCountedExactlyWhenTheyFit() throws IOException {
+        List<short[]> pairs = pairs();
+        EntityPairsCounter exactCounts = exactCounts(pairs);
+
+        for (int maxPairs : new int[] {exactCounts.size(), Integer.MAX_VALUE}) {
+            EntityPairsHeavyHitters heavyHitters = EntityPairsHeavyHitters.count(source(pairs), maxPairs);
+            assertEquals(0, heavyHitters.getErrorBound());
+            assertEquals(exactCounts.size(), heavyHitters.getCounts().size());
+            exactCounts.forEach((e1ID, e2ID, count) ->
+                    assertEquals(e1ID + " " + e2ID, count, heavyHitters.getCounts().get(e1ID, e2ID)));
+        }
+    }
+
+    @Test
+    public void keptPairsAreCountedExactlyAndDroppedOnesWithinTheErrorBound() throws IOException {
+        List<short[]> pairs = pairs();
+        EntityPairsCounter exactCounts = exactCounts(pairs);
+        long totalCount = 0;
+        for (short[] pair : pairs)
+            totalCount += pair[2];
+
+        for (int maxPairs : new int[] {4, 16, 64, exactCounts.size() - 1}) {
+            EntityPairsHeavyHitters heavyHitters = EntityPairsHeavyHitters.count(source(pairs), maxPairs);
+            EntityPairsCounter counts = heavyHitters.getCounts();
+            long errorBound = heavyHitters.getErrorBound();
+
+            assertTrue(counts.size() <= maxPairs);
+            assertTrue(maxPairs + "", errorBound > 0);
+            assertTrue(maxPairs + "", errorBound <= totalCount / (maxPairs / 2 + 1));
+            exactCounts.forEach((e1ID, e2ID, count) -> {
+                if (counts.contains(e1ID, e2ID))
+                    assertEquals(maxPairs + ": " + e1ID + " " + e2ID, count, counts.get(e1ID, e2ID));
+                else
+                    assertTrue(maxPairs + ": " + e1ID + " " + e2ID, count <= errorBound);
+            });
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import org.junit.Test;
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class FunctionalitiesSummariesTests {
+    private static TraceDto trace(int frequency, int... entities) {
+        long[] elements = new long[entities.length];
+        for (int i = 0; i < entities.length; i++)
+            elements[i] = TraceDto.packAccess((short) entities[i], (byte) (1 + i % 2), 1);
+        return new TraceDto(0, frequency, elements);
+    }
+
+    private static int pairCount(FunctionalitiesSummaries.FunctionalitySummary summary, int e1ID, int e2ID) {
+        for (int i = 0; i < summary.getPairsCount().length; i++)
+            if (Math.min(summary.getPairsE1()[i], summary.getPairsE2()[i]) == Math.min(e1ID, e2ID) &&
+                    Math.max(summary.getPairsE1()[i], summary.getPairsE2()[i]) == Math.max(e1ID, e2ID))
+                return summary.getPairsCount()[i];
+        return 0;
+    }
+
+    @Test
+    public void pairCountsSaturateWithLargeFrequencies() {
+        List<TraceDto> traces = Arrays.asList(trace(1 << 30, 1, 2, 1, 2), trace(Integer.MAX_VALUE, 1, 2), trace(3, 2, 3));
+        FunctionalitiesSummaries.FunctionalitySummary summary = FunctionalitiesSummaries.summarise(traces, true);
+
+        assertEquals(Integer.MAX_VALUE, pairCount(summary, 1, 2));
+        assertEquals(3, pairCount(summary, 2, 3));
+        assertEquals(Integer.MAX_VALUE, FunctionalitiesSummaries.countPairs(traces, true).get((short) 1, (short) 2));
+    }
+
+    @Test
+    public void summariesWithoutPairsKeepTheAccesses() {
+        List<TraceDto> traces = Arrays.asList(trace(2, 4, 1, 4, 7), trace(1, 7, 1));
+        FunctionalitiesSummaries.FunctionalitySummary summary = FunctionalitiesSummaries.summarise(traces, true);
+        FunctionalitiesSummaries.FunctionalitySummary summaryWithoutPairs = FunctionalitiesSummaries.summarise(traces, true, false);
+
+        assertArrayEquals(summary.getEntities(), summaryWithoutPairs.getEntities());
+        assertArrayEquals(summary.getModes(), summaryWithoutPairs.getModes());
+        assertEquals(0, summaryWithoutPairs.getPairsCount().length);
+        assertArrayEquals(summary.getEntities(), summary.withoutPairs().getEntities());
+        assertEquals(0, summary.withoutPairs().getPairsCount().length);
+    }
+}
@@ -0,0 +1,244 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+import pt.ist.socialsoftware.mono2micro.representation.domain.AccessesRepresentation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class FunctionalityTracesIndexTests {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int[] LIMITS = {0, 1, 2, 5};
+
+    // Empty traces, which do not count towards limits, and a functionality without traces
+    private static byte[] representation() throws IOException {
+        Random random = new Random(2);
+        ObjectNode representation = MAPPER.createObjectNode();
+        for (int f = 0; f < 10; f++) {
+            ObjectNode functionality = representation.putObject("Functionality" + f);
+            functionality.put("f", random.nextInt(5));
+            ArrayNode traces = functionality.putArray("t");
+
+            int tracesCount = f == 4 ? 0 : 1 + random.nextInt(8);
+            for (int t = 0; t < tracesCount; t++) {
+                ObjectNode trace = traces.addObject();
+                trace.put("id", t);
+                trace.put("f", 1 + random.nextInt(3));
+                ArrayNode accesses = trace.putArray("a");
+
+                int accessesCount = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(12);
+                int ruleEnd = 0; // rules repeat the accesses that follow them
+                for (int a = 0; a < accessesCount; a++) {
+                    ArrayNode access = accesses.addArray();
+                    if (a >= ruleEnd && a + 1 < accessesCount && random.nextInt(5) == 0) {
+                        int count = 1 + random.nextInt(Math.min(4, accessesCount - a - 1));
+                        access.add(count);
+                        ruleEnd = a + 1 + count;
+                    }
+                    else {
+                        access.add(random.nextBoolean() ? "R" : "W");
+                        access.add(random.nextInt(6));
+                    }
+                    if (random.nextInt(4) == 0)
+                        access.add(2 + random.nextInt(5));
+                }
+            }
+        }
+        return MAPPER.writerWithDefaultPrettyPrinter().writeValueAsBytes(representation);
+    }
+
+    // Files held in memory, recording the ranges read
+    private static class MemoryGridFsService extends GridFsService {
+        private final Map<String, byte[]> files = new HashMap<>();
+        private final List<long[]> rangesRead = new ArrayList<>();
+
+        @Override
+        public InputStream getFile(String fileName) throws IOException {
+            if (!files.containsKey(fileName))
+                throw new NoSuchFileException("No file called: " + fileName);
+            return new ByteArrayInputStream(files.get(fileName));
+        }
+
+        @Override
+        public InputStream getFileRange(String fileName, long offset, long length) throws IOException {
+            rangesRead.add(new long[] {offset, length});
+            return super.getFileRange(fileName, offset, length);
+        }
+    }
+
+    private static TraceDto readJSONTrace(byte[] file, long offset, int length) throws IOException {
+        return MAPPER.readValue(Arrays.copyOfRange(file, (int) offset, (int) offset + length), TraceDto.class);
+    }
+
+    private static TraceDto readBinaryTrace(byte[] file, long offset, int length) throws IOException {
+        InputStream in = new ByteArrayInputStream(file, (int) offset, length);
+        TraceDto t = TracesBinaryFormat.readTrace(in);
+        assertEquals(-1, in.read());
+        return t;
+    }
+
+    private static List<TraceDto> streamedTraces(byte[] jsonFile, String functionalityName) throws IOException {
+        try (FunctionalityTracesIterator iter = new FunctionalityTracesIterator(new ByteArrayInputStream(jsonFile), 0)) {
+            iter.getFunctionalityWithName(functionalityName);
+            return iter.getAllTraces();
+        }
+    }
+
+    private static void assertSameTraces(List<TraceDto> expected, List<TraceDto> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertSameTrace(expected.get(i), actual.get(i));
+    }
+
+    private static void assertSameTrace(TraceDto expected, TraceDto actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getFrequency(), actual.getFrequency());
+        assertArrayEquals("trace " + expected.getId(), expected.getElements(), actual.getElements());
+    }
+
+    @Test
+    public void jsonRangesHoldTheirFunctionalitiesAndTraces() throws IOException {
+        byte[] jsonFile = representation();
+        JsonNode representation = MAPPER.readTree(jsonFile);
+        FunctionalityTracesIndex index = FunctionalityTracesIndex.build(new ByteArrayInputStream(jsonFile));
+
+        List<String> functionalitiesNames = new ArrayList<>();
+        representation.fieldNames().forEachRemaining(functionalitiesNames::add);
+        assertEquals(functionalitiesNames, new ArrayList<>(index.getFunctionalitiesNames()));
+        for (String functionalityName : index.getFunctionalitiesNames()) {
+            FunctionalityTracesIndex.FunctionalityEntry entry = index.getFunctionality(functionalityName);
+            String range = new String(jsonFile, (int) entry.getOffset(), (int) entry.getLength(), StandardCharsets.UTF_8);
+            assertEquals(representation.get(functionalityName), MAPPER.readTree("{" + range + "}").get(functionalityName));
+
+            List<TraceDto> traces = streamedTraces(jsonFile, functionalityName);
+            assertEquals(traces.size(), entry.getTracesCount());
+            for (int i = 0; i < traces.size(); i++) {
+                assertSameTrace(traces.get(i), readJSONTrace(jsonFile, entry.getTraceOffsets()[i], entry.getTraceLengths()[i]));
+                assertEquals(traces.get(i).getUncompressedSize(), entry.getTraceUncompressedSizes()[i]);
+                assertEquals(traces.get(i).getDifferentAccessesCount(), entry.getTraceDifferentAccesses()[i]);
+            }
+        }
+    }
+
+    @Test
+    public void binaryRangesHoldTheirFunctionalitiesAndTraces() throws IOException {
+        byte[] jsonFile = representation();
+        byte[] binaryFile = TracesBinaryFormat.fromJSON(new ByteArrayInputStream(jsonFile));
+        FunctionalityTracesIndex index = FunctionalityTracesIndex.buildFromBinary(new ByteArrayInputStream(binaryFile));
+
+        for (String functionalityName : index.getFunctionalitiesNames()) {
+            FunctionalityTracesIndex.FunctionalityEntry entry = index.getFunctionality(functionalityName);
+            List<TraceDto> traces = streamedTraces(jsonFile, functionalityName);
+            assertEquals(traces.size(), entry.getTracesCount());
+
+            InputStream block = new ByteArrayInputStream(binaryFile, (int) entry.getOffset(), (int) entry.getLength());
+            for (int i = 0; i < traces.size(); i++) {
+                assertSameTrace(traces.get(i), TracesBinaryFormat.readTrace(block));
+                assertSameTrace(traces.get(i), readBinaryTrace(binaryFile, entry.getTraceOffsets()[i], entry.getTraceLengths()[i]));
+                assertEquals(traces.get(i).getUncompressedSize(), entry.getTraceUncompressedSizes()[i]);
+                assertEquals(traces.get(i).getDifferentAccessesCount(), entry.getTraceDifferentAccesses()[i]);
+            }
+            assertEquals(-1, block.read());
+        }
+    }
+
+    @Test
+    public void indexJSONRoundTrip() throws IOException {
+        FunctionalityTracesIndex index = FunctionalityTracesIndex.build(new ByteArrayInputStream(representation()));
+        FunctionalityTracesIndex read = FunctionalityTracesIndex.fromJSON(index.toJSON());
+
+        assertEquals(new ArrayList<>(index.getFunctionalitiesNames()), new ArrayList<>(read.getFunctionalitiesNames()));
+        for (String functionalityName : index.getFunctionalitiesNames()) {
+            FunctionalityTracesIndex.FunctionalityEntry entry = index.getFunctionality(functionalityName);
+            FunctionalityTracesIndex.FunctionalityEntry readEntry = read.getFunctionality(functionalityName);
+            assertEquals(entry.getOffset(), readEntry.getOffset());
+            assertEquals(entry.getLength(), readEntry.getLength());
+            assertEquals(entry.getTracesCount(), readEntry.getTracesCount());
+            assertArrayEquals(entry.getTraceOffsets(), readEntry.getTraceOffsets());
+            assertArrayEquals(entry.getTraceLengths(), readEntry.getTraceLengths());
+            assertArrayEquals(entry.getTraceUncompressedSizes(), readEntry.getTraceUncompressedSizes());
+            assertArrayEquals(entry.getTraceDifferentAccesses(), readEntry.getTraceDifferentAccesses());
+        }
+    }
+
+    @Test
+    public void indexedJSONIteratorsReadTheStreamedTraces() throws IOException {
+        byte[] jsonFile = representation();
+        assertIndexedTracesAreTheStreamedOnes(jsonFile, jsonFile, FunctionalityTracesIndex.build(new ByteArrayInputStream(jsonFile)), false);
+    }
+
+    @Test
+    public void indexedBinaryIteratorsReadTheStreamedTraces() throws IOException {
+        byte[] jsonFile = representation();
+        byte[] binaryFile = TracesBinaryFormat.fromJSON(new ByteArrayInputStream(jsonFile));
+        assertIndexedTracesAreTheStreamedOnes(jsonFile, binaryFile, FunctionalityTracesIndex.buildFromBinary(new ByteArrayInputStream(binaryFile)), true);
+    }
+
+    // Every functionality read for each limit through the index, a selected trace being the only range read
+    private static void assertIndexedTracesAreTheStreamedOnes(byte[] jsonFile, byte[] storedFile, FunctionalityTracesIndex index, boolean binaryEncoded) throws IOException {
+        MemoryGridFsService gridFsService = new MemoryGridFsService();
+        AccessesRepresentation representation = new AccessesRepresentation();
+        representation.setName("FunctionalityTracesIndexTests " + binaryEncoded); // traces are cached by representation
+        representation.setBinaryEncoded(binaryEncoded);
+        gridFsService.files.put(representation.getName(), storedFile);
+
+        for (int limit : LIMITS) {
+            for (String functionalityName : index.getFunctionalitiesNames()) {
+                FunctionalityTracesIndex.FunctionalityEntry entry = index.getFunctionality(functionalityName);
+
+                try (FunctionalityTracesIterator streamed = new FunctionalityTracesIterator(new ByteArrayInputStream(jsonFile), limit);
+                     FunctionalityTracesIterator indexed = new FunctionalityTracesIterator(gridFsService, representation, index, limit)
+                ) {
+                    streamed.getFunctionalityWithName(functionalityName);
+                    indexed.getFunctionalityWithName(functionalityName);
+                    assertSameTraces(streamed.getAllTraces(), indexed.getAllTraces());
+                }
+
+                try (FunctionalityTracesIterator streamed = new FunctionalityTracesIterator(new ByteArrayInputStream(jsonFile), limit);
+                     FunctionalityTracesIterator indexed = new FunctionalityTracesIterator(gridFsService, representation, index, limit)
+                ) {
+                    streamed.getFunctionalityWithName(functionalityName);
+                    indexed.getFunctionalityWithName(functionalityName);
+                    gridFsService.rangesRead.clear();
+                    assertSameTrace(streamed.getLongestTrace(), indexed.getLongestTrace());
+                    assertSelectedRangeRead(gridFsService, entry, entry.getLongestTraceIndex(limit));
+                }
+
+                try (FunctionalityTracesIterator streamed = new FunctionalityTracesIterator(new ByteArrayInputStream(jsonFile), limit);
+                     FunctionalityTracesIterator indexed = new FunctionalityTracesIterator(gridFsService, representation, index, limit)
+                ) {
+                    streamed.getFunctionalityWithName(functionalityName);
+                    indexed.getFunctionalityWithName(functionalityName);
+                    gridFsService.rangesRead.clear();
+                    assertSameTrace(streamed.getTraceWithMoreDifferentAccesses(), indexed.getTraceWithMoreDifferentAccesses());
+                    assertSelectedRangeRead(gridFsService, entry, entry.getTraceWithMoreDifferentAccessesIndex(limit));
+                }
+            }
+        }
+    }
+
+    private static void assertSelectedRangeRead(MemoryGridFsService gridFsService, FunctionalityTracesIndex.FunctionalityEntry entry, int traceIndex) {
+        if (traceIndex == -1) {
+            assertTrue(gridFsService.rangesRead.isEmpty());
+            return;
+        }
+        assertEquals(1, gridFsService.rangesRead.size());
+        assertArrayEquals(new long[] {entry.getTraceOffsets()[traceIndex], entry.getTraceLengths()[traceIndex]}, gridFsService.rangesRead.get(0));
+    }
+}
@@ -0,0 +1,235 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+import pt.ist.socialsoftware.mono2micro.fileManager.GridFsService;
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+import pt.ist.socialsoftware.mono2micro.representation.domain.AccessesRepresentation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+import static org.junit.Assert.*;
+
+public class FunctionalityTracesIteratorTests {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int[] LIMITS = {0, 1, 2, 5};
+
+    // Empty traces, which do not count towards limits, fields the iterator skips and a functionality without traces
+    private static ObjectNode representation() throws IOException {
+        Random random = new Random(1);
+        ObjectNode representation = MAPPER.createObjectNode();
+        for (int f = 0; f < 10; f++) {
+            ObjectNode functionality = representation.putObject("Functionality" + f);
+            if (f % 3 == 0)
+                functionality.putObject("unknown").putArray("t").add(1);
+            functionality.put("f", random.nextInt(5));
+            ArrayNode traces = functionality.putArray("t");
+
+            int tracesCount = f == 4 ? 0 : 1 + random.nextInt(8);
+            for (int t = 0; t < tracesCount; t++) {
+                ObjectNode trace = traces.addObject();
+                ArrayNode accesses = trace.putArray("a"); // before the id, as the order of the fields is not fixed
+                trace.put("id", t);
+                trace.put("f", 1 + random.nextInt(3));
+
+                int accessesCount = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(12);
+                int ruleEnd = 0; // rules repeat the accesses that follow them
+                for (int a = 0; a < accessesCount; a++) {
+                    ArrayNode access = accesses.addArray();
+                    if (a >= ruleEnd && a + 1 < accessesCount && random.nextInt(5) == 0) {
+                        int count = 1 + random.nextInt(Math.min(4, accessesCount - a - 1));
+                        access.add(count);
+                        ruleEnd = a + 1 + count;
+                    }
+                    else {
+                        access.add(random.nextBoolean() ? "R" : "W");
+                        access.add(random.nextInt(6));
+                    }
+                    if (random.nextInt(4) == 0)
+                        access.add(2 + random.nextInt(5));
+                }
+            }
+        }
+        return (ObjectNode) MAPPER.readTree(MAPPER.writeValueAsBytes(representation));
+    }
+
+    private static FunctionalityTracesIterator iterator(JsonNode representation, int limit) throws IOException {
+        return new FunctionalityTracesIterator(new ByteArrayInputStream(MAPPER.writeValueAsBytes(representation)), limit);
+    }
+
+    private static List<TraceDto> parsedTraces(JsonNode representation, String functionalityName) throws IOException {
+        List<TraceDto> traces = new ArrayList<>();
+        for (JsonNode trace : representation.get(functionalityName).get("t"))
+            traces.add(MAPPER.treeToValue(trace, TraceDto.class));
+        return traces;
+    }
+
+    // The first traces until "limit" non empty traces are seen
+    private static List<TraceDto> limitedTraces(List<TraceDto> traces, int limit) {
+        List<TraceDto> limitedTraces = new ArrayList<>();
+        int tracesCounter = 0;
+        for (TraceDto t : traces) {
+            if (limit != 0 && tracesCounter == limit)
+                break;
+            limitedTraces.add(t);
+            if (t.size() > 0)
+                tracesCounter++;
+        }
+        return limitedTraces;
+    }
+
+    // First of the limited traces with the highest value, null if there are no traces
+    private static TraceDto highestTrace(List<TraceDto> traces, int limit, ToIntFunction<TraceDto> value) {
+        TraceDto highestTrace = null;
+        for (TraceDto t : limitedTraces(traces, limit))
+            if (highestTrace == null || value.applyAsInt(t) > value.applyAsInt(highestTrace))
+                highestTrace = t;
+        return highestTrace;
+    }
+
+    private static void assertSameTraces(List<TraceDto> expected, List<TraceDto> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertSameTrace(expected.get(i), actual.get(i));
+    }
+
+    private static void assertSameTrace(TraceDto expected, TraceDto actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getFrequency(), actual.getFrequency());
+        assertArrayEquals("trace " + expected.getId(), expected.getElements(), actual.getElements());
+    }
+
+    @Test
+    public void functionalitiesAreStreamedInFileOrder() throws IOException {
+        ObjectNode representation = representation();
+
+        try (FunctionalityTracesIterator iter = iterator(representation, 0)) {
+            Iterator<String> functionalitiesNames = iter.getFunctionalitiesNames();
+            Iterator<String> expectedNames = representation.fieldNames();
+            while (expectedNames.hasNext()) {
+                String functionalityName = expectedNames.next();
+                assertTrue(functionalitiesNames.hasNext());
+                assertEquals(functionalityName, functionalitiesNames.next());
+
+                iter.getFunctionalityWithName(functionalityName);
+                assertSameTraces(parsedTraces(representation, functionalityName), iter.getAllTraces());
+                assertEquals(representation.get(functionalityName).get("f").asInt(), iter.getFunctionalityFrequency());
+            }
+            assertFalse(functionalitiesNames.hasNext());
+        }
+    }
+
+    @Test
+    public void functionalitiesNotRequestedAreSkipped() throws IOException {
+        ObjectNode representation = representation();
+
+        try (FunctionalityTracesIterator iter = iterator(representation, 0)) {
+            for (String functionalityName : Arrays.asList("Functionality1", "Functionality2", "Functionality6", "Functionality9")) {
+                iter.getFunctionalityWithName(functionalityName);
+                assertSameTraces(parsedTraces(representation, functionalityName), iter.getAllTraces());
+            }
+        }
+    }
+
+    @Test
+    public void tracesAreLimitedToTheFirstNonEmptyOnes() throws IOException {
+        ObjectNode representation = representation();
+
+        for (int limit : LIMITS) {
+            try (FunctionalityTracesIterator iter = iterator(representation, limit)) {
+                Iterator<String> functionalitiesNames = iter.getFunctionalitiesNames();
+                while (functionalitiesNames.hasNext()) {
+                    String functionalityName = functionalitiesNames.next();
+                    iter.getFunctionalityWithName(functionalityName);
+                    assertSameTraces(limitedTraces(parsedTraces(representation, functionalityName), limit), iter.getAllTraces());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void selectedTracesAreTheHighestOfTheLimitedOnes() throws IOException {
+        ObjectNode representation = representation();
+
+        for (int limit : LIMITS) {
+            // Each functionality is read with a single iterator, the remaining traces being skipped after a selection
+            for (Constants.TraceType traceType : Arrays.asList(Constants.TraceType.LONGEST, Constants.TraceType.WITH_MORE_DIFFERENT_ACCESSES)) {
+                try (FunctionalityTracesIterator iter = iterator(representation, limit)) {
+                    Iterator<String> functionalitiesNames = iter.getFunctionalitiesNames();
+                    while (functionalitiesNames.hasNext()) {
+                        String functionalityName = functionalitiesNames.next();
+                        iter.getFunctionalityWithName(functionalityName);
+                        List<TraceDto> traces = parsedTraces(representation, functionalityName);
+
+                        if (traceType == Constants.TraceType.LONGEST)
+                            assertSameTrace(highestTrace(traces, limit, TraceDto::getUncompressedSize), iter.getLongestTrace());
+                        else
+                            assertSameTrace(highestTrace(traces, limit, TraceDto::getDifferentAccessesCount), iter.getTraceWithMoreDifferentAccesses());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void functionalitiesAlreadyPassedAreReadAgainFromRepresentationsWithoutIndex() throws IOException {
+        ObjectNode representation = representation();
+        byte[] file = MAPPER.writeValueAsBytes(representation);
+        int[] fileReads = {0};
+        GridFsService gridFsService = new GridFsService() {
+            @Override
+            public InputStream getFile(String fileName) {
+                fileReads[0]++;
+                return new ByteArrayInputStream(file);
+            }
+        };
+        AccessesRepresentation accesses = new AccessesRepresentation();
+        accesses.setName("FunctionalityTracesIteratorTests");
+
+        try (FunctionalityTracesIterator iter = new FunctionalityTracesIterator(gridFsService, accesses, 0)) {
+            for (String functionalityName : Arrays.asList("Functionality5", "Functionality2", "Functionality8", "Functionality8", "Functionality0", "Functionality9")) {
+                iter.getFunctionalityWithName(functionalityName);
+                assertSameTraces(parsedTraces(representation, functionalityName), iter.getAllTraces());
+                assertEquals(representation.get(functionalityName).get("f").asInt(), iter.getFunctionalityFrequency());
+            }
+        }
+        assertEquals(4, fileReads[0]); // the first read and one for each functionality behind the previous one
+    }
+
+    @Test(expected = IOException.class)
+    public void missingFunctionalitiesAreNotFoundWithoutIndex() throws IOException {
+        GridFsService gridFsService = new GridFsService() {
+            @Override
+            public InputStream getFile(String fileName) throws IOException {
+                return new ByteArrayInputStream(MAPPER.writeValueAsBytes(representation()));
+            }
+        };
+        AccessesRepresentation accesses = new AccessesRepresentation();
+        accesses.setName("FunctionalityTracesIteratorTests");
+
+        try (FunctionalityTracesIterator iter = new FunctionalityTracesIterator(gridFsService, accesses, 0)) {
+            iter.getFunctionalityWithName("Functionality5");
+            iter.getFunctionalityWithName("Functionality10");
+        }
+    }
+
+    // A stream given to the iterator cannot be read again
+    @Test(expected = IOException.class)
+    public void functionalitiesAlreadyPassedAreNotFound() throws IOException {
+        try (FunctionalityTracesIterator iter = iterator(representation(), 0)) {
+            iter.getFunctionalityWithName("Functionality5");
+            iter.getFunctionalityWithName("Functionality2");
+        }
+    }
+}
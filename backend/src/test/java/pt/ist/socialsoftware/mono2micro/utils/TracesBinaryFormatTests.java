@@ -0,0 +1,195 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TracesBinaryFormatTests {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Accesses, rules and occurrences of every size, entity IDs over 32767 and functionalities without traces
+    private static ObjectNode representation(boolean withIdenticalTraces) throws IOException {
+        Random random = new Random(3);
+        ObjectNode representation = MAPPER.createObjectNode();
+        for (int f = 0; f < 12; f++) {
+            ObjectNode functionality = representation.putObject("Functionality" + f);
+            functionality.put("f", random.nextInt(5));
+            ArrayNode traces = functionality.putArray("t");
+
+            int tracesCount = f == 3 ? 0 : 1 + random.nextInt(6);
+            for (int t = 0; t < tracesCount; t++) {
+                ObjectNode trace = traces.addObject();
+                trace.put("id", t);
+                trace.put("f", 1 + random.nextInt(3));
+                if (withIdenticalTraces && t > 0 && random.nextInt(3) == 0) {
+                    trace.set("a", traces.get(random.nextInt(t)).get("a").deepCopy());
+                    continue;
+                }
+
+                ArrayNode accesses = trace.putArray("a");
+                int accessesCount = t == 0 ? 0 : 1 + random.nextInt(9);
+                for (int a = 0; a < accessesCount; a++) {
+                    ArrayNode access = accesses.addArray();
+                    if (random.nextInt(5) == 0)
+                        access.add(1 + random.nextInt(300));
+                    else {
+                        access.add(random.nextBoolean() ? "R" : "W");
+                        access.add((int) (short) random.nextInt(65536));
+                    }
+                    if (random.nextInt(4) == 0)
+                        access.add(2 + random.nextInt(100000));
+                }
+            }
+        }
+        return (ObjectNode) MAPPER.readTree(MAPPER.writeValueAsBytes(representation)); // with the node types read back
+    }
+
+    private static byte[] toBinary(JsonNode representation) throws IOException {
+        return TracesBinaryFormat.fromJSON(new ByteArrayInputStream(MAPPER.writeValueAsBytes(representation)));
+    }
+
+    private static JsonNode toJSON(byte[] binaryFile) throws IOException {
+        ByteArrayOutputStream jsonFile = new ByteArrayOutputStream();
+        TracesBinaryFormat.toJSON(new ByteArrayInputStream(binaryFile), jsonFile);
+        return MAPPER.readTree(jsonFile.toByteArray());
+    }
+
+    @Test
+    public void jsonRoundTripKeepsTheRepresentation() throws IOException {
+        ObjectNode representation = representation(false);
+        byte[] binaryFile = toBinary(representation);
+
+        assertTrue(TracesBinaryFormat.isBinary(binaryFile));
+        assertFalse(TracesBinaryFormat.isBinary(MAPPER.writeValueAsBytes(representation)));
+        assertEquals(representation, toJSON(binaryFile));
+    }
+
+    @Test
+    public void binaryTracesAreTheStreamedOnes() throws IOException {
+        ObjectNode representation = representation(false);
+        byte[] binaryFile = toBinary(representation);
+
+        try (InputStream in = new ByteArrayInputStream(binaryFile);
+             FunctionalityTracesIterator iter = new FunctionalityTracesIterator(new ByteArrayInputStream(MAPPER.writeValueAsBytes(representation)), 0)
+        ) {
+            List<TracesBinaryFormat.FunctionalityHeader> directory = TracesBinaryFormat.readDirectory(in);
+            assertEquals(representation.size(), directory.size());
+
+            long blocksLength = 0;
+            Iterator<String> functionalitiesNames = iter.getFunctionalitiesNames();
+            for (TracesBinaryFormat.FunctionalityHeader functionality : directory) {
+                String functionalityName = functionalitiesNames.next();
+                iter.getFunctionalityWithName(functionalityName);
+                List<TraceDto> traces = iter.getAllTraces();
+
+                assertEquals(functionalityName, functionality.getName());
+                assertEquals(representation.get(functionalityName).get("f").asInt(), functionality.getFrequency());
+                assertEquals(traces.size(), functionality.getTracesCount());
+                for (TraceDto expected : traces) {
+                    TraceDto t = TracesBinaryFormat.readTrace(in);
+                    assertEquals(expected.getId(), t.getId());
+                    assertEquals(expected.getFrequency(), t.getFrequency());
+                    assertArrayEquals(functionalityName + " " + t.getId(), expected.getElements(), t.getElements());
+                }
+                blocksLength += functionality.getBlockLength();
+            }
+            assertFalse(functionalitiesNames.hasNext());
+            assertEquals(-1, in.read());
+            assertTrue(blocksLength < binaryFile.length);
+        }
+    }
+
+    @Test
+    public void identicalTracesAreFolded() throws IOException {
+        ObjectNode representation = representation(true);
+        assertFolded(representation, toJSON(TracesBinaryFormat.foldIdenticalTraces(toBinary(representation))));
+    }
+
+    @Test
+    public void identicalTracesOfJSONUploadsAreFolded() throws IOException {
+        ObjectNode representation = representation(true);
+        byte[] foldedFile = TracesBinaryFormat.foldIdenticalJSONTraces(MAPPER.writeValueAsBytes(representation));
+
+        assertFalse(TracesBinaryFormat.isBinary(foldedFile));
+        assertFolded(representation, MAPPER.readTree(foldedFile));
+    }
+
+    private static void assertFolded(ObjectNode representation, JsonNode folded) {
+        boolean anyFolded = false;
+        Iterator<String> functionalitiesNames = representation.fieldNames();
+        while (functionalitiesNames.hasNext()) {
+            String functionalityName = functionalitiesNames.next();
+            // The first trace with each elements, in file order, with the frequencies of the identical ones
+            Map<JsonNode, ObjectNode> expectedTraces = new LinkedHashMap<>();
+            for (JsonNode trace : representation.get(functionalityName).get("t")) {
+                ObjectNode firstTrace = expectedTraces.putIfAbsent(trace.get("a"), ((ObjectNode) trace).deepCopy());
+                if (firstTrace != null)
+                    firstTrace.put("f", firstTrace.get("f").asInt() + trace.get("f").asInt());
+            }
+
+            ArrayNode traces = (ArrayNode) folded.get(functionalityName).get("t");
+            assertEquals(functionalityName, new ArrayList<JsonNode>(expectedTraces.values()), toList(traces));
+            assertEquals(representation.get(functionalityName).get("f"), folded.get(functionalityName).get("f"));
+            anyFolded |= traces.size() < representation.get(functionalityName).get("t").size();
+        }
+        assertTrue(anyFolded);
+    }
+
+    private static List<JsonNode> toList(ArrayNode array) {
+        List<JsonNode> list = new ArrayList<>();
+        array.forEach(list::add);
+        return list;
+    }
+
+    @Test
+    public void filesWithoutIdenticalTracesAreNotCopied() throws IOException {
+        byte[] binaryFile = toBinary(representation(false));
+        assertSame(binaryFile, TracesBinaryFormat.foldIdenticalTraces(binaryFile));
+
+        byte[] jsonFile = MAPPER.writeValueAsBytes(representation(false));
+        assertSame(jsonFile, TracesBinaryFormat.foldIdenticalJSONTraces(jsonFile));
+    }
+
+    @Test
+    public void varintsRoundTrip() throws IOException {
+        int[] ints = {0, 1, 127, 128, 16383, 16384, Short.MAX_VALUE, 65535, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        long[] longs = {0, 128, Integer.MAX_VALUE + 1L, 1L << 40, Long.MAX_VALUE, -1};
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int value : ints)
+            TracesBinaryFormat.writeVarint(out, value);
+        for (long value : longs)
+            TracesBinaryFormat.writeVarLong(out, value);
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        for (int value : ints)
+            assertEquals(value, TracesBinaryFormat.readVarint(in));
+        for (long value : longs)
+            assertEquals(value, TracesBinaryFormat.readVarLong(in));
+        assertEquals(-1, in.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownVersionIsRefused() throws IOException {
+        byte[] binaryFile = toBinary(representation(false));
+        binaryFile[4]++; // the version follows the magic
+        TracesBinaryFormat.readDirectory(new ByteArrayInputStream(binaryFile));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedFilesAreRefused() throws IOException {
+        byte[] binaryFile = toBinary(representation(false));
+        TracesBinaryFormat.toJSON(new ByteArrayInputStream(Arrays.copyOf(binaryFile, binaryFile.length - 1)), new ByteArrayOutputStream());
+    }
+}
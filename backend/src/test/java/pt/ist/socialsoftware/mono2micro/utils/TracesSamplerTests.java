@@ -0,0 +1,121 @@
+package pt.ist.socialsoftware.mono2micro.utils;
+
+import org.junit.Test;
+import pt.ist.socialsoftware.mono2micro.functionality.dto.TraceDto;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TracesSamplerTests {
+    private static final Constants.TraceType[] SAMPLING_TRACE_TYPES = {
+            Constants.TraceType.RESERVOIR_SAMPLE,
+            Constants.TraceType.FREQUENCY_WEIGHTED_SAMPLE,
+            Constants.TraceType.STRATIFIED_SAMPLE
+    };
+
+    // Trace accessing entity in read mode
+    private static TraceDto trace(int id, int frequency, int entityID) {
+        return new TraceDto(id, frequency, new long[] {TraceDto.packAccess((short) entityID, (byte) 1, 1)});
+    }
+
+    private static List<TraceDto> sample(Constants.TraceType traceType, int sampleSize, List<TraceDto> traces) {
+        TracesSampler sampler = TracesSampler.create(traceType, sampleSize, "functionality");
+        for (TraceDto t : traces)
+            sampler.offer(t);
+        return sampler.getSample();
+    }
+
+    @Test
+    public void everyTraceIsKeptUnchangedWithinTheSampleSize() {
+        List<TraceDto> traces = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            traces.add(trace(i, i + 1, i % 3));
+
+        for (Constants.TraceType traceType : SAMPLING_TRACE_TYPES) {
+            for (int sampleSize : new int[] {0, 10, 20}) {
+                List<TraceDto> sample = sample(traceType, sampleSize, traces);
+                assertEquals(traceType + " " + sampleSize, traces, sample);
+            }
+        }
+    }
+
+    @Test
+    public void samplesHaveTheSampleSizeInFileOrderAndAreReproducible() {
+        List<TraceDto> traces = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            traces.add(trace(i, 1 + i % 4, i % 7));
+
+        for (Constants.TraceType traceType : SAMPLING_TRACE_TYPES) {
+            List<TraceDto> sample = sample(traceType, 50, traces);
+            assertEquals(traceType.toString(), 50, sample.size());
+            for (int i = 1; i < sample.size(); i++)
+                assertTrue(traceType.toString(), sample.get(i - 1).getId() < sample.get(i).getId());
+
+            List<TraceDto> again = sample(traceType, 50, traces);
+            for (int i = 0; i < sample.size(); i++) {
+                assertEquals(sample.get(i).getId(), again.get(i).getId());
+                assertEquals(sample.get(i).getFrequency(), again.get(i).getFrequency());
+            }
+        }
+    }
+
+    @Test
+    public void stratifiedSampleCoversEveryStratumInProportion() {
+        // entity 0 in 900 traces, entity 1 in 90 and entities 2 to 11 in one each
+        List<TraceDto> traces = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            traces.add(trace(i, 1, i % 10 != 0 ? 0 : i % 100 != 0 ? 1 : 2 + i / 100));
+
+        List<TraceDto> sample = sample(Constants.TraceType.STRATIFIED_SAMPLE, 100, traces);
+        assertEquals(100, sample.size());
+
+        Map<Short, Integer> sampledTraces = new TreeMap<>();
+        Map<Short, Integer> frequencies = new TreeMap<>();
+        for (TraceDto t : sample) {
+            sampledTraces.merge(t.getEntityID(0), 1, Integer::sum);
+            frequencies.merge(t.getEntityID(0), t.getFrequency(), Integer::sum);
+        }
+
+        assertEquals(12, sampledTraces.size());
+        for (short entityID = 2; entityID < 12; entityID++) {
+            assertEquals(1, (int) sampledTraces.get(entityID));
+            assertEquals(1, (int) frequencies.get(entityID));
+        }
+        // one trace per stratum and the 88 left in proportion to the 899 and 89 traces left, 80.07 and 7.93 of them
+        assertEquals(81, (int) sampledTraces.get((short) 0));
+        assertEquals(9, (int) sampledTraces.get((short) 1));
+        assertEquals(900, frequencies.get((short) 0), 81);
+        assertEquals(90, frequencies.get((short) 1), 9);
+    }
+
+    @Test
+    public void stratifiedSampleOfManyStrataKeepsTheSampleSize() {
+        // every trace is its own stratum, the strata beyond the sample size being one more
+        List<TraceDto> traces = new ArrayList<>();
+        for (int i = 0; i < 20000; i++)
+            traces.add(trace(i, 1, i));
+
+        List<TraceDto> sample = sample(Constants.TraceType.STRATIFIED_SAMPLE, 10, traces);
+        assertEquals(10, sample.size());
+
+        int totalFrequency = 0;
+        for (TraceDto t : sample)
+            totalFrequency += t.getFrequency();
+        assertTrue(totalFrequency > 10);
+    }
+
+    @Test
+    public void frequencyWeightedSamplePrefersFrequentTraces() {
+        List<TraceDto> traces = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            traces.add(trace(i, i % 100 == 0 ? 1000 : 1, 0));
+
+        List<TraceDto> sample = sample(Constants.TraceType.FREQUENCY_WEIGHTED_SAMPLE, 10, traces);
+        assertEquals(10, sample.size());
+        for (TraceDto t : sample) {
+            assertEquals(0, t.getId() % 100);
+            assertEquals(1, t.getFrequency());
+        }
+    }
+}
@@ -239,7 +239,7 @@ export const RecommendMatrixSciPy = ({codebaseName, strategy, setUpdateStrategie
 
                         />
                         <Form.Text className="text-muted">
-                            If no number is inserted, 0 is assumed to be the default value meaning the maximum number of traces
+                            If no number is inserted, 0 is assumed to be the default value meaning the maximum number of traces. For the samples, it is the sample size
                         </Form.Text>
                     </Col>
                 </Form.Group>
@@ -258,6 +258,15 @@ export const RecommendMatrixSciPy = ({codebaseName, strategy, setUpdateStrategie
                             <Form.Check onClick={handleChangeTraceType} name="traceType" label="With more different accesses" type="radio" id="withMoreDifferentTraces" value="WITH_MORE_DIFFERENT_ACCESSES"/>
 
                         </Col>
+                        <Col sm="auto">
+                            <Form.Check onClick={handleChangeTraceType} name="traceType" label="Reservoir sample" type="radio" id="reservoirSample" value="RESERVOIR_SAMPLE"/>
+                        </Col>
+                        <Col sm="auto">
+                            <Form.Check onClick={handleChangeTraceType} name="traceType" label="Frequency weighted sample" type="radio" id="frequencyWeightedSample" value="FREQUENCY_WEIGHTED_SAMPLE"/>
+                        </Col>
+                        <Col sm="auto">
+                            <Form.Check onClick={handleChangeTraceType} name="traceType" label="Stratified sample by accesses" type="radio" id="stratifiedSample" value="STRATIFIED_SAMPLE"/>
+                        </Col>
                     </Col>
                 </Form.Group>
                 <Form.Group as={Row} className="align-items-center mb-3">
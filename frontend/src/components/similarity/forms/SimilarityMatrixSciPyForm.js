@@ -12,6 +12,7 @@ import {RepresentationType} from "../../../models/representation/Representation"
 import {TraceType} from "../../../type-declarations/types";
 import {SIMILARITY_MATRIX_SCIPY} from "../../../models/similarity/SimilarityMatrixSciPy";
 import {WeightsFactory} from "../../../models/weights/WeightsFactory";
+import {ACCESSES_WEIGHTS} from "../../../models/weights/AccessesWeights";
 
 
 export const SimilarityMatrixSciPyForm = ({codebaseName, strategy, setUpdateStrategies}) => {
@@ -22,6 +23,7 @@ export const SimilarityMatrixSciPyForm = ({codebaseName, strategy, setUpdateStra
     const [linkageType, setLinkageType] = useState("average");
     const [tracesMaxLimit, setTracesMaxLimit] = useState(0);
     const [traceType, setTraceType] = useState(TraceType.ALL);
+    const [neighboursCount, setNeighboursCount] = useState(0);
     const [weightsList, setWeightsList] = useState([]);
     const [weightSum, setWeightSum] = useState(0);
 
@@ -42,7 +44,8 @@ export const SimilarityMatrixSciPyForm = ({codebaseName, strategy, setUpdateStra
             profile,
             linkageType,
             tracesMaxLimit,
-            traceType
+            traceType,
+            neighboursCount
         })
             .then(response => {
                 if (response.status === HttpStatus.CREATED) {
@@ -96,6 +99,19 @@ export const SimilarityMatrixSciPyForm = ({codebaseName, strategy, setUpdateStra
         setTracesMaxLimit(Number(event.target.value));
     }
 
+    function handleChangeNeighboursCount(event) {
+        setNeighboursCount(Number(event.target.value));
+    }
+
+    function handleChangeApproximationError(event) {
+        const approximationError = Number(event.target.value);
+        setWeightsList(prev => prev.map(weights => {
+            if (weights.type === ACCESSES_WEIGHTS)
+                weights.approximationError = approximationError;
+            return weights;
+        }));
+    }
+
     function handleChangeTraceType(event) {
         setTraceType(event.target.value);
     }
@@ -134,7 +150,7 @@ export const SimilarityMatrixSciPyForm = ({codebaseName, strategy, setUpdateStra
 
                         />
                         <Form.Text className="text-muted">
-                            If no number is inserted, 0 is assumed to be the default value meaning the maximum number of traces
+                            If no number is inserted, 0 is assumed to be the default value meaning the maximum number of traces. For the samples, it is the sample size
                         </Form.Text>
                     </Col>
                 </Form.Group>
@@ -152,6 +168,15 @@ export const SimilarityMatrixSciPyForm = ({codebaseName, strategy, setUpdateStra
                         <Col sm="auto">
                             <Form.Check onClick={handleChangeTraceType} name="traceType" label="With more different accesses" type="radio" id="withMoreDifferentTraces" value="WITH_MORE_DIFFERENT_ACCESSES"/>
                         </Col>
+                        <Col sm="auto">
+                            <Form.Check onClick={handleChangeTraceType} name="traceType" label="Reservoir sample" type="radio" id="reservoirSample" value="RESERVOIR_SAMPLE"/>
+                        </Col>
+                        <Col sm="auto">
+                            <Form.Check onClick={handleChangeTraceType} name="traceType" label="Frequency weighted sample" type="radio" id="frequencyWeightedSample" value="FREQUENCY_WEIGHTED_SAMPLE"/>
+                        </Col>
+                        <Col sm="auto">
+                            <Form.Check onClick={handleChangeTraceType} name="traceType" label="Stratified sample by accesses" type="radio" id="stratifiedSample" value="STRATIFIED_SAMPLE"/>
+                        </Col>
                     </Col>
                 </Form.Group>
                 <Form.Group as={Row} className="align-items-center mb-3">
@@ -168,6 +193,43 @@ export const SimilarityMatrixSciPyForm = ({codebaseName, strategy, setUpdateStra
                         <Form.Check onClick={handleChangeLinkageType} name="linkageType" label="Complete" type="radio" id="complete"/>
                     </Col>
                 </Form.Group>
+                <Form.Group as={Row} controlId="neighboursCount" className="mb-3">
+                    <Form.Label column sm={2}>
+                        Nearest Neighbours per Entity
+                    </Form.Label>
+                    <Col sm={2}>
+                        <FormControl
+                            type="number"
+                            placeholder="0 by default"
+                            value={neighboursCount === 0? '' : neighboursCount}
+                            onChange={handleChangeNeighboursCount}
+                        />
+                        <Form.Text className="text-muted">
+                            If no number is inserted, 0 is assumed to be the default value meaning the whole similarity matrix is stored. Otherwise only the nearest neighbours of each entity are stored, the matrix still being computed whole
+                        </Form.Text>
+                    </Col>
+                </Form.Group>
+                {weightsList.filter(weights => weights.type === ACCESSES_WEIGHTS).map(weights =>
+                    <Form.Group as={Row} key="approximationError" controlId="approximationError" className="mb-3">
+                        <Form.Label column sm={2}>
+                            Accesses Metrics Approximation Error
+                        </Form.Label>
+                        <Col sm={2}>
+                            <FormControl
+                                type="number"
+                                step="0.01"
+                                min="0"
+                                max="0.5"
+                                placeholder="0 by default"
+                                value={weights.approximationError === 0? '' : weights.approximationError}
+                                onChange={handleChangeApproximationError}
+                            />
+                            <Form.Text className="text-muted">
+                                If no number is inserted, 0 is assumed to be the default value meaning the access, write and read metrics are exact. Otherwise, they are estimated from samples of the functionalities of each entity with this standard error, which is much faster for codebases with many entities
+                            </Form.Text>
+                        </Col>
+                    </Form.Group>
+                )}
                 {weightsList.flatMap(weight => Object.entries(weight.weightsLabel).map(([key, value]) =>
                     <Form.Group as={Row} key={key} controlId={key} className="align-items-center mb-3">
                         <Form.Label column sm={2}>
@@ -16,6 +16,7 @@ export default class SimilarityMatrixSciPy extends Similarity {
     tracesMaxLimit: number;
     traceType: TraceType;
     weightsList: Weights[];
+    neighboursCount: number;
 
     constructor(similarity: any) {
         super(similarity);
@@ -25,6 +26,7 @@ export default class SimilarityMatrixSciPy extends Similarity {
         this.tracesMaxLimit =       similarity.tracesMaxLimit          ||     0;
         this.traceType =            similarity.traceType               ||     TraceType.ALL;
         this.weightsList =          WeightsFactory.getWeightsList(similarity.weightsList);
+        this.neighboursCount =      similarity.neighboursCount         ||     0;
     }
 
     printCard(handleDeleteSimilarity: (similarity: Similarity) => void): JSX.Element {
@@ -40,9 +42,16 @@ export default class SimilarityMatrixSciPy extends Similarity {
                     AmountOfTraces: {this.tracesMaxLimit} <br />
                     Type of traces: {this.traceType} <br />
                     Linkage Type: {this.linkageType} < br />
+                    {this.neighboursCount !== 0 && <span>Nearest Neighbours: {this.neighboursCount} <br/></span>}
                     {this.weightsList.flatMap((weights: any) =>
                         Object.entries(weights.weightsLabel).map(([key, value]) => <span key={key}>{value + ": " + weights[key] + "%"} <br/></span>)
                     )}
+                    {this.weightsList.map((weights: any) => weights.sequenceErrorBound > 0 &&
+                        <span key={weights.type + "ErrorBound"}>Sequence Metric Error Bound: {weights.sequenceErrorBound} <br/></span>
+                    )}
+                    {this.weightsList.map((weights: any) => weights.approximationError > 0 &&
+                        <span key={weights.type + "ApproximationError"}>Approximate Accesses Metrics, Standard Error: {weights.approximationError} <br/></span>
+                    )}
                 </Card.Text>
                 <Button href={`/codebases/${this.codebaseName}/${this.strategyName}/${this.name}/decomposition`}
                         variant={"success"}
@@ -8,6 +8,8 @@ export default class AccessesWeights extends Weights {
     writeMetricWeight?: number;
     readMetricWeight?: number;
     sequenceMetricWeight?: number;
+    sequenceErrorBound?: number;
+    approximationError?: number;
 
     public constructor(weights: any) {
         super(weights);
@@ -24,5 +26,7 @@ export default class AccessesWeights extends Weights {
         this.writeMetricWeight = weights.writeMetricWeight;
         this.readMetricWeight = weights.readMetricWeight;
         this.sequenceMetricWeight = weights.sequenceMetricWeight;
+        this.sequenceErrorBound = weights.sequenceErrorBound;
+        this.approximationError = weights.approximationError || 0;
     }
 }
\ No newline at end of file
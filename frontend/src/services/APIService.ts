@@ -214,6 +214,11 @@ export class APIService {
         return this.axios.post<null>("/similarity/create", similarity);
     }
 
+    getSimilarityNeighbours(similarityName: string) {
+        return this.axios.get<Record<string, Record<string, number>>>("/similarity/" + similarityName + "/neighbours")
+            .then(response => response.data);
+    }
+
     getSupportedRepresentationInfoTypes(algorithmType: string) {
         return this.axios.get("/clustering/" + algorithmType + "/getSupportedRepresentationInfoTypes");
     }
@@ -127,4 +127,7 @@ export enum TraceType {
     ALL = "ALL",
     LONGEST = "LONGEST",
     WITH_MORE_DIFFERENT_ACCESSES = "WITH_MORE_DIFFERENT_ACCESSES",
+    RESERVOIR_SAMPLE = "RESERVOIR_SAMPLE",
+    FREQUENCY_WEIGHTED_SAMPLE = "FREQUENCY_WEIGHTED_SAMPLE",
+    STRATIFIED_SAMPLE = "STRATIFIED_SAMPLE",
 }
\ No newline at end of file
@@ -1,4 +1,3 @@
-import numpy as np
 import pymongo
 import gridfs
 from scipy.cluster import hierarchy
@@ -6,18 +5,16 @@ from sklearn import metrics
 import json
 
 import env
+from scipyAlgorithm.similarityMatrix import loadSimilarityMatrix
 
 
-def createDecomposition(similarityMatrixName, linkageType, cutType, cutValue):
+def createDecomposition(similarityMatrixName, linkageType, cutType, cutValue, weights=None):
 
     client = pymongo.MongoClient(env.MONGO_DB)
     DB = client[env.MONGO_DB_NAME]
     fs = gridfs.GridFS(DB)  # To use with large files
     similarityMatrixFile = fs.find_one({"filename": similarityMatrixName})
-    similarityMatrix = json.loads(similarityMatrixFile.read().decode("utf-8"))
-
-    entities = similarityMatrix["elements"]
-    matrix = np.array(similarityMatrix["matrix"])
+    entities, matrix = loadSimilarityMatrix(similarityMatrixFile, weights)
 
     hierarc = hierarchy.linkage(y=matrix, method=linkageType)
 
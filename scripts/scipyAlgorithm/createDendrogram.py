@@ -1,7 +1,5 @@
-import numpy as np
 import matplotlib
 import matplotlib.pyplot as plt
-import json
 
 import pymongo
 import gridfs
@@ -9,6 +7,7 @@ from scipy.cluster import hierarchy
 from io import BytesIO
 
 import env
+from scipyAlgorithm.similarityMatrix import loadSimilarityMatrix
 
 matplotlib.use('agg')
 
@@ -19,10 +18,7 @@ def createDendrogram(similarityName, similarityMatrixName, linkageType):
     DB = client[env.MONGO_DB_NAME]
     fs = gridfs.GridFS(DB)  # To use with large files
     similarityMatrixFile = fs.find_one({"filename": similarityMatrixName})
-    similarityMatrix = json.loads(similarityMatrixFile.read().decode("utf-8"))
-
-    entities = similarityMatrix["elements"]
-    matrix = np.array(similarityMatrix["matrix"])
+    entities, matrix = loadSimilarityMatrix(similarityMatrixFile)
 
     hierarc = hierarchy.linkage(y=matrix, method=linkageType)
 
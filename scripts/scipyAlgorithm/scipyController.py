@@ -11,5 +11,8 @@ async def createDendrogram(similarityName, similarityMatrixName, linkageType):
 
 
 @scipyRouter.get("/scipy/{similarityMatrixName}/{linkageType}/{cutType}/{cutValue}/createDecomposition")
-async def createDecomposition(similarityMatrixName, linkageType, cutType, cutValue):
-    return createDecompositionScipy(similarityMatrixName, linkageType, cutType, float(cutValue))
+async def createDecomposition(similarityMatrixName, linkageType, cutType, cutValue, weights: str = None):
+    # Raw similarity matrices are weighted with the comma-separated weights
+    if weights is not None:
+        weights = [float(weight) for weight in weights.split(",")]
+    return createDecompositionScipy(similarityMatrixName, linkageType, cutType, float(cutValue), weights)
@@ -0,0 +1,85 @@
+import numpy as np
+import json
+
+MAGIC = b"M2MS"
+VERSION = 2  # 1 had the weighted formats only
+DENSE_FORMAT = 0
+SPARSE_FORMAT = 1
+RAW_DENSE_FORMAT = 2
+RAW_SPARSE_FORMAT = 3
+
+
+# Raw matrices, holding the values of every weight, are weighted with the given weights
+def loadSimilarityMatrix(similarityMatrixFile, weights=None):
+    data = similarityMatrixFile.read()
+    if data[:4] == MAGIC:
+        return loadBinarySimilarityMatrix(data, weights)
+    return loadJSONSimilarityMatrix(json.loads(data.decode("utf-8")))
+
+
+# Binary format written by SimilarityMatrixBinaryWriter, all values little-endian
+def loadBinarySimilarityMatrix(data, weights):
+    version, matrixFormat, n = np.frombuffer(data, dtype="<i4", count=3, offset=4)
+    if version < 1 or version > VERSION:
+        raise ValueError("Unknown similarity matrix version " + str(version))
+    if matrixFormat not in (DENSE_FORMAT, SPARSE_FORMAT, RAW_DENSE_FORMAT, RAW_SPARSE_FORMAT):
+        raise ValueError("Unknown similarity matrix format " + str(matrixFormat))
+    cellsCount = int(np.frombuffer(data, dtype="<i8", count=1, offset=16)[0])
+    n = int(n)
+
+    offset = 24
+    raw = matrixFormat in (RAW_DENSE_FORMAT, RAW_SPARSE_FORMAT)
+    weightsCount = 1
+    if raw:
+        weightsCount = int(np.frombuffer(data, dtype="<i4", count=1, offset=offset)[0])
+        offset += 4
+        if weights is None or len(weights) != weightsCount:
+            raise ValueError("A raw similarity matrix needs " + str(weightsCount) + " weights")
+    entities = np.frombuffer(data, dtype="<i4", count=n, offset=offset).tolist()
+    offset += 4 * n
+
+    if matrixFormat in (DENSE_FORMAT, RAW_DENSE_FORMAT):
+        values = np.frombuffer(data, dtype="<f4", count=weightsCount * n * n, offset=offset).reshape((weightsCount, n, n))
+        if not raw:
+            return entities, values[0].astype(np.float64)
+        matrix = weigh(values, weights).astype(np.float64)
+        np.fill_diagonal(matrix, 1)
+        return entities, matrix
+
+    rowStarts = np.frombuffer(data, dtype="<i4", count=n + 1, offset=offset)
+    offset += 4 * (n + 1)
+    columns = np.frombuffer(data, dtype="<i4", count=cellsCount, offset=offset)
+    offset += 4 * cellsCount
+    values = np.frombuffer(data, dtype="<f4", count=weightsCount * cellsCount, offset=offset).reshape((weightsCount, cellsCount))
+    return entities, densify(n, rowStarts, columns, weigh(values, weights) if raw else values[0])
+
+
+# Sum of the values of each weight multiplied by its weight, in percentage, in float32 and in the same order as
+# RawMatrix.getWeighted so the matrices are the same as the ones weighted by the backend
+def weigh(values, weights):
+    weighted = np.zeros(values.shape[1:], dtype=np.float32)
+    for k in range(len(weights)):
+        weighted += values[k] * np.float32(weights[k]) / np.float32(100)
+    return weighted
+
+
+def loadJSONSimilarityMatrix(similarityMatrix):
+    entities = similarityMatrix["elements"]
+    if similarityMatrix.get("format") != "csr":
+        return entities, np.array(similarityMatrix["matrix"])
+
+    return entities, densify(
+        len(entities),
+        np.array(similarityMatrix["rowStarts"]),
+        np.array(similarityMatrix["columns"], dtype=int),
+        similarityMatrix["values"]
+    )
+
+
+# Compressed sparse row matrix to a dense one, the cells missing are 0 and the diagonal is 1
+def densify(n, rowStarts, columns, values):
+    rows = np.repeat(np.arange(n), np.diff(rowStarts))
+    matrix = np.zeros((n, n))
+    matrix[rows, columns] = values
+    np.fill_diagonal(matrix, 1)
+    return matrix